@@ -0,0 +1,82 @@
+package pheme;
+
+import org.openjdk.jmh.annotations.*;
+import timedelayqueue.PubSubMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the durable throughput of the WriteAheadLog against its batch
+ * size: every operation appends a sent message and waits until it is
+ * forced to the storage device. A batch of 1 pays one fsync per message;
+ * larger batches let concurrent senders share one fsync, at the cost of
+ * waiting up to the latency budget for a batch to fill.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DurableCommitBenchmark {
+
+    @Param({"1", "8", "64", "512"})
+    private int maxBatch;
+
+    @Param({"1000"})
+    private long budgetMicros;
+
+    private static final UUID SENDER = UUID.randomUUID();
+    private static final List<UUID> RECEIVERS = List.of(UUID.randomUUID(), UUID.randomUUID());
+
+    private Path dir;
+    private WriteAheadLog log;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("pheme-wal-bench");
+        log = new WriteAheadLog(dir, budgetMicros, maxBatch, WriteAheadLog.SEGMENT_BYTES);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private long send() {
+        PubSubMessage msg = new PubSubMessage(SENDER, RECEIVERS, "{\"text\":\"a durable message\"}");
+        long ticket = log.append(LogRecord.send(msg));
+        log.await(ticket);
+        return ticket;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long sender1() {
+        return send();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long senders16() {
+        return send();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long senders64() {
+        return send();
+    }
+}
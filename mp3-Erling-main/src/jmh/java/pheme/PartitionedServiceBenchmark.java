@@ -0,0 +1,89 @@
+package pheme;
+
+import org.openjdk.jmh.annotations.*;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.VirtualClock;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the throughput of a PhemeService scales with threads when
+ * its users are held in one partition, behind what is in effect a single
+ * lock, and when they are spread over many. Every operation has a random
+ * user send a message, already ready, to another and read one message.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PartitionedServiceBenchmark {
+
+    private static final Timestamp PAST = new Timestamp(0);
+
+    @Param({"1", "64"})
+    private int partitions;
+
+    @Param({"10000"})
+    private int users;
+
+    private PhemeService srv;
+    private UUID[] ids;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        srv = new PhemeService(new NoTweets(), new VirtualClock(10L * PhemeService.DELAY), false, partitions);
+        ids = new UUID[users];
+        for (int u = 0; u < users; u++) {
+            ids[u] = UUID.randomUUID();
+            srv.addUser(ids[u], "user" + u, "pwd" + u);
+        }
+    }
+
+    private PubSubMessage sendAndRead() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(users);
+        int to = random.nextInt(users);
+        srv.sendMessage("user" + from, "pwd" + from, new PubSubMessage(
+            new UUID(random.nextLong(), random.nextLong()), PAST, ids[from],
+            List.of(ids[to]), "bench", BasicMessageType.SIMPLEMSG));
+        return srv.getNext("user" + to, "pwd" + to);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PubSubMessage threads1() {
+        return sendAndRead();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PubSubMessage threads4() {
+        return sendAndRead();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public PubSubMessage threads16() {
+        return sendAndRead();
+    }
+
+    /** a source with no accounts, as no user subscribes */
+    private static final class NoTweets implements TweetSource {
+        @Override
+        public boolean exists(String account) {
+            return false;
+        }
+
+        @Override
+        public List<PubSubMessage> getTweets(String account, long since, long until) {
+            throw new IllegalArgumentException();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a TimeDelayQueue of heap messages with one that keeps its
+ * messages in a MessageArena, at a steady backlog of size messages.
+ * Run with -prof gc to see the collection time spent on the backlog.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class ArenaQueueBenchmark {
+
+    private static final UUID SENDER = UUID.randomUUID();
+
+    @Param({"heap", "arena"})
+    private String store;
+
+    @Param({"100000", "1000000"})
+    private int size;
+
+    private TimeDelayQueue tdq;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tdq = store.equals("arena")
+            ? new TimeDelayQueue(0, Clock.SYSTEM, new MessageArena())
+            : new TimeDelayQueue(0, Clock.SYSTEM);
+        for (int i = 0; i < size; i++) {
+            tdq.add(message());
+        }
+    }
+
+    private static PubSubMessage message() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new PubSubMessage(new UUID(random.nextLong(), random.nextLong()),
+            new Timestamp(random.nextInt(Integer.MAX_VALUE)), SENDER, SENDER,
+            "{\"text\":\"a message of a typical length for a short post\"}", BasicMessageType.SIMPLEMSG);
+    }
+
+    @Benchmark
+    public String addGetNext() {
+        tdq.add(message());
+        return tdq.getNext().getContent();
+    }
+}
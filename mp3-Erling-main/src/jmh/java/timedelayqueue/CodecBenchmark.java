@@ -0,0 +1,71 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures MessageCodec encoding and decoding of a tweet-sized message,
+ * against heap and direct buffers, and reports the encoded size next
+ * to the length of toString() for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"heap", "direct"})
+    private String buffer;
+
+    @Param({"1", "8"})
+    private int receivers;
+
+    private final MessageCodec codec = new MessageCodec();
+    private PubSubMessage msg;
+    private ByteBuffer out;
+    private ByteBuffer in;
+
+    @Setup
+    public void setup() {
+        UUID[] ids = new UUID[receivers];
+        for (int i = 0; i < receivers; i++) {
+            ids[i] = UUID.randomUUID();
+        }
+        msg = new PubSubMessage(UUID.randomUUID(), new Timestamp(System.currentTimeMillis()),
+            UUID.randomUUID(), List.of(ids),
+            "Just setting up my twttr \u2014 a tweet-sized message of about one hundred and forty characters!!",
+            BasicMessageType.TWEET);
+        out = buffer.equals("direct") ? ByteBuffer.allocateDirect(4096) : ByteBuffer.allocate(4096);
+        in = buffer.equals("direct") ? ByteBuffer.allocateDirect(4096) : ByteBuffer.allocate(4096);
+        int size = codec.encode(msg, in);
+        in.flip();
+        System.out.printf("%nencoded %d bytes, toString() %d chars%n", size, msg.toString().length());
+    }
+
+    @Benchmark
+    public int encode() {
+        out.clear();
+        return codec.encode(msg, out);
+    }
+
+    @Benchmark
+    public PubSubMessage decode() {
+        in.rewind();
+        return codec.decode(in);
+    }
+
+    @Benchmark
+    public PubSubMessage roundTrip() {
+        out.clear();
+        codec.encode(msg, out);
+        out.flip();
+        return codec.decode(out);
+    }
+}
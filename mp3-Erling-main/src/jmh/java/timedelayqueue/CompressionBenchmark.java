@@ -0,0 +1,113 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU cost of compressing tweet contents in a PayloadStore,
+ * and prints the memory it saves, with no compression, plain deflate and
+ * deflate against a dictionary trained on the first half of the corpus.
+ * The corpus is a file of one tweet JSON per line, given with
+ * -p corpus=path, or else generated tweets shaped like TweetV2 JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    private static final int GENERATED = 4000;
+
+    @Param({"none", "deflate", "dictionary"})
+    private String mode;
+
+    @Param({""})
+    private String corpus;
+
+    private ContentCompressor compressor;
+    private PayloadStore payloads;
+    private String[] contents;
+    private int[] lengths;
+    private long[] ids;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<String> tweets = corpus.isEmpty() ? generate() : Files.readAllLines(Paths.get(corpus), StandardCharsets.UTF_8);
+        List<String> training = tweets.subList(0, tweets.size() / 2);
+        List<String> measured = tweets.subList(tweets.size() / 2, tweets.size());
+        switch (mode) {
+            case "deflate":
+                compressor = new ContentCompressor(ContentCompressor.DEFAULT_THRESHOLD);
+                break;
+            case "dictionary":
+                compressor = new ContentCompressor(ContentCompressor.DEFAULT_THRESHOLD,
+                    ContentCompressor.train(training, 16 * 1024));
+                break;
+            default:
+                compressor = new ContentCompressor(Integer.MAX_VALUE);
+        }
+        payloads = new PayloadStore(compressor);
+        contents = measured.toArray(new String[0]);
+        lengths = new int[contents.length];
+        ids = new long[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            lengths[i] = MessageCodec.utf8Length(contents[i]);
+            ids[i] = payloads.acquire(contents[i]);
+        }
+        System.out.println();
+        System.out.println(mode + ": " + payloads.stats());
+    }
+
+    private static List<String> generate() {
+        Random random = new Random(17);
+        List<String> tweets = new ArrayList<>();
+        for (int i = 0; i < GENERATED; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 10 + random.nextInt(30); w++) {
+                String word = Long.toString(random.nextLong() >>> 24, 36);
+                text.append(word, 0, Math.min(word.length(), 2 + random.nextInt(8))).append(' ');
+            }
+            tweets.add("{\"data\":{\"id\":\"" + (random.nextLong() >>> 1) + "\",\"author_id\":\""
+                + random.nextInt(1 << 30) + "\",\"created_at\":\"2022-11-" + (10 + random.nextInt(20))
+                + "T" + (10 + random.nextInt(14)) + ":" + (10 + random.nextInt(50)) + ":00.000Z\","
+                + "\"conversation_id\":\"" + (random.nextLong() >>> 1) + "\",\"lang\":\"en\","
+                + "\"text\":\"" + text + "\",\"public_metrics\":{\"retweet_count\":" + random.nextInt(900)
+                + ",\"reply_count\":" + random.nextInt(90) + ",\"like_count\":" + random.nextInt(9000)
+                + ",\"quote_count\":" + random.nextInt(40) + "},\"entities\":{\"hashtags\":[{\"start\":"
+                + random.nextInt(100) + ",\"end\":" + random.nextInt(100) + ",\"tag\":\"topic"
+                + random.nextInt(60) + "\"}],\"urls\":[{\"start\":" + random.nextInt(100)
+                + ",\"end\":" + random.nextInt(140) + ",\"url\":\"https://t.co/" + Long.toString(random.nextLong() >>> 14, 36)
+                + "\",\"display_url\":\"example.com/news\"}]},\"context_annotations\":[{\"domain\":{\"id\":\"46\","
+                + "\"name\":\"Business Taxonomy\",\"description\":\"Categories within Brand Verticals that narrow"
+                + " down the scope of Brands\"},\"entity\":{\"id\":\"1557696940178935808\",\"name\":\"Gaming Business\","
+                + "\"description\":\"Brands, companies, advertisers and every non-person handle\"}}],"
+                + "\"reply_settings\":\"everyone\",\"source\":\"Twitter for iPhone\",\"possibly_sensitive\":false},"
+                + "\"includes\":{\"users\":[{\"id\":\"" + random.nextInt(1 << 30) + "\",\"name\":\"user"
+                + random.nextInt(5000) + "\",\"username\":\"user" + random.nextInt(5000) + "\",\"verified\":"
+                + random.nextBoolean() + "}]}}");
+        }
+        return tweets;
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        int i = next++ % contents.length;
+        return compressor.compress(contents[i], lengths[i]);
+    }
+
+    @Benchmark
+    public String getContent() {
+        return payloads.get(ids[next++ % ids.length]);
+    }
+}
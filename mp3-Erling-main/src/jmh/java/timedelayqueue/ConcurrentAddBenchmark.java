@@ -0,0 +1,91 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures producer scalability of the single-lock TimeDelayQueue
+ * and the lock-free ConcurrentTimeDelayQueue. The add benchmarks only
+ * enqueue; the mixed benchmarks add a message that is already ready
+ * and deliver one, so the queue stays small.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ConcurrentAddBenchmark {
+
+    private static final Timestamp PAST = new Timestamp(0);
+    private static final UUID SENDER = UUID.randomUUID();
+
+    private TimeDelayQueue locked;
+    private ConcurrentTimeDelayQueue lockFree;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        locked = new TimeDelayQueue(0);
+        lockFree = new ConcurrentTimeDelayQueue(0);
+    }
+
+    private static PubSubMessage message() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new PubSubMessage(new UUID(random.nextLong(), random.nextLong()), PAST,
+            SENDER, SENDER, "bench", BasicMessageType.SIMPLEMSG);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean locked1() {
+        return locked.add(message());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean locked4() {
+        return locked.add(message());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean locked16() {
+        return locked.add(message());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean lockFree1() {
+        return lockFree.add(message());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean lockFree4() {
+        return lockFree.add(message());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean lockFree16() {
+        return lockFree.add(message());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public PubSubMessage lockedMixed16() {
+        locked.add(message());
+        return locked.getNext();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public PubSubMessage lockFreeMixed16() {
+        lockFree.add(message());
+        return lockFree.getNext();
+    }
+}
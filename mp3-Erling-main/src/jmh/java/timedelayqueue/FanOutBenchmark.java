@@ -0,0 +1,79 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares delivering one message to many receivers by adding it to
+ * every receiver's queue with delivering it through one stored copy in
+ * a shared MessageArena, each receiver's queue holding a reference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+
+    @Param({"10", "1000"})
+    private int receivers;
+
+    private final VirtualClock clock = new VirtualClock(0);
+    private TimeDelayQueue[] copied;
+    private TimeDelayQueue[] shared;
+    private MessageArena arena;
+    private List<UUID> ids;
+
+    @Setup
+    public void setup() {
+        arena = new MessageArena();
+        copied = new TimeDelayQueue[receivers];
+        shared = new TimeDelayQueue[receivers];
+        ids = new ArrayList<>();
+        for (int i = 0; i < receivers; i++) {
+            copied[i] = new TimeDelayQueue(0, clock);
+            shared[i] = new TimeDelayQueue(0, clock, arena);
+            ids.add(UUID.randomUUID());
+        }
+    }
+
+    private PubSubMessage message() {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(0), ids.get(0), ids,
+            "{\"text\":\"to everyone\"}", BasicMessageType.SIMPLEMSG);
+    }
+
+    /** add the message to every queue and deliver it from every queue */
+    @Benchmark
+    public int perReceiverCopy() {
+        PubSubMessage msg = message();
+        int delivered = 0;
+        for (TimeDelayQueue q : copied) {
+            q.add(msg);
+        }
+        for (TimeDelayQueue q : copied) {
+            delivered += q.getNext() == PubSubMessage.NO_MSG ? 0 : 1;
+        }
+        return delivered;
+    }
+
+    /** store the message once and deliver a reference from every queue */
+    @Benchmark
+    public int sharedArena() {
+        PubSubMessage msg = message();
+        long handle = arena.store(msg, receivers);
+        int delivered = 0;
+        for (TimeDelayQueue q : shared) {
+            q.addStored(handle);
+        }
+        for (TimeDelayQueue q : shared) {
+            delivered += q.getNext() == PubSubMessage.NO_MSG ? 0 : 1;
+        }
+        return delivered;
+    }
+}
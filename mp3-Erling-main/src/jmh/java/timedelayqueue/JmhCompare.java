@@ -0,0 +1,91 @@
+package timedelayqueue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prints the change of every benchmark score, and of the allocation
+ * per operation where the gc profiler ran, between two JMH result
+ * files written with -rf json.
+ */
+public class JmhCompare {
+
+    private static final String ALLOC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || args[0].isEmpty() || args[1].isEmpty()) {
+            System.err.println("usage: JmhCompare <baseline.json> <candidate.json>");
+            System.exit(2);
+        }
+        Map<String, JsonObject> baseline = load(Path.of(args[0]));
+        Map<String, JsonObject> candidate = load(Path.of(args[1]));
+        System.out.printf("%-72s %14s %14s %8s %12s %12s%n",
+            "benchmark", "baseline", "candidate", "change", "B/op before", "B/op after");
+        for (Map.Entry<String, JsonObject> entry : candidate.entrySet()) {
+            JsonObject after = entry.getValue();
+            JsonObject before = baseline.get(entry.getKey());
+            double newScore = score(after);
+            String unit = after.getAsJsonObject("primaryMetric").get("scoreUnit").getAsString();
+            if (before == null) {
+                System.out.printf("%-72s %14s %14.3f %8s %12s %12s  %s%n",
+                    entry.getKey(), "-", newScore, "new", "-", alloc(after), unit);
+                continue;
+            }
+            double oldScore = score(before);
+            System.out.printf("%-72s %14.3f %14.3f %+7.1f%% %12s %12s  %s%n",
+                entry.getKey(), oldScore, newScore, 100 * (newScore - oldScore) / oldScore,
+                alloc(before), alloc(after), unit);
+        }
+        for (String key : baseline.keySet()) {
+            if (!candidate.containsKey(key)) {
+                System.out.printf("%-72s %14.3f %14s %8s%n", key, score(baseline.get(key)), "-", "gone");
+            }
+        }
+    }
+
+    /** the results of a file, keyed by benchmark name and parameters */
+    private static Map<String, JsonObject> load(Path file) throws IOException {
+        Map<String, JsonObject> results = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            JsonArray array = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : array) {
+                JsonObject result = element.getAsJsonObject();
+                String name = result.get("benchmark").getAsString();
+                name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+                StringBuilder key = new StringBuilder(name);
+                if (result.has("params")) {
+                    Map<String, String> params = new TreeMap<>();
+                    for (Map.Entry<String, JsonElement> p : result.getAsJsonObject("params").entrySet()) {
+                        params.put(p.getKey(), p.getValue().getAsString());
+                    }
+                    key.append(params);
+                }
+                key.append(' ').append(result.get("mode").getAsString());
+                results.put(key.toString(), result);
+            }
+        }
+        return results;
+    }
+
+    private static double score(JsonObject result) {
+        return result.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+    }
+
+    private static String alloc(JsonObject result) {
+        JsonObject secondary = result.getAsJsonObject("secondaryMetrics");
+        if (secondary == null || !secondary.has(ALLOC)) {
+            return "-";
+        }
+        return String.format("%.1f", secondary.getAsJsonObject(ALLOC).get("score").getAsDouble());
+    }
+}
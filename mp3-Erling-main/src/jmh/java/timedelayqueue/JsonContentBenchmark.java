@@ -0,0 +1,59 @@
+package timedelayqueue;
+
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading one field of a tweet's JSON content by parsing the
+ * whole content with Gson against streaming to the field with
+ * JsonContent, on a heap message and on an arena view.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonContentBenchmark {
+
+    private PubSubMessage msg;
+    private PubSubMessage view;
+
+    @Setup
+    public void setup() {
+        StringBuilder json = new StringBuilder("{\"id\":\"1512\",\"lang\":\"en\",\"author_id\":\"42\",");
+        json.append("\"text\":\"").append("a tweet of some length ".repeat(6)).append("\",\"entities\":{\"urls\":[");
+        for (int i = 0; i < 20; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"start\":").append(i).append(",\"url\":\"https://t.co/x\"}");
+        }
+        json.append("]},\"context\":\"").append("x".repeat(500)).append("\"}");
+        msg = new PubSubMessage(UUID.randomUUID(), new Timestamp(0), UUID.randomUUID(), UUID.randomUUID(),
+            json.toString(), BasicMessageType.TWEET);
+        MessageArena arena = new MessageArena();
+        view = arena.view(arena.store(msg));
+    }
+
+    @Benchmark
+    public String fullParse() {
+        return JsonParser.parseString(msg.getContent()).getAsJsonObject().get("author_id").getAsString();
+    }
+
+    @Benchmark
+    public String streamed() {
+        return JsonContent.getString(msg, "author_id");
+    }
+
+    @Benchmark
+    public String streamedFromArena() {
+        return JsonContent.getString(view, "author_id");
+    }
+
+    @Benchmark
+    public String fullParseFromArena() {
+        return JsonParser.parseString(view.getContent()).getAsJsonObject().get("author_id").getAsString();
+    }
+}
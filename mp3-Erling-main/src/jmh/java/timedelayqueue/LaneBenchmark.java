@@ -0,0 +1,56 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of lanes on the hot path of a TimeDelayQueue: add and
+ * getNext at a steady backlog of size messages, nine tweets to every direct
+ * message, with timestamp order only or with a lane per message type.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LaneBenchmark {
+
+    private static final UUID SENDER = UUID.randomUUID();
+
+    @Param({"none", "lanes"})
+    private String lanes;
+
+    @Param({"10000", "100000"})
+    private int size;
+
+    private TimeDelayQueue tdq;
+    private int sent = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tdq = new TimeDelayQueue(0, Clock.SYSTEM, null, lanes.equals("lanes")
+            ? Map.of(BasicMessageType.SIMPLEMSG, 4, BasicMessageType.TWEET, 1) : null);
+        for (int i = 0; i < size; i++) {
+            tdq.add(message());
+        }
+    }
+
+    private PubSubMessage message() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        MessageType type = sent++ % 10 == 0 ? BasicMessageType.SIMPLEMSG : BasicMessageType.TWEET;
+        return new PubSubMessage(new UUID(random.nextLong(), random.nextLong()),
+            new Timestamp(random.nextInt(Integer.MAX_VALUE)), SENDER, SENDER, "test", type);
+    }
+
+    @Benchmark
+    public PubSubMessage addGetNext() {
+        tdq.add(message());
+        return tdq.getNext();
+    }
+}
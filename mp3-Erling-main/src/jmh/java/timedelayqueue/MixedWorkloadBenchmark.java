@@ -0,0 +1,105 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures producers and consumers running against the same queue at
+ * the same time, for the single-lock TimeDelayQueue and the lock-free
+ * ConcurrentTimeDelayQueue. Every group starts from a queue of size
+ * ready messages; override the thread split of a group with, for
+ * example, -tg 8,8.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Group)
+public class MixedWorkloadBenchmark {
+
+    private static final Timestamp PAST = new Timestamp(0);
+    private static final UUID SENDER = UUID.randomUUID();
+
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    private TimeDelayQueue locked;
+    private ConcurrentTimeDelayQueue lockFree;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        locked = new TimeDelayQueue(0);
+        lockFree = new ConcurrentTimeDelayQueue(0);
+        for (int i = 0; i < size; i++) {
+            locked.add(message());
+            lockFree.add(message());
+        }
+    }
+
+    private static PubSubMessage message() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new PubSubMessage(new UUID(random.nextLong(), random.nextLong()), PAST,
+            SENDER, SENDER, "mixed", BasicMessageType.SIMPLEMSG);
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public boolean lockedProducer() {
+        return locked.add(message());
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public PubSubMessage lockedConsumer() {
+        return locked.getNext();
+    }
+
+    @Benchmark
+    @Group("lockedWide")
+    @GroupThreads(4)
+    public boolean lockedWideProducer() {
+        return locked.add(message());
+    }
+
+    @Benchmark
+    @Group("lockedWide")
+    @GroupThreads(4)
+    public PubSubMessage lockedWideConsumer() {
+        return locked.getNext();
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(1)
+    public boolean lockFreeProducer() {
+        return lockFree.add(message());
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(1)
+    public PubSubMessage lockFreeConsumer() {
+        return lockFree.getNext();
+    }
+
+    @Benchmark
+    @Group("lockFreeWide")
+    @GroupThreads(4)
+    public boolean lockFreeWideProducer() {
+        return lockFree.add(message());
+    }
+
+    @Benchmark
+    @Group("lockFreeWide")
+    @GroupThreads(4)
+    public PubSubMessage lockFreeWideConsumer() {
+        return lockFree.getNext();
+    }
+}
@@ -0,0 +1,89 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the sliding-window peak load computation of
+ * TimeDelayQueue against the original per-millisecond scan.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PeakLoadBenchmark {
+
+    @Param({"1000", "10000"})
+    private int ops;
+
+    @Param({"1000", "60000"})
+    private int spanMillis;
+
+    @Param({"100"})
+    private int timeWindow;
+
+    private long[] times;
+    private List<Timestamp> operations;
+    private TimeDelayQueue tdq;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(221);
+        times = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            times[i] = random.nextInt(spanMillis);
+        }
+        Arrays.sort(times);
+        operations = new ArrayList<>();
+        for (long t : times) {
+            operations.add(new Timestamp(t));
+        }
+
+        tdq = new TimeDelayQueue(0);
+        UUID sender = UUID.randomUUID();
+        for (int i = 0; i < ops; i++) {
+            tdq.add(new PubSubMessage(sender, sender, "peak"));
+        }
+        tdq.getPeakLoad(timeWindow);
+    }
+
+    @Benchmark
+    public int slidingWindow() {
+        return OperationLog.peakLoad(times, times.length, timeWindow);
+    }
+
+    @Benchmark
+    public int legacyScan() {
+        return legacyPeakLoad(operations, timeWindow);
+    }
+
+    @Benchmark
+    public int trackedWindow() {
+        return tdq.getPeakLoad(timeWindow);
+    }
+
+    /** the original implementation of TimeDelayQueue.getPeakLoad */
+    private static int legacyPeakLoad(List<Timestamp> operations, int timeWindow) {
+        List<Integer> numbers = new ArrayList<>();
+        long start = operations.get(0).getTime();
+        long end = operations.get(operations.size() - 1).getTime();
+        if ((start + timeWindow) >= end) {
+            return operations.size();
+        }
+        for (long i = start; i <= end - timeWindow; i++) {
+            int number = 0;
+            for (Timestamp t : operations) {
+                if (t.getTime() >= i && t.getTime() <= i + timeWindow) {
+                    number++;
+                }
+            }
+            numbers.add(number);
+        }
+        return Collections.max(numbers);
+    }
+}
@@ -0,0 +1,180 @@
+package timedelayqueue;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the single-threaded operations of TimeDelayQueue on queues
+ * that already hold size messages.
+ *
+ * <p>
+ *     add and getNext change the size of the queue, so they run as
+ *     single shots of BATCH operations on a freshly filled queue and
+ *     report the time per operation. The other benchmarks keep the
+ *     queue at size messages. The largest sizes need several gigabytes
+ *     of heap; pick sizes with, for example, -p size=1000,100000.
+ * </p>
+ */
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class QueueOpsBenchmark {
+
+    static final int BATCH = 10_000;
+
+    private static final UUID SENDER = UUID.randomUUID();
+    private static final Timestamp PAST = new Timestamp(0);
+
+    static PubSubMessage message(Random random, long time) {
+        return new PubSubMessage(new UUID(random.nextLong(), random.nextLong()), new Timestamp(time),
+            SENDER, SENDER, "bench", BasicMessageType.SIMPLEMSG);
+    }
+
+    /** a queue of size ready messages with random timestamps */
+    static TimeDelayQueue filled(int size, int logRetention) {
+        TimeDelayQueue tdq = new TimeDelayQueue(0, logRetention, true,
+            IdWindow.DEFAULT_HORIZON, IdWindow.DEFAULT_CAPACITY);
+        Random random = new Random(221);
+        for (int i = 0; i < size; i++) {
+            tdq.add(message(random, random.nextInt(Integer.MAX_VALUE)));
+        }
+        return tdq;
+    }
+
+    @State(Scope.Thread)
+    public static class AddState {
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        TimeDelayQueue tdq;
+        PubSubMessage[] batch;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            tdq = null; // let the previous queue be collected before filling the next
+            tdq = filled(size, 1024);
+            Random random = new Random(size);
+            batch = new PubSubMessage[BATCH];
+            for (int i = 0; i < BATCH; i++) {
+                batch[i] = message(random, random.nextInt(Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DrainState {
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        TimeDelayQueue tdq;
+
+        /** size messages are left once the batch is drained */
+        @Setup(Level.Iteration)
+        public void setup() {
+            tdq = null;
+            tdq = filled(size + BATCH, 1024);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SteadyState {
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        TimeDelayQueue tdq;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            tdq = filled(size, Math.max(size, 1024));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ChurnState {
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        int size;
+
+        VirtualClock clock;
+        TimeDelayQueue tdq;
+
+        /** size transient messages, one expiring every millisecond */
+        @Setup(Level.Trial)
+        public void setup() {
+            clock = new VirtualClock(0);
+            tdq = new TimeDelayQueue(Integer.MAX_VALUE, 1024, true,
+                IdWindow.DEFAULT_HORIZON, IdWindow.DEFAULT_CAPACITY, clock);
+            for (int i = 0; i < size; i++) {
+                tdq.add(transientMessage());
+                clock.advance(1);
+            }
+        }
+
+        PubSubMessage transientMessage() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            return new TransientPubSubMessage(new UUID(random.nextLong(), random.nextLong()),
+                new Timestamp(clock.millis()), SENDER, SENDER, "churn", BasicMessageType.SIMPLEMSG, size - 1);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(BATCH)
+    @Warmup(iterations = 5, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public void add(AddState state) {
+        for (PubSubMessage msg : state.batch) {
+            state.tdq.add(msg);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(BATCH)
+    @Warmup(iterations = 5, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public void getNext(DrainState state, Blackhole bh) {
+        for (int i = 0; i < BATCH; i++) {
+            bh.consume(state.tdq.getNext());
+        }
+    }
+
+    /** add a ready message and deliver the head, keeping the size steady */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public PubSubMessage addGetNext(SteadyState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        state.tdq.add(new PubSubMessage(new UUID(random.nextLong(), random.nextLong()), PAST,
+            SENDER, SENDER, "bench", BasicMessageType.SIMPLEMSG));
+        return state.tdq.getNext();
+    }
+
+    /** the same window length every time, answered by a tracked window */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public int getPeakLoad(SteadyState state) {
+        return state.tdq.getPeakLoad(100);
+    }
+
+    /** a new window length almost every time, so the log is swept */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public int getPeakLoadNewWindow(SteadyState state) {
+        return state.tdq.getPeakLoad(ThreadLocalRandom.current().nextInt(1, 1 << 30));
+    }
+
+    /** one transient message added and one expired per millisecond */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public int transientChurn(ChurnState state) {
+        state.clock.advance(1);
+        state.tdq.add(state.transientMessage());
+        return state.tdq.getSize();
+    }
+}
@@ -0,0 +1,208 @@
+package pheme;
+
+import timedelayqueue.PubSubMessage;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * An AsyncPhemeService runs the calls of a PhemeService on an executor and
+ * returns CompletableFutures of their results, so a front end can keep many
+ * requests in flight without blocking a thread of its own on each, such as
+ * while a subscription asks Twitter whether an account exists or a change
+ * waits for its fsync.
+ *
+ * <p>
+ *     Each future completes with the result of the call, or exceptionally
+ *     with the exception the call throws, such as IllegalArgumentException
+ *     for a user that is not valid; handlers such as exceptionally receive
+ *     that exception itself, while get and join wrap it as the cause of an
+ *     ExecutionException and a CompletionException. The default executor starts a virtual
+ *     thread per call where the runtime has them, so blocked calls cost no
+ *     platform thread; elsewhere it queues calls for a fixed pool of daemon
+ *     threads.
+ * </p>
+ */
+public class AsyncPhemeService {
+    // Rep invariants:
+    //   service != null, executor != null
+    //   owned is executor if it was made by this, and null otherwise
+    // Abstraction function:
+    //   represents the calls of service, run on executor
+    // Thread safety argument:
+    //   all fields are final, service is thread-safe, and executors are
+    //   thread-safe
+
+    /** the threads of the default executor where there are no virtual threads */
+    static final int POOL_THREADS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final PhemeService service;
+    private final Executor executor;
+    private final ExecutorService owned;
+
+    /**
+     * Create a new AsyncPhemeService that runs calls on the default executor,
+     * which shutdown stops
+     *
+     * @param service the service to call
+     */
+    public AsyncPhemeService(PhemeService service) {
+        this.service = service;
+        this.owned = newDefaultExecutor();
+        this.executor = owned;
+    }
+
+    /**
+     * Create a new AsyncPhemeService that runs calls on a given executor,
+     * which stays the caller's to shut down
+     *
+     * @param service  the service to call
+     * @param executor the executor to run calls on
+     */
+    public AsyncPhemeService(PhemeService service, Executor executor) {
+        this.service = service;
+        this.executor = executor;
+        this.owned = null;
+    }
+
+    /**
+     * stop the default executor once the calls submitted so far have run;
+     * a given executor is left running
+     */
+    public void shutdown() {
+        if (owned != null) {
+            owned.shutdown();
+        }
+    }
+
+    /**
+     * @see PhemeService#addUser(UUID, String, String)
+     */
+    public CompletableFuture<Boolean> addUserAsync(UUID userID, String userName, String hashPassword) {
+        return call(() -> service.addUser(userID, userName, hashPassword));
+    }
+
+    /**
+     * @see PhemeService#removeUser(String, String)
+     */
+    public CompletableFuture<Boolean> removeUserAsync(String userName, String hashPassword) {
+        return call(() -> service.removeUser(userName, hashPassword));
+    }
+
+    /**
+     * @see PhemeService#addSubscription(String, String, String)
+     */
+    public CompletableFuture<Boolean> addSubscriptionAsync(String userName, String hashPassword,
+                                                           String twitterUserName) {
+        return call(() -> service.addSubscription(userName, hashPassword, twitterUserName));
+    }
+
+    /**
+     * @see PhemeService#addSubscription(String, String, String, String)
+     */
+    public CompletableFuture<Boolean> addSubscriptionAsync(String userName, String hashPassword,
+                                                           String twitterUserName, String pattern) {
+        return call(() -> service.addSubscription(userName, hashPassword, twitterUserName, pattern));
+    }
+
+    /**
+     * @see PhemeService#cancelSubscription(String, String, String)
+     */
+    public CompletableFuture<Boolean> cancelSubscriptionAsync(String userName, String hashPassword,
+                                                              String twitterUserName) {
+        return call(() -> service.cancelSubscription(userName, hashPassword, twitterUserName));
+    }
+
+    /**
+     * @see PhemeService#cancelSubscription(String, String, String, String)
+     */
+    public CompletableFuture<Boolean> cancelSubscriptionAsync(String userName, String hashPassword,
+                                                              String twitterUserName, String pattern) {
+        return call(() -> service.cancelSubscription(userName, hashPassword, twitterUserName, pattern));
+    }
+
+    /**
+     * @see PhemeService#sendMessage(String, String, PubSubMessage)
+     */
+    public CompletableFuture<Boolean> sendMessageAsync(String userName, String hashPassword, PubSubMessage msg) {
+        return call(() -> service.sendMessage(userName, hashPassword, msg));
+    }
+
+    /**
+     * @see PhemeService#isDelivered(UUID, UUID)
+     */
+    public CompletableFuture<Boolean> isDeliveredAsync(UUID msgID, UUID user) {
+        return call(() -> service.isDelivered(msgID, user));
+    }
+
+    /**
+     * @see PhemeService#isDelivered(UUID, List)
+     */
+    public CompletableFuture<List<Boolean>> isDeliveredAsync(UUID msgID, List<UUID> userList) {
+        return call(() -> service.isDelivered(msgID, userList));
+    }
+
+    /**
+     * @see PhemeService#isUser(String)
+     */
+    public CompletableFuture<Boolean> isUserAsync(String userName) {
+        return call(() -> service.isUser(userName));
+    }
+
+    /**
+     * @see PhemeService#getNext(String, String)
+     */
+    public CompletableFuture<PubSubMessage> getNextAsync(String userName, String hashPassword) {
+        return call(() -> service.getNext(userName, hashPassword));
+    }
+
+    /**
+     * @see PhemeService#getAllRecent(String, String)
+     */
+    public CompletableFuture<List<PubSubMessage>> getAllRecentAsync(String userName, String hashPassword) {
+        return call(() -> service.getAllRecent(userName, hashPassword));
+    }
+
+    private <T> CompletableFuture<T> call(Supplier<T> call) {
+        // unlike supplyAsync, complete with the exception itself rather than
+        // a CompletionException around it, so handlers see what the call threw
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(call.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task, if the
+     * runtime has virtual threads, and otherwise a fixed pool of
+     * POOL_THREADS daemon threads
+     */
+    static ExecutorService newDefaultExecutor() {
+        try {
+            // virtual threads are final from Java 21, after the Java 17 this builds for
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory daemons = r -> {
+                Thread thread = new Thread(r, "pheme-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newFixedThreadPool(POOL_THREADS, daemons);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package pheme;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A DeliveryBitmap is a compressed set of non-negative longs, the sequence
+ * numbers of the messages delivered to one user.
+ *
+ * <p>
+ *     The set is split, as in a roaring bitmap, into chunks of 2^16 values
+ *     sharing their high bits. A chunk with at most ARRAY_MAX values
+ *     keeps their low 16 bits in a sorted char array; a fuller chunk keeps a
+ *     bitmap of 2^16 bits. Membership is a binary search over chunks
+ *     followed by a search or a bit test. Sequence numbers are handed out
+ *     in increasing order, so most adds append to the last chunk.
+ * </p>
+ *
+ * <p>
+ *     Sequence numbers are shared by all users, so the cost per message
+ *     depends on the share of all deliveries that a user receives: one bit
+ *     per message for a user who receives every message, at most two bytes
+ *     per message otherwise, plus about 40 bytes for every run of 2^16
+ *     sequence numbers in which the user receives any message. A user who
+ *     receives fewer than one in 2^16 deliveries thus pays about 40 bytes
+ *     per message. Chunks below the oldest sequence number still
+ *     remembered are dropped with removeBelow.
+ * </p>
+ */
+class DeliveryBitmap {
+    // Rep invariants:
+    //   keys[0..size) is strictly increasing and >= 0, containers.length == keys.length == counts.length
+    //   containers[i] is a char[] with counts[i] <= ARRAY_MAX sorted distinct
+    //   values first, or a long[BITMAP_WORDS] with counts[i] > ARRAY_MAX bits set
+    //   counts[i] > 0 for i < size, and cardinality is the sum of counts[0..size)
+    // Abstraction function:
+    //   represents the set of keys[i] << 16 | v for every i < size and low
+    //   value v held by containers[i]
+    // Thread safety argument:
+    //   every method is synchronized
+
+    /** the most values a chunk keeps in an array container */
+    static final int ARRAY_MAX = 4096;
+
+    private static final int BITMAP_WORDS = (1 << 16) / 64;
+
+    /** an estimate of the bytes taken by the header of an array object */
+    private static final int ARRAY_HEADER = 16;
+
+    private long[] keys = new long[1];
+    private Object[] containers = new Object[1];
+    private int[] counts = new int[1];
+    private int size = 0;
+    private long cardinality = 0;
+
+    /**
+     * add a value to the set
+     *
+     * @param value the value, >= 0
+     * @return true if value was not in the set
+     * throws IllegalArgumentException if value < 0
+     */
+    synchronized boolean add(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException();
+        }
+        long high = value >>> 16;
+        char low = (char) value;
+        int i = find(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, high);
+        }
+        boolean added = containers[i] instanceof long[]
+            ? setBit((long[]) containers[i], low) : addToArray(i, low);
+        if (added) {
+            counts[i]++;
+            cardinality++;
+        }
+        return added;
+    }
+
+    /**
+     * @param value the value
+     * @return true if value is in the set
+     */
+    synchronized boolean contains(long value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = find(value >>> 16);
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) value;
+        if (containers[i] instanceof long[]) {
+            return (((long[]) containers[i])[low >>> 6] & 1L << low) != 0;
+        }
+        return Arrays.binarySearch((char[]) containers[i], 0, counts[i], low) >= 0;
+    }
+
+    /**
+     * @return the number of values in the set
+     */
+    synchronized long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * drop the chunks that hold only values less than floor; values
+     * less than floor in the chunk of floor may be kept
+     *
+     * @param floor the least value that must be kept
+     */
+    synchronized void removeBelow(long floor) {
+        long key = floor >>> 16;
+        int dropped = 0;
+        while (dropped < size && keys[dropped] < key) {
+            cardinality -= counts[dropped];
+            dropped++;
+        }
+        if (dropped == 0) {
+            return;
+        }
+        System.arraycopy(keys, dropped, keys, 0, size - dropped);
+        System.arraycopy(containers, dropped, containers, 0, size - dropped);
+        System.arraycopy(counts, dropped, counts, 0, size - dropped);
+        Arrays.fill(containers, size - dropped, size, null);
+        size -= dropped;
+    }
+
+    /**
+     * perform an action for every value of the set, in increasing order
+     *
+     * @param action the action, which must not modify this set
+     */
+    synchronized void forEach(LongConsumer action) {
+        for (int i = 0; i < size; i++) {
+            long high = keys[i] << 16;
+            if (containers[i] instanceof long[]) {
+                long[] bits = (long[]) containers[i];
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    for (long word = bits[w]; word != 0; word &= word - 1) {
+                        action.accept(high | w << 6 | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            } else {
+                char[] values = (char[]) containers[i];
+                for (int k = 0; k < counts[i]; k++) {
+                    action.accept(high | values[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an estimate of the bytes of memory that the set takes
+     */
+    synchronized long footprint() {
+        long bytes = 3L * ARRAY_HEADER + 8L * keys.length + 8L * containers.length + 4L * counts.length;
+        for (int i = 0; i < size; i++) {
+            bytes += ARRAY_HEADER + (containers[i] instanceof long[]
+                ? 8L * BITMAP_WORDS : 2L * ((char[]) containers[i]).length);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the index of the chunk with key high, or -(insertion point) - 1 if there is none
+     */
+    private int find(long high) {
+        // appends hit the last chunk
+        if (size > 0 && keys[size - 1] == high) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insertChunk(int i, long high) {
+        if (size == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        System.arraycopy(counts, i, counts, i + 1, size - i);
+        keys[i] = high;
+        containers[i] = new char[4];
+        counts[i] = 0;
+        size++;
+    }
+
+    private boolean addToArray(int i, char low) {
+        char[] values = (char[]) containers[i];
+        int count = counts[i];
+        int at = count > 0 && values[count - 1] < low ? -count - 1 : Arrays.binarySearch(values, 0, count, low);
+        if (at >= 0) {
+            return false;
+        }
+        if (count == ARRAY_MAX) {
+            long[] bits = new long[BITMAP_WORDS];
+            for (int k = 0; k < count; k++) {
+                setBit(bits, values[k]);
+            }
+            containers[i] = bits;
+            return setBit(bits, low);
+        }
+        at = -at - 1;
+        if (count == values.length) {
+            values = Arrays.copyOf(values, Math.min(ARRAY_MAX, count * 2));
+            containers[i] = values;
+        }
+        System.arraycopy(values, at, values, at + 1, count - at);
+        values[at] = low;
+        return true;
+    }
+
+    private static boolean setBit(long[] bits, char low) {
+        long before = bits[low >>> 6];
+        bits[low >>> 6] = before | 1L << low;
+        return bits[low >>> 6] != before;
+    }
+}
@@ -0,0 +1,77 @@
+package pheme;
+
+/**
+ * A DeliveryStats is a snapshot of the delivery records of a PhemeService.
+ */
+public class DeliveryStats {
+    // Rep invariants:
+    //   all counts >= 0
+    // Abstraction function:
+    //   represents the delivery records of a PhemeService at one moment
+    // Thread safety argument:
+    //   immutable
+
+    private final int users;
+    private final int messages;
+    private final long deliveries;
+    private final long bitmapBytes;
+    private final long indexBytes;
+
+    DeliveryStats(int users, int messages, long deliveries, long bitmapBytes, long indexBytes) {
+        this.users = users;
+        this.messages = messages;
+        this.deliveries = deliveries;
+        this.bitmapBytes = bitmapBytes;
+        this.indexBytes = indexBytes;
+    }
+
+    /**
+     * @return the number of users with delivery records
+     */
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * @return the number of distinct messages whose sequence number is remembered
+     */
+    public int getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the number of (message, user) deliveries recorded
+     */
+    public long getDeliveries() {
+        return deliveries;
+    }
+
+    /**
+     * @return an estimate of the bytes taken by the bitmaps of all users
+     */
+    public long getBitmapBytes() {
+        return bitmapBytes;
+    }
+
+    /**
+     * @return an estimate of the bytes taken by the map from message id
+     * to sequence number
+     */
+    public long getIndexBytes() {
+        return indexBytes;
+    }
+
+    /**
+     * @return bitmap and index bytes per delivery recorded, 0 if none is
+     */
+    public double getBytesPerDelivery() {
+        return deliveries == 0 ? 0 : (double) (bitmapBytes + indexBytes) / deliveries;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d deliveries of %d messages to %d users in %d bytes of bitmaps"
+                + " and %d bytes of index (%.2f per delivery)",
+            deliveries, messages, users, bitmapBytes, indexBytes, getBytesPerDelivery());
+    }
+}
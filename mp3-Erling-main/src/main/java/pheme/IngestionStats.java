@@ -0,0 +1,99 @@
+package pheme;
+
+/**
+ * An IngestionStats is a snapshot of the metrics of the background
+ * ingestion of tweets into a PhemeService.
+ */
+public class IngestionStats {
+    // Rep invariants:
+    //   all counts and times >= 0, fetchP50 <= fetchP99 <= fetchMax
+    // Abstraction function:
+    //   represents the ingestion metrics of a PhemeService at one moment
+    // Thread safety argument:
+    //   immutable
+
+    private final long polls;
+    private final long failures;
+    private final long fetches;
+    private final long delivered;
+    private final long fetchP50;
+    private final long fetchP99;
+    private final long fetchMax;
+    private final long lag;
+
+    IngestionStats(long polls, long failures, long fetches, long delivered,
+                   long fetchP50, long fetchP99, long fetchMax, long lag) {
+        this.polls = polls;
+        this.failures = failures;
+        this.fetches = fetches;
+        this.delivered = delivered;
+        this.fetchP50 = fetchP50;
+        this.fetchP99 = fetchP99;
+        this.fetchMax = fetchMax;
+        this.lag = lag;
+    }
+
+    /**
+     * @return the number of ingestion rounds run
+     */
+    public long getPolls() {
+        return polls;
+    }
+
+    /**
+     * @return the number of ingestion rounds in which a fetch failed
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of fetches made from the tweet source
+     */
+    public long getFetches() {
+        return fetches;
+    }
+
+    /**
+     * @return the number of tweets enqueued, each counted once however many users receive it
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return the median time of a fetch, in milliseconds
+     */
+    public long getFetchP50() {
+        return fetchP50;
+    }
+
+    /**
+     * @return the 99th percentile time of a fetch, in milliseconds
+     */
+    public long getFetchP99() {
+        return fetchP99;
+    }
+
+    /**
+     * @return the longest time of a fetch, in milliseconds
+     */
+    public long getFetchMax() {
+        return fetchMax;
+    }
+
+    /**
+     * @return the time, in milliseconds, since the followed account
+     * fetched least recently was last fetched
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d polls (%d failed), %d fetches (p50 %d ms, p99 %d ms, max %d ms),"
+            + " %d tweets enqueued, lag %d ms", polls, failures, fetches, fetchP50, fetchP99, fetchMax,
+            delivered, lag);
+    }
+}
@@ -0,0 +1,269 @@
+package pheme;
+
+import timedelayqueue.MessageCodec;
+import timedelayqueue.PubSubMessage;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * A LogRecord is one change to a PhemeService, as written to its
+ * write-ahead log: a user added or removed, a subscription added or
+ * cancelled, a message sent, or a message delivered to a user.
+ *
+ * <p>
+ *     A record is encoded as one byte for its kind followed by its fields:
+ *     strings as a varint byte length and UTF-8, ids as two longs, a
+ *     pattern as a byte that is 1 if it is present and then the pattern,
+ *     and a message as a self-contained MessageCodec encoding.
+ * </p>
+ */
+final class LogRecord {
+    // Rep invariants:
+    //   ADD_USER has user, userId and hash; REMOVE_USER has user
+    //   SUBSCRIBE and CANCEL have user and account, and pattern is null
+    //   for a subscription to every tweet of the account
+    //   SEND has message; DELIVER has userId and messageId
+    //   every field a kind does not have is null
+    // Abstraction function:
+    //   represents the change of kind to the named fields
+    // Safety from rep exposure:
+    //   all fields are private, final and immutable
+    // Thread safety argument:
+    //   LogRecord is immutable, and CODEC is shareable
+
+    /** the kinds of change */
+    enum Kind { ADD_USER, REMOVE_USER, SUBSCRIBE, CANCEL, SEND, DELIVER }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final MessageCodec CODEC = new MessageCodec();
+
+    private final Kind kind;
+    private final String user;
+    private final UUID userId;
+    private final String hash;
+    private final String account;
+    private final String pattern;
+    private final PubSubMessage message;
+    private final UUID messageId;
+
+    private LogRecord(Kind kind, String user, UUID userId, String hash, String account,
+                      String pattern, PubSubMessage message, UUID messageId) {
+        this.kind = kind;
+        this.user = user;
+        this.userId = userId;
+        this.hash = hash;
+        this.account = account;
+        this.pattern = pattern;
+        this.message = message;
+        this.messageId = messageId;
+    }
+
+    static LogRecord addUser(UUID userId, String user, String hash) {
+        return new LogRecord(Kind.ADD_USER, user, userId, hash, null, null, null, null);
+    }
+
+    static LogRecord removeUser(String user) {
+        return new LogRecord(Kind.REMOVE_USER, user, null, null, null, null, null, null);
+    }
+
+    /**
+     * @param pattern the pattern subscribed to, or null for every tweet
+     */
+    static LogRecord subscribe(String user, String account, String pattern) {
+        return new LogRecord(Kind.SUBSCRIBE, user, null, null, account, pattern, null, null);
+    }
+
+    /**
+     * @param pattern the pattern cancelled, or null for the whole account
+     */
+    static LogRecord cancel(String user, String account, String pattern) {
+        return new LogRecord(Kind.CANCEL, user, null, null, account, pattern, null, null);
+    }
+
+    static LogRecord send(PubSubMessage message) {
+        return new LogRecord(Kind.SEND, null, null, null, null, null, message, null);
+    }
+
+    static LogRecord deliver(UUID userId, UUID messageId) {
+        return new LogRecord(Kind.DELIVER, null, userId, null, null, null, null, messageId);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    String getUser() {
+        return user;
+    }
+
+    UUID getUserId() {
+        return userId;
+    }
+
+    String getHash() {
+        return hash;
+    }
+
+    String getAccount() {
+        return account;
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    PubSubMessage getMessage() {
+        return message;
+    }
+
+    UUID getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return the encoding of this record
+     */
+    byte[] encode() {
+        byte[] userBytes = bytes(user);
+        byte[] hashBytes = bytes(hash);
+        byte[] accountBytes = bytes(account);
+        byte[] patternBytes = bytes(pattern);
+        int size = 1 + sizeOf(userBytes) + sizeOf(hashBytes) + sizeOf(accountBytes);
+        switch (kind) {
+            case ADD_USER:
+                size += 2 * Long.BYTES;
+                break;
+            case SUBSCRIBE:
+            case CANCEL:
+                size += 1 + (pattern == null ? 0 : sizeOf(patternBytes));
+                break;
+            case SEND:
+                size += CODEC.encodedSize(message, 0);
+                break;
+            case DELIVER:
+                size += 4 * Long.BYTES;
+                break;
+            default:
+                break;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put((byte) kind.ordinal());
+        switch (kind) {
+            case ADD_USER:
+                putUuid(buf, userId);
+                putString(buf, userBytes);
+                putString(buf, hashBytes);
+                break;
+            case REMOVE_USER:
+                putString(buf, userBytes);
+                break;
+            case SUBSCRIBE:
+            case CANCEL:
+                putString(buf, userBytes);
+                putString(buf, accountBytes);
+                buf.put((byte) (pattern == null ? 0 : 1));
+                if (pattern != null) {
+                    putString(buf, patternBytes);
+                }
+                break;
+            case SEND:
+                CODEC.encode(message, buf, 0);
+                break;
+            case DELIVER:
+                putUuid(buf, userId);
+                putUuid(buf, messageId);
+                break;
+            default:
+                throw new AssertionError(kind);
+        }
+        return buf.array();
+    }
+
+    /**
+     * read a record from the whole of buf
+     *
+     * @param buf the encoding of a record
+     * @return the record
+     * throws IllegalArgumentException if buf does not hold exactly one record
+     */
+    static LogRecord decode(ByteBuffer buf) {
+        try {
+            int k = buf.get();
+            if (k < 0 || k >= KINDS.length) {
+                throw new IllegalArgumentException("unknown record kind " + k);
+            }
+            LogRecord record;
+            switch (KINDS[k]) {
+                case ADD_USER: {
+                    UUID id = getUuid(buf);
+                    String name = getString(buf);
+                    record = addUser(id, name, getString(buf));
+                    break;
+                }
+                case REMOVE_USER:
+                    record = removeUser(getString(buf));
+                    break;
+                case SUBSCRIBE:
+                case CANCEL: {
+                    String name = getString(buf);
+                    String acc = getString(buf);
+                    String pat = buf.get() == 0 ? null : getString(buf);
+                    record = KINDS[k] == Kind.SUBSCRIBE ? subscribe(name, acc, pat) : cancel(name, acc, pat);
+                    break;
+                }
+                case SEND:
+                    record = send(CODEC.decode(buf, 0));
+                    break;
+                case DELIVER: {
+                    UUID id = getUuid(buf);
+                    record = deliver(id, getUuid(buf));
+                    break;
+                }
+                default:
+                    throw new AssertionError(k);
+            }
+            if (buf.hasRemaining()) {
+                throw new IllegalArgumentException("trailing bytes after record");
+            }
+            return record;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated record", e);
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return bytes == null ? 0 : MessageCodec.varintSize(bytes.length) + bytes.length;
+    }
+
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        MessageCodec.putVarint(buf, bytes.length);
+        buf.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        long length = MessageCodec.getVarint(buf);
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("bad string length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putUuid(ByteBuffer buf, UUID id) {
+        buf.putLong(id.getMostSignificantBits());
+        buf.putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer buf) {
+        long msb = buf.getLong();
+        return new UUID(msb, buf.getLong());
+    }
+}
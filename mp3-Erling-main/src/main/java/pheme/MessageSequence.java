@@ -0,0 +1,183 @@
+package pheme;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A MessageSequence gives each delivered message id a sequence number the
+ * first time the message is delivered, and remembers it over a horizon.
+ *
+ * <p>
+ *     Sequence numbers are longs handed out in increasing order, so they
+ *     do not run out. Every horizon / CHECKPOINTS milliseconds the next
+ *     sequence number is noted; once a note is a horizon old, the ids
+ *     numbered before it are forgotten and floor() rises to it, so the
+ *     delivery records of lower numbers can be dropped. An id is thus
+ *     remembered for at least the horizon after it was numbered, the same
+ *     horizon over which queues reject a duplicate id; after it, the id may
+ *     be sent again as a new message, and gets a new number.
+ * </p>
+ */
+class MessageSequence {
+    // Rep invariants:
+    //   horizon > 0, span > 0
+    //   every value of seqs is less than next, and is less than floor
+    //   only if an id was looked up while expire was forgetting it
+    //   the notes are (times[i], marks[i]) for the count slots of the ring
+    //   from oldest, with non-decreasing times and marks in [floor, next]
+    // Abstraction function:
+    //   represents the map seqs from message id to sequence number, where
+    //   every number less than floor has been forgotten
+    // Thread safety argument:
+    //   seqs is a concurrent map and next an atomic counter, so an id is
+    //   numbered once, with computeIfAbsent; the notes are only accessed
+    //   under the lock of this, and floor and dueAt are volatile
+
+    /** the default time, in milliseconds, for which an id is remembered */
+    static final long DEFAULT_HORIZON = 24L * 60 * 60 * 1000;
+
+    /** the number of an id that is not remembered */
+    static final long NONE = -1;
+
+    /** an estimate of the bytes of one entry: a map node and slot, a UUID and a Long */
+    static final int ENTRY_BYTES = 96;
+
+    private static final int CHECKPOINTS = 8;
+
+    private final long horizon;
+    private final long span;
+    private final Map<UUID, Long> seqs = new ConcurrentHashMap<>();
+    private final AtomicLong next = new AtomicLong();
+    private final long[] times = new long[CHECKPOINTS + 1];
+    private final long[] marks = new long[CHECKPOINTS + 1];
+    private int oldest = 0;
+    private int count = 0;
+    private volatile long floor = 0;
+    private volatile long dueAt = Long.MIN_VALUE;
+
+    /**
+     * Create a new MessageSequence
+     *
+     * @param horizon the time, in milliseconds, for which an id is remembered, > 0
+     * throws IllegalArgumentException if horizon <= 0
+     */
+    MessageSequence(long horizon) {
+        if (horizon <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.horizon = horizon;
+        this.span = Math.max(1, horizon / CHECKPOINTS);
+    }
+
+    /**
+     * @param id the id of a message
+     * @return the number of id, or NONE if it has none
+     */
+    long get(UUID id) {
+        Long seq = seqs.get(id);
+        return seq == null ? NONE : seq;
+    }
+
+    /**
+     * @param id the id of a message
+     * @return the number of id, which is given one if it has none
+     */
+    long number(UUID id) {
+        return seqs.computeIfAbsent(id, m -> next.getAndIncrement());
+    }
+
+    /**
+     * forget the ids numbered more than the horizon ago, at most once
+     * every horizon / CHECKPOINTS
+     *
+     * @param now the current time in milliseconds
+     * @return true if floor() rose, so lower delivery records can be dropped
+     */
+    boolean expire(long now) {
+        if (now < dueAt) {
+            return false;
+        }
+        synchronized (this) {
+            if (now < dueAt) {
+                return false;
+            }
+            dueAt = now + span;
+            long mark = floor;
+            while (count > 0 && times[oldest] <= now - horizon) {
+                mark = marks[oldest];
+                oldest = (oldest + 1) % times.length;
+                count--;
+            }
+            int slot = (oldest + count) % times.length;
+            times[slot] = now;
+            marks[slot] = next.get();
+            count++;
+            if (mark == floor) {
+                return false;
+            }
+            long forgotten = mark;
+            floor = forgotten;
+            seqs.values().removeIf(seq -> seq < forgotten);
+            return true;
+        }
+    }
+
+    /**
+     * @return the least number that may still be remembered
+     */
+    long floor() {
+        return floor;
+    }
+
+    /**
+     * @return the number of ids remembered
+     */
+    int size() {
+        return seqs.size();
+    }
+
+    /**
+     * @return an estimate of the bytes taken by the ids remembered
+     */
+    long footprint() {
+        return (long) seqs.size() * ENTRY_BYTES;
+    }
+
+    /**
+     * @return the ids remembered with their numbers; numbers handed
+     * out while it is read are less than next()
+     */
+    Set<Map.Entry<UUID, Long>> entries() {
+        return Collections.unmodifiableMap(seqs).entrySet();
+    }
+
+    /**
+     * @return the number the next id will be given
+     */
+    long next() {
+        return next.get();
+    }
+
+    /**
+     * remember the number of an id, as saved from entries()
+     *
+     * @param id  the id of a message
+     * @param seq its number, >= 0
+     */
+    void restore(UUID id, long seq) {
+        seqs.put(id, seq);
+    }
+
+    /**
+     * continue numbering from a number saved from next()
+     *
+     * @param seq the next number, >= every number restored
+     */
+    void restoreNext(long seq) {
+        next.set(seq);
+    }
+}
@@ -1,46 +1,342 @@
 package pheme;
 
-import io.github.redouane59.twitter.dto.tweet.TweetV2;
 import timedelayqueue.BasicMessageType;
+import timedelayqueue.Clock;
+import timedelayqueue.ContentCompressor;
+import timedelayqueue.MessageArena;
+import timedelayqueue.MessageCodec;
 import timedelayqueue.MessageType;
+import timedelayqueue.PayloadStats;
+import timedelayqueue.PayloadStore;
 import timedelayqueue.PubSubMessage;
+import timedelayqueue.RecentIds;
 import timedelayqueue.TimeDelayQueue;
-import twitter.TwitterListener;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 
 public class PhemeService {
 
+    // a message is delivered once more than DELAY has passed since its
+    // timestamp, so a reader must wait at least DELAY + 1 after a send
     public static final int DELAY = 1000; // 1 second or 1000 milliseconds
-    private final File twitterCredentialsFile;
-    private final Map<String, UUID> user_name_id = Collections.synchronizedMap(new LinkedHashMap<>());//<username, password>
-    private final Map<String, String> user = Collections.synchronizedMap(new LinkedHashMap<>());//<username, password>
-    private final Set<UUID> userid = Collections.synchronizedSet(new HashSet<>());
-    private final List<ArrayList<String>> sub = Collections.synchronizedList(new ArrayList<>());
-    private final TimeDelayQueue t = new TimeDelayQueue(DELAY);
-    private final Map<UUID, ArrayList<UUID>> messages_list = Collections.synchronizedMap(new HashMap<>());
-    private final Map<UUID, TimeDelayQueue> user_map_tdq = Collections.synchronizedMap(new LinkedHashMap<>());
-    private final Map<UUID, TwitterListener> user_map_sub = Collections.synchronizedMap(new LinkedHashMap<>());
+    // direct messages get four turns for every turn of tweets, so a tweet
+    // flood does not hold them back in a user's queue
+    private static final Map<MessageType, Integer> LANE_WEIGHTS =
+        Map.of(BasicMessageType.SIMPLEMSG, 4, BasicMessageType.TWEET, 1);
+    // the first tweets fetched for an account are those posted since then
+    private static final long OCT_1_2022 = Timestamp.valueOf("2022-10-01 00:00:00").getTime();
+    // the file saveState writes in its directory, and the first bytes of it
+    static final String SNAPSHOT_FILE = "pheme.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x50484D53;
+    // version 2 added the first log segment not covered by the snapshot
+    private static final byte SNAPSHOT_VERSION = 2;
+    // users are spread over partitions by id, so calls for users in
+    // different partitions take different locks
+    static final int DEFAULT_PARTITIONS = partitionCount(4 * Runtime.getRuntime().availableProcessors());
+    private final Map<String, UUID> user_name_id = new ConcurrentHashMap<>();
+    private final UserPartition[] partitions;
+    private final SubscriptionRegistry sub = new SubscriptionRegistry();
+    private final Clock clock;
+    // the ids of messages sent recently, to refuse a message sent twice;
+    // the messages themselves are held only in deliveries
+    private final RecentIds sent;
+    // messages and contents are spread over one stripe per processor, each
+    // holding a chunk of the arena from the start
+    static final int STRIPES = partitionCount(Runtime.getRuntime().availableProcessors());
+    private final PayloadStore payloads =
+        new PayloadStore(new ContentCompressor(ContentCompressor.DEFAULT_THRESHOLD), STRIPES);
+    private final MessageArena deliveries = new MessageArena(new MessageCodec(payloads),
+        MessageArena.DEFAULT_CHUNK_SIZE, null, STRIPES);
+    private final MessageSequence message_seq = new MessageSequence(MessageSequence.DEFAULT_HORIZON);
+    private final TweetSource tweets;
+    private final TweetFeed feed;
+    private final TweetIngestion ingestion;
+    private volatile WriteAheadLog log;
     // Rep invariant:
     //   DELAY=1000
-    //   twitterCredentialsFile is a file of twitter Credentials
+    //   feed fetches from tweets the accounts subscribed to in sub
+    //   partitions.length is a power of two, and a user with id is only in
+    //   the partition indexed by the hash of id; user_name_id maps the
+    //   name of every user to its id
     // Safety from rep exposure:
     //   All fields are private, only DELAY is immutable.
     //Thread safety argument:
     //    -  all fields are final, so those variables are immutable
     //      and Thread-safe
-    //    -  DELAY is thread-safe type
+    //    -  DELAY is thread-safe type, and clock is a thread-safe Clock
     //    -  all other fields  point to Thread-safe set, list, and map data types.
+    //    -  user_name_id is a concurrent map, and a name is claimed with
+    //       putIfAbsent before its user is added to its partition; each
+    //       partition adds, finds and removes its users atomically under its
+    //       own lock, so no lock is shared by all users
+    //    -  sub is a thread-safe index of subscriptions by user and account,
+    //       updated atomically per subscription
+    //    -  tweets is a thread-safe source, and feed fetches each account from
+    //       it once for all its followers, claiming each window atomically
+    //    -  ingestion polls feed on its own thread, and enqueues tweets only
+    //       through the thread-safe deliveries and queues of users; a
+    //       message enqueued for a user removed meanwhile is released by
+    //       whichever of the removal and the enqueue clears the queue last
+    //    -  sent is a thread-safe set of ids, striped with a lock each, and
+    //       the queues of users are thread-safe queues
+    //    -  deliveries is a thread-safe arena holding, once, every message
+    //       queued for a user, shared by all receivers of the message, in
+    //       stripes with a lock each
+    //    -  payloads is a thread-safe store holding, once, every content
+    //       shared by messages in deliveries, such as a retweeted text,
+    //       deflated if it is long, such as a tweet with its metadata; it is
+    //       striped too, and deflates outside its locks and the arena's
+    //    -  message_seq gives each delivered message id a dense sequence
+    //       number, once, and forgets it after a day; each user keeps a
+    //       thread-safe bitmap of the sequence numbers delivered to it
+    //    -  log is null or a thread-safe log; adding, removing and changing
+    //       the subscriptions of a user are appended to it under the lock of
+    //       the user's partition, and a name is only given up after its
+    //       removal is appended, so changes to one user or name are logged
+    //       in the order they are made; calls wait for the fsync after
+    //       releasing the lock
 
 
     public PhemeService(File twitterCredentialsFile) {
-        this.twitterCredentialsFile = twitterCredentialsFile;
+        this(twitterCredentialsFile, Clock.SYSTEM);
     }
 
+    /**
+     * create a PhemeService whose message queues read the time from clock
+     *
+     * @param twitterCredentialsFile a file of twitter Credentials
+     * @param clock                  the source of the current time
+     */
+    public PhemeService(File twitterCredentialsFile, Clock clock) {
+        this(new TwitterTweetSource(twitterCredentialsFile), clock, true);
+    }
+
+    /**
+     * create a PhemeService that fetches tweets from a given source
+     *
+     * <p>
+     *     Each subscribed account is fetched once for all the users that
+     *     follow it, at most once per DELAY, so a user who subscribes to an
+     *     account that others already follow receives its tweets posted
+     *     from then on. Tweets are fetched and enqueued ahead of time, so
+     *     reading messages never waits for the source: in the background
+     *     if ingestInBackground, and otherwise only when ingestTweets is
+     *     called, such as by a simulation that drives a virtual clock.
+     * </p>
+     *
+     * @param tweets             the source of the tweets of subscribed accounts
+     * @param clock              the source of the current time
+     * @param ingestInBackground true to fetch tweets on a background thread every DELAY
+     */
+    public PhemeService(TweetSource tweets, Clock clock, boolean ingestInBackground) {
+        this(tweets, clock, ingestInBackground, DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * create a PhemeService that fetches tweets from a given source, and
+     * spreads its users over a number of partitions
+     *
+     * <p>
+     *     Each partition holds the users whose ids hash to it, with their
+     *     queues and delivery records, under a lock of its own, so calls
+     *     for users of different partitions proceed in parallel.
+     * </p>
+     *
+     * @param tweets             the source of the tweets of subscribed accounts
+     * @param clock              the source of the current time
+     * @param ingestInBackground true to fetch tweets on a background thread every DELAY
+     * @param partitions         the least number of partitions, > 0; it is
+     *                           rounded up to a power of two
+     * throws IllegalArgumentException if partitions <= 0
+     */
+    public PhemeService(TweetSource tweets, Clock clock, boolean ingestInBackground, int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.partitions = new UserPartition[partitionCount(partitions)];
+        for (int i = 0; i < this.partitions.length; i++) {
+            this.partitions[i] = new UserPartition();
+        }
+        this.clock = clock;
+        this.sent = new RecentIds(clock);
+        this.tweets = tweets;
+        this.feed = new TweetFeed(tweets, sub, clock, DELAY, OCT_1_2022);
+        this.ingestion = new TweetIngestion(feed, this::deliverTweet, DELAY);
+        if (ingestInBackground) {
+            ingestion.start();
+        }
+    }
+
+    /**
+     * stop fetching tweets in the background, and close the log of changes
+     * once every change made so far is durable
+     */
+    public void shutdown() {
+        ingestion.stop();
+        WriteAheadLog log = this.log;
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * restore the state saved in a directory, replay every change logged
+     * there since, and from now on log every change there
+     *
+     * <p>
+     *     Users added and removed, subscriptions added and cancelled, messages
+     *     sent and messages delivered are appended to a write-ahead log before
+     *     the call that makes them returns, so a crash loses none of them.
+     *     Changes are made durable in groups: a change waits up to
+     *     commitBudgetMicros for others to share its fsync. Tweets are not
+     *     logged, but fetched again from where the snapshot left off. saveState
+     *     to the same directory deletes the log segments the snapshot covers.
+     *     A message queued for a user when this is called, from the snapshot
+     *     or the log, is skipped if it was delivered to the user before, so a
+     *     message both in the snapshot and delivered in the log is not
+     *     delivered twice. A call whose change cannot be logged throws
+     *     UncheckedIOException, and its change, though made, may be lost in
+     *     a crash.
+     * </p>
+     *
+     * <p>
+     *     Reads are changes too: getNext and getAllRecent return only once
+     *     the delivery is durable, so with a log each read takes up to
+     *     commitBudgetMicros plus an fsync, where without one it takes
+     *     microseconds.
+     * </p>
+     *
+     * <p>
+     *     This must be called before any other change to this service.
+     * </p>
+     *
+     * @param configDirName      the directory of the snapshot and the log, created if missing
+     * @param commitBudgetMicros how long, in microseconds, a change may wait for
+     *                           others to share its fsync, >= 0
+     * @return the number of logged changes replayed
+     * throws IllegalStateException if this service has users or a log already
+     * throws IllegalArgumentException if commitBudgetMicros < 0
+     * throws UncheckedIOException if the snapshot or log cannot be read, or the
+     * log cannot be created
+     */
+    public long recover(String configDirName, long commitBudgetMicros) {
+        if (commitBudgetMicros < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (log != null || !user_name_id.isEmpty()) {
+            throw new IllegalStateException();
+        }
+        Path dir = Paths.get(configDirName);
+        try {
+            long first = 0;
+            if (Files.exists(dir.resolve(SNAPSHOT_FILE))) {
+                first = load(dir.resolve(SNAPSHOT_FILE));
+            }
+            long replayed = WriteAheadLog.replay(dir, first, this::replay);
+            for (UserPartition partition : partitions) {
+                for (UserPartition.User u : partition.users()) {
+                    List<UUID> ids = new ArrayList<>();
+                    for (PubSubMessage msg : u.getQueue().snapshot()) {
+                        ids.add(msg.getId());
+                    }
+                    u.setRecovered(ids);
+                }
+            }
+            log = new WriteAheadLog(dir, commitBudgetMicros);
+            return replayed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * save the users, subscriptions, waiting messages and delivery records
+     * of this service to a snapshot in a directory, replacing any earlier one
+     *
+     * <p>
+     *     The snapshot is written to a temporary file, forced to the storage
+     *     device and then atomically renamed, and the rename is forced too,
+     *     so a crash leaves either the earlier snapshot or this one. A message waiting for several users
+     *     is written once. Each user's queue and delivery records are
+     *     captured atomically, but calls made while the snapshot is written
+     *     may be captured for some users and not for others. If this service
+     *     logs its changes to the same directory, the log moves to a new
+     *     segment first, so replaying from there on top of the snapshot
+     *     recovers every change, and the earlier segments are deleted.
+     * </p>
+     *
+     * @param configDirName the directory to save the snapshot in, created if missing
+     * throws UncheckedIOException if the snapshot cannot be written
+     */
     public void saveState(String configDirName) {
+        Path dir = Paths.get(configDirName);
+        Path target = dir.resolve(SNAPSHOT_FILE);
+        Path temp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        try {
+            Files.createDirectories(dir);
+            WriteAheadLog log = this.log;
+            boolean logged = log != null && Files.isSameFile(dir, log.directory());
+            long first = logged ? log.roll() : 0;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                SnapshotWriter out = new SnapshotWriter(channel);
+                writeSnapshot(out, first);
+                out.finish();
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // the rename must be durable before the segments it covers are gone
+            WriteAheadLog.forceDirectory(dir);
+            if (logged) {
+                log.deleteBefore(first);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
+    /**
+     * restore the state saved by saveState into this service, which must
+     * not have any users yet
+     *
+     * <p>
+     *     Subscriptions are restored without asking the tweet source whether
+     *     their accounts still exist, and the fetch of each account resumes
+     *     where the saved service left off.
+     * </p>
+     *
+     * @param configDirName the directory the snapshot was saved in
+     * @return true if a snapshot was loaded, and false if there is none
+     * throws IllegalStateException if this service has users
+     * throws UncheckedIOException if the snapshot cannot be read, or is
+     * truncated or corrupt; this service may then hold part of it and should
+     * be discarded
+     */
+    public boolean loadState(String configDirName) {
+        Path target = Paths.get(configDirName).resolve(SNAPSHOT_FILE);
+        if (!Files.exists(target)) {
+            return false;
+        }
+        if (!user_name_id.isEmpty()) {
+            throw new IllegalStateException();
+        }
+        try {
+            load(target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
     }
 
     /**
@@ -52,17 +348,26 @@ public class PhemeService {
      * @return true if the user was successfully added and the user is valid,  and false otherwise
      */
     public boolean addUser(UUID userID, String userName, String hashPassword) {
-        if (user.containsKey(userName)) {
+        if (user_name_id.containsKey(userName)) {
+            return false;
+        }
+        UserPartition.User added = new UserPartition.User(userID, userName, hashPassword,
+            new TimeDelayQueue(DELAY, clock, deliveries, LANE_WEIGHTS));
+        if (user_name_id.putIfAbsent(userName, userID) != null) {
             return false;
-        } else {
-            user.put(userName, hashPassword);
-            user_name_id.put(userName, userID);
-            user_map_tdq.put(userID, new TimeDelayQueue(DELAY));
-            user_map_sub.put(userID, new TwitterListener(twitterCredentialsFile));
-            userid.add(userID);
-            messages_list.put(userID, new ArrayList<>());
-            return true;
         }
+        UserPartition partition = partition(userID);
+        long ticket;
+        synchronized (partition) {
+            // an id already taken by another name is refused
+            if (!partition.add(added)) {
+                user_name_id.remove(userName, userID);
+                return false;
+            }
+            ticket = appendChange(LogRecord.addUser(userID, userName, hashPassword));
+        }
+        awaitChange(ticket);
+        return true;
     }
 
     /**
@@ -74,19 +379,27 @@ public class PhemeService {
      */
 
     public boolean removeUser(String userName, String hashPassword) {
-        if (user.containsKey(userName)) {
-            if (user.get(userName).equals(hashPassword)) {
-                user.remove(userName);
-                UUID id = user_name_id.get(userName);
-                userid.remove(id);
-                user_map_tdq.remove(id);
-                user_map_sub.remove(id);
-                user_name_id.remove(userName);
-                messages_list.remove(id);
-                return true;
+        UUID id = user_name_id.get(userName);
+        if (id == null) {
+            return false;
+        }
+        UserPartition partition = partition(id);
+        UserPartition.User removed;
+        long ticket;
+        synchronized (partition) {
+            removed = partition.remove(id, userName, hashPassword);
+            if (removed == null) {
+                return false;
             }
+            ticket = appendChange(LogRecord.removeUser(userName));
         }
-        return false;
+        // the subscriptions go before the name, which a new user may take at once,
+        // and the name only once the removal is logged
+        sub.removeUser(userName);
+        user_name_id.remove(userName, id);
+        removed.getQueue().clear();
+        awaitChange(ticket);
+        return true;
     }
 
     /**
@@ -102,13 +415,10 @@ public class PhemeService {
                                       String hashPassword,
                                       String twitterUserName) {
         // check if the user is existed
-        if (user.containsKey(userName) && user.get(userName).equals(hashPassword)) {
-            UUID id = user_name_id.get(userName);
-            boolean cancelsub = user_map_sub.get(id).cancelSubscription(twitterUserName);
-            if (cancelsub) {
-                sub.removeIf(x -> x.get(0).equals(userName) && x.get(1).equals(twitterUserName));
-            }
-            return cancelsub;
+        UserPartition.User user = authenticate(userName, hashPassword);
+        if (user != null) {
+            return changeUser(user, () -> sub.cancel(userName, twitterUserName),
+                LogRecord.cancel(userName, twitterUserName, null));
         }
         return false;
     }
@@ -127,13 +437,10 @@ public class PhemeService {
                                       String hashPassword,
                                       String twitterUserName,
                                       String pattern) {
-        if (user.containsKey(userName) && user.get(userName).equals(hashPassword)) {
-            UUID id = user_name_id.get(userName);
-            boolean cancelsub = user_map_sub.get(id).cancelSubscription(twitterUserName, pattern);
-            if (cancelsub) {
-                sub.removeIf(x -> x.size() > 2 && x.get(0).equals(userName) && x.get(1).equals(twitterUserName) && x.get(2).equals(pattern));
-            }
-            return cancelsub;
+        UserPartition.User user = authenticate(userName, hashPassword);
+        if (user != null) {
+            return changeUser(user, () -> sub.cancel(userName, twitterUserName, pattern),
+                LogRecord.cancel(userName, twitterUserName, pattern));
         }
         return false;
     }
@@ -149,23 +456,19 @@ public class PhemeService {
 
     public boolean addSubscription(String userName, String hashPassword,
                                    String twitterUserName) {
-        UUID id = user_name_id.get(userName);
         // check if the user is existed
-        if (user.containsKey(userName) && user.get(userName).equals(hashPassword)) {
-            for (ArrayList<String> a : sub) {
-                //check duplicate
-                if (a.size() == 2 && a.get(0).equals(userName) && a.get(1).equals(twitterUserName)) {
-                    return false;
-                }
+        UserPartition.User user = authenticate(userName, hashPassword);
+        if (user != null) {
+            if (sub.contains(userName, twitterUserName)) {
+                return false;
             }
-            boolean addsub = user_map_sub.get(id).addSubscription(twitterUserName);
-            if (addsub) {
-                ArrayList<String> new_sub = new ArrayList<>(2);
-                new_sub.add(userName);
-                new_sub.add(twitterUserName);
-                sub.add(new_sub);
+            if (!tweets.exists(twitterUserName)) {
+                throw new IllegalArgumentException();
             }
-            return addsub;
+            boolean added = changeUser(user, () -> sub.add(userName, twitterUserName),
+                LogRecord.subscribe(userName, twitterUserName, null));
+            backfill(twitterUserName);
+            return added;
         }
         return false;
     }
@@ -184,23 +487,18 @@ public class PhemeService {
                                    String twitterUserName,
                                    String pattern) {
         // check if the user is existed
-        if (user.containsKey(userName) && user.get(userName).equals(hashPassword)) {
-            for (ArrayList<String> a : sub) {
-                //check duplicate
-                if (a.size() == 3 && a.get(0).equals(userName) && a.get(1).equals(twitterUserName) && a.get(2).equals(pattern)) {
-                    return false;
-                }
+        UserPartition.User user = authenticate(userName, hashPassword);
+        if (user != null) {
+            if (sub.contains(userName, twitterUserName, pattern)) {
+                return false;
             }
-            UUID id = user_name_id.get(userName);
-            boolean addsub = user_map_sub.get(id).addSubscription(twitterUserName, pattern);
-            if (addsub) {
-                ArrayList<String> new_sub = new ArrayList<>();
-                new_sub.add(userName);
-                new_sub.add(twitterUserName);
-                new_sub.add(pattern);
-                sub.add(new_sub);
+            if (!tweets.exists(twitterUserName)) {
+                throw new IllegalArgumentException();
             }
-            return addsub;
+            boolean added = changeUser(user, () -> sub.add(userName, twitterUserName, pattern),
+                LogRecord.subscribe(userName, twitterUserName, pattern));
+            backfill(twitterUserName);
+            return added;
         }
         return false;
     }
@@ -219,18 +517,17 @@ public class PhemeService {
                                String hashPassword,
                                PubSubMessage msg) {
         //check if the user is valid
-        if (user.containsKey(userName) && user.get(userName).equals(hashPassword)) {
-            UUID userID = user_name_id.get(userName);
-            //check if the message valid
-            if (msg.getSender().equals(userID)) {
-                List<UUID> receivers = new ArrayList<>(msg.getReceiver());
-                if (userid.containsAll(receivers)) {
-                    for (UUID r : receivers) {
-                        user_map_tdq.get(r).add(msg);
-                    }
-                    return t.add(msg);
+        UserPartition.User sender = authenticate(userName, hashPassword);
+        //check if the message valid
+        if (sender != null && msg.getSender().equals(sender.getId())) {
+            List<UserPartition.User> receivers = users(msg.getReceiver(), true);
+            if (receivers != null) {
+                if (!sent.add(msg.getId())) {
+                    return false;
                 }
-
+                enqueue(msg, receivers);
+                logChange(LogRecord.send(msg));
+                return true;
             }
         }
 
@@ -246,10 +543,11 @@ public class PhemeService {
      * @return boolean list of all
      */
     public List<Boolean> isDelivered(UUID msgID, List<UUID> userList) {
+        // look the message up once, then test one bit per receiver
+        long seq = message_seq.get(msgID);
         Boolean[] d = new Boolean[userList.size()];
-        Arrays.fill(d, Boolean.FALSE);
         for (int i = 0; i < userList.size(); i++) {
-            d[i] = isDelivered(msgID, userList.get(i));
+            d[i] = delivered(seq, userList.get(i));
         }
         return Arrays.asList(d);
     }
@@ -264,11 +562,56 @@ public class PhemeService {
      * throw IllegalArgumentException if the user is not valid
      */
     public boolean isDelivered(UUID msgID, UUID user) {
-        if (userid.contains(user)) {
-            return messages_list.get(user).contains(msgID);
-        } else {
+        return delivered(message_seq.get(msgID), user);
+    }
+
+    private boolean delivered(long seq, UUID id) {
+        UserPartition.User receiver = user(id);
+        if (receiver == null) {
             throw new IllegalArgumentException();
         }
+        return seq != MessageSequence.NONE && receiver.getDelivered().contains(seq);
+    }
+
+    /**
+     * record that a message is being delivered to a user, unless it was
+     * queued for the user on recovery and delivered to it before the crash
+     *
+     * @param receiver  the user
+     * @param messageId the id of the message
+     * @return false if the message must be skipped, and true otherwise
+     */
+    private boolean deliver(UserPartition.User receiver, UUID messageId) {
+        boolean first = markDelivered(receiver, messageId);
+        // take the id even if it is delivered now, so it is only checked once
+        return receiver.takeRecovered(messageId) ? first : true;
+    }
+
+    /**
+     * record that a message was delivered to a user
+     *
+     * @param receiver  the user
+     * @param messageId the id of the message delivered
+     * @return false if the message was delivered to the user before, and true otherwise
+     */
+    private boolean markDelivered(UserPartition.User receiver, UUID messageId) {
+        expireDeliveries();
+        return receiver.getDelivered().add(message_seq.number(messageId));
+    }
+
+    /**
+     * forget the deliveries of messages numbered more than a day ago,
+     * at most once every few hours
+     */
+    private void expireDeliveries() {
+        if (message_seq.expire(clock.millis())) {
+            long floor = message_seq.floor();
+            for (UserPartition partition : partitions) {
+                for (UserPartition.User u : partition.users()) {
+                    u.getDelivered().removeBelow(floor);
+                }
+            }
+        }
     }
 
 
@@ -279,38 +622,35 @@ public class PhemeService {
      * @return true if the user is valid and false otherwise
      */
     public boolean isUser(String userName) {
-        return user.containsKey(userName);
+        return user(userName) != null;
     }
 
 
     /**
      * get the next message or tweet from tdq
      *
+     * <p>
+     *     If changes are logged, the delivery is durable when this returns,
+     *     so the call waits for a group commit.
+     * </p>
+     *
      * @param userName     the name of user who received messages to tweets
      * @param hashPassword a hashed version of the password of the user
      * @return next massage or tweet in tbq
      * throw IllegalArgumentException if the user is not valid
      */
     public PubSubMessage getNext(String userName, String hashPassword) {
-        UUID id = user_name_id.get(userName);
-        if (!user.containsKey(userName) || !user.get(userName).equals(hashPassword)) {
+        UserPartition.User receiver = authenticate(userName, hashPassword);
+        if (receiver == null) {
             throw new IllegalArgumentException();
         } else {
-            List<TweetV2.TweetData> tweets = user_map_sub.get(id).getRecentTweets();
-            for (TweetV2.TweetData tt : tweets) {
-                UUID msg_id = new UUID(Long.parseLong(tt.getId()), Long.parseLong(tt.getId()));
-                UUID sender = new UUID(Long.parseLong(tt.getAuthorId()), Long.parseLong(tt.getAuthorId()));
-                UUID receiver = UUID.randomUUID();
-                Timestamp timestamp = Timestamp.valueOf(tt.getCreatedAt());
-                String content = tt.getText();
-                MessageType type = BasicMessageType.TWEET;
-                PubSubMessage tm = new PubSubMessage(msg_id, timestamp, sender, receiver, content, type);
-                user_map_tdq.get(id).add(tm);
+            TimeDelayQueue queue = receiver.getQueue();
+            PubSubMessage next = queue.getNext();
+            while (!next.equals(PubSubMessage.NO_MSG) && !deliver(receiver, next.getId())) {
+                next = queue.getNext();
             }
-            t.getNext();
-            PubSubMessage next = user_map_tdq.get(id).getNext();
             if (!next.equals(PubSubMessage.NO_MSG)) {
-                messages_list.get(id).add(next.getId());
+                logChange(LogRecord.deliver(receiver.getId(), next.getId()));
             }
             return next;
         }
@@ -320,31 +660,467 @@ public class PhemeService {
     /**
      * get all recent message and tweets in tdq
      *
+     * <p>
+     *     If changes are logged, the deliveries are durable when this
+     *     returns, so the call waits for one group commit covering them all.
+     * </p>
+     *
      * @param userName     a string name of the specific user
      * @param hashPassword a hashed version of the password of the user
      * @return a list of all message and tweets in tdq
      * throw IllegalArgumentException if the user is invalid
      */
     public List<PubSubMessage> getAllRecent(String userName, String hashPassword) {
-        UUID id = user_name_id.get(userName);
+        UserPartition.User receiver = authenticate(userName, hashPassword);
         List<PubSubMessage> recent = new ArrayList<>();
-        if (!user.containsKey(userName) || !user.get(userName).equals(hashPassword)) {
+        if (receiver == null) {
             throw new IllegalArgumentException();
         } else {
-            PubSubMessage m = getNext(userName, hashPassword);
-            if (!m.equals(PubSubMessage.NO_MSG)) {
-                recent.add(m);
-                messages_list.get(id).add(m.getId());
-                long c = user_map_tdq.get(user_name_id.get(userName)).getSize();
-                for (int i = 1; i <= c; i++) {
-                    PubSubMessage mm = user_map_tdq.get(user_name_id.get(userName)).getNext();
-                    recent.add(mm);
-                    messages_list.get(id).add(m.getId());
+            receiver.getQueue().drainReady(recent, Integer.MAX_VALUE);
+            recent.removeIf(m -> !deliver(receiver, m.getId()));
+            WriteAheadLog log = this.log;
+            if (log != null && !recent.isEmpty()) {
+                // wait for one fsync covering every delivery
+                long ticket = 0;
+                for (PubSubMessage m : recent) {
+                    ticket = log.append(LogRecord.deliver(receiver.getId(), m.getId()));
                 }
+                log.await(ticket);
             }
             return recent;
+        }
+    }
+
 
+    /**
+     * Get the counts of the message contents stored once for
+     * all the messages waiting to be delivered
+     *
+     * @return the current payload counts
+     */
+    public PayloadStats getPayloadStats() {
+        return payloads.stats();
+    }
+
+    /**
+     * Get the counts and memory of the records of delivered messages,
+     * which are kept for a day after each message is first delivered
+     *
+     * @return the current delivery counts
+     */
+    public DeliveryStats getDeliveryStats() {
+        expireDeliveries();
+        int users = 0;
+        long deliveries = 0;
+        long bytes = 0;
+        for (UserPartition partition : partitions) {
+            for (UserPartition.User u : partition.users()) {
+                users++;
+                deliveries += u.getDelivered().cardinality();
+                bytes += u.getDelivered().footprint();
+            }
         }
+        return new DeliveryStats(users, message_seq.size(), deliveries, bytes, message_seq.footprint());
+    }
+
+    /**
+     * fetch, on the caller's thread, the recent tweets of every subscribed
+     * account that is due, and enqueue each once for all the users it matches
+     *
+     * @return the number of accounts fetched
+     * throws RuntimeException the first exception thrown by the tweet source,
+     * after fetching every other account
+     */
+    public int ingestTweets() {
+        return ingestion.poll();
+    }
+
+    /**
+     * Get the metrics of the fetching and enqueueing of tweets
+     *
+     * @return the current ingestion metrics
+     */
+    public IngestionStats getIngestionStats() {
+        return ingestion.stats();
+    }
+
+    /**
+     * fetch the tweets of a newly subscribed account, if it was not
+     * fetched for other users already, so they are queued right away
+     *
+     * @param twitterUserName an existing Twitter account
+     */
+    private void backfill(String twitterUserName) {
+        try {
+            ingestion.poll(twitterUserName);
+        } catch (RuntimeException e) {
+            // the window was given back, so the next ingestion fetches it
+        }
+    }
+
+    private void writeSnapshot(SnapshotWriter out, long firstSegment) throws IOException {
+        out.putInt(SNAPSHOT_MAGIC);
+        out.putByte(SNAPSHOT_VERSION);
+        out.putVarint(firstSegment);
+        // the index, in the order written, of each message written so far
+        Map<UUID, Integer> written = new HashMap<>();
+        for (UserPartition partition : partitions) {
+            for (UserPartition.User u : partition.users()) {
+                out.putVarint(1);
+                out.putString(u.getName());
+                out.putUuid(u.getId());
+                out.putString(u.getHash());
+                Map<String, SubscriptionRegistry.Follow> follows = sub.subscriptions(u.getName());
+                out.putVarint(follows.size());
+                for (Map.Entry<String, SubscriptionRegistry.Follow> follow : follows.entrySet()) {
+                    out.putString(follow.getKey());
+                    out.putByte(follow.getValue().isAll() ? 1 : 0);
+                    out.putVarint(follow.getValue().getPatterns().size());
+                    for (String pattern : follow.getValue().getPatterns()) {
+                        out.putString(pattern);
+                    }
+                }
+                // 1 precedes a message not written before, k >= 2 refers to the
+                // (k - 2)th message written, and 0 ends the queue
+                for (PubSubMessage msg : u.getQueue().snapshot()) {
+                    Integer index = written.get(msg.getId());
+                    if (index == null) {
+                        written.put(msg.getId(), written.size());
+                        out.putVarint(1);
+                        out.putMessage(msg);
+                    } else {
+                        out.putVarint(index + 2L);
+                    }
+                }
+                out.putVarint(0);
+                // sequence numbers as gaps from the one before, which are >= 1, ended by 0
+                long[] last = {-1};
+                IOException[] failed = {null};
+                u.getDelivered().forEach(seq -> {
+                    if (failed[0] == null) {
+                        try {
+                            out.putVarint(seq - last[0]);
+                            last[0] = seq;
+                        } catch (IOException e) {
+                            failed[0] = e;
+                        }
+                    }
+                });
+                if (failed[0] != null) {
+                    throw failed[0];
+                }
+                out.putVarint(0);
+            }
+        }
+        out.putVarint(0);
+        // the numbers are copied first, so the count matches them, and
+        // numbers handed out meanwhile are below the next one written
+        List<Map.Entry<UUID, Long>> seqs = new ArrayList<>(message_seq.entries());
+        out.putVarint(seqs.size());
+        for (Map.Entry<UUID, Long> seq : seqs) {
+            out.putUuid(seq.getKey());
+            out.putVarint(seq.getValue());
+        }
+        out.putVarint(message_seq.next());
+        Map<String, Long> windows = feed.windows();
+        out.putVarint(windows.size());
+        for (Map.Entry<String, Long> window : windows.entrySet()) {
+            out.putString(window.getKey());
+            out.putLong(window.getValue());
+        }
+    }
+
+    /**
+     * @return the first log segment not covered by the snapshot
+     */
+    private long load(Path snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            return readSnapshot(new SnapshotReader(channel));
+        }
+    }
+
+    private long readSnapshot(SnapshotReader in) throws IOException {
+        if (in.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("not a pheme snapshot");
+        }
+        int version = in.getByte();
+        if (version != 1 && version != SNAPSHOT_VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        long firstSegment = version == 1 ? 0 : in.getVarint();
+        List<PubSubMessage> messages = new ArrayList<>();
+        List<List<TimeDelayQueue>> receivers = new ArrayList<>();
+        while (in.getVarint() != 0) {
+            String name = in.getString();
+            UUID id = in.getUuid();
+            if (!addUser(id, name, in.getString())) {
+                throw new IOException("duplicate user in snapshot");
+            }
+            for (int n = in.getLength(); n > 0; n--) {
+                String account = in.getString();
+                if (in.getByte() != 0) {
+                    sub.add(name, account);
+                }
+                for (int k = in.getLength(); k > 0; k--) {
+                    sub.add(name, account, in.getString());
+                }
+            }
+            UserPartition.User added = user(id);
+            TimeDelayQueue queue = added.getQueue();
+            for (long ref = in.getVarint(); ref != 0; ref = in.getVarint()) {
+                if (ref == 1) {
+                    messages.add(in.getMessage());
+                    receivers.add(new ArrayList<>());
+                    receivers.get(receivers.size() - 1).add(queue);
+                } else if (ref - 2 < messages.size()) {
+                    receivers.get((int) (ref - 2)).add(queue);
+                } else {
+                    throw new IOException("corrupt snapshot");
+                }
+            }
+            DeliveryBitmap delivered = added.getDelivered();
+            long seq = -1;
+            for (long gap = in.getVarint(); gap != 0; gap = in.getVarint()) {
+                seq += gap;
+                if (gap < 0 || seq < 0) {
+                    throw new IOException("corrupt snapshot");
+                }
+                delivered.add(seq);
+            }
+        }
+        for (int n = in.getLength(); n > 0; n--) {
+            UUID id = in.getUuid();
+            long seq = in.getVarint();
+            if (seq < 0) {
+                throw new IOException("corrupt snapshot");
+            }
+            message_seq.restore(id, seq);
+        }
+        long next = in.getVarint();
+        if (next < 0) {
+            throw new IOException("corrupt snapshot");
+        }
+        message_seq.restoreNext(next);
+        for (int n = in.getLength(); n > 0; n--) {
+            String account = in.getString();
+            feed.restore(account, in.getLong());
+        }
+        in.finish();
+        // store each message once for all the users it waits for
+        for (int i = 0; i < messages.size(); i++) {
+            long handle = deliveries.store(messages.get(i), receivers.get(i).size());
+            for (TimeDelayQueue queue : receivers.get(i)) {
+                queue.addStored(handle);
+            }
+        }
+        return firstSegment;
+    }
+
+    /**
+     * make a logged change again, without logging it
+     *
+     * @param record the change
+     */
+    private void replay(LogRecord record) {
+        String name = record.getUser();
+        switch (record.getKind()) {
+            case ADD_USER:
+                addUser(record.getUserId(), name, record.getHash());
+                break;
+            case REMOVE_USER:
+                UserPartition.User removed = user(name);
+                if (removed != null) {
+                    removeUser(name, removed.getHash());
+                }
+                break;
+            case SUBSCRIBE:
+                if (!isUser(name)) {
+                    break;
+                }
+                if (record.getPattern() == null) {
+                    sub.add(name, record.getAccount());
+                } else {
+                    sub.add(name, record.getAccount(), record.getPattern());
+                }
+                break;
+            case CANCEL:
+                if (record.getPattern() == null) {
+                    sub.cancel(name, record.getAccount());
+                } else {
+                    sub.cancel(name, record.getAccount(), record.getPattern());
+                }
+                break;
+            case SEND:
+                enqueue(record.getMessage(), users(record.getMessage().getReceiver(), false));
+                break;
+            case DELIVER:
+                UserPartition.User receiver = user(record.getUserId());
+                if (receiver != null) {
+                    markDelivered(receiver, record.getMessageId());
+                }
+                break;
+            default:
+                throw new AssertionError(record.getKind());
+        }
+    }
+
+    /**
+     * append a change to the log, if there is one, and wait until it is durable
+     *
+     * @param record the change
+     * throws UncheckedIOException if the log fails to write it
+     */
+    private void logChange(LogRecord record) {
+        awaitChange(appendChange(record));
+    }
+
+    /**
+     * append a change to the log, if there is one, without waiting for it
+     * to be durable, so it can be appended under the lock that orders it
+     *
+     * @param record the change
+     * @return the ticket to wait for with awaitChange, or 0 if there is no log
+     * throws UncheckedIOException if the log has failed
+     */
+    private long appendChange(LogRecord record) {
+        WriteAheadLog log = this.log;
+        return log == null ? 0 : log.append(record);
+    }
+
+    /**
+     * wait until a change appended by appendChange is durable
+     *
+     * @param ticket the ticket returned by appendChange
+     * throws UncheckedIOException if the log fails to write it
+     */
+    private void awaitChange(long ticket) {
+        WriteAheadLog log = this.log;
+        if (ticket != 0) {
+            log.await(ticket);
+        }
+    }
+
+    /**
+     * make a change to a user under the lock of its partition, unless the
+     * user was removed, so the change is logged in order with the removal
+     *
+     * @param user   the user to change
+     * @param change makes the change and returns true, or returns false if
+     *               there is nothing to change
+     * @param record the record of the change
+     * @return true if the change was made
+     * throws UncheckedIOException if the log fails to write it
+     */
+    private boolean changeUser(UserPartition.User user, BooleanSupplier change, LogRecord record) {
+        UserPartition partition = partition(user.getId());
+        long ticket;
+        synchronized (partition) {
+            if (partition.get(user.getId()) != user || !change.getAsBoolean()) {
+                return false;
+            }
+            ticket = appendChange(record);
+        }
+        awaitChange(ticket);
+        return true;
+    }
+
+    /**
+     * store a message once and give each of its receivers a reference to it
+     *
+     * @param msg       the message
+     * @param receivers the distinct users to queue msg for
+     */
+    private void enqueue(PubSubMessage msg, List<UserPartition.User> receivers) {
+        if (receivers.isEmpty()) {
+            return;
+        }
+        long handle = deliveries.store(msg, receivers.size());
+        for (UserPartition.User receiver : receivers) {
+            receiver.getQueue().addStored(handle);
+            // a receiver removed since it was looked up may have cleared its
+            // queue before the message was added, so clear it again; removal
+            // marks the user before clearing, so one of the clears sees it
+            if (receiver.isRemoved()) {
+                receiver.getQueue().clear();
+            }
+        }
+    }
+
+    private void deliverTweet(PubSubMessage tweet, List<String> userNames) {
+        List<UUID> ids = new ArrayList<>(userNames.size());
+        List<UserPartition.User> receivers = new ArrayList<>(userNames.size());
+        for (String name : userNames) {
+            UserPartition.User receiver = user(name);
+            // skip a user removed since the tweet was matched
+            if (receiver != null) {
+                ids.add(receiver.getId());
+                receivers.add(receiver);
+            }
+        }
+        if (receivers.isEmpty()) {
+            return;
+        }
+        PubSubMessage msg = new PubSubMessage(tweet.getId(), tweet.getTimestamp(), tweet.getSender(),
+            ids, tweet.getContent(), tweet.getType());
+        // store the tweet once and give each follower a reference to it
+        enqueue(msg, receivers);
+    }
+
+    /**
+     * @return the partition that holds the user with id, if there is one
+     */
+    private UserPartition partition(UUID id) {
+        int h = id.hashCode();
+        return partitions[(h ^ h >>> 16) & (partitions.length - 1)];
+    }
+
+    /**
+     * @return the user with id, or null if there is none
+     */
+    private UserPartition.User user(UUID id) {
+        return partition(id).get(id);
+    }
+
+    /**
+     * @return the user with a name, or null if there is none
+     */
+    private UserPartition.User user(String userName) {
+        UUID id = user_name_id.get(userName);
+        UserPartition.User found = id == null ? null : user(id);
+        return found != null && found.getName().equals(userName) ? found : null;
+    }
+
+    /**
+     * @return the user with a name and password hash, or null if there is none
+     */
+    private UserPartition.User authenticate(String userName, String hashPassword) {
+        UserPartition.User found = user(userName);
+        return found != null && found.getHash().equals(hashPassword) ? found : null;
+    }
+
+    /**
+     * @param ids the ids of users, possibly repeated
+     * @param all true to require every id to be a user
+     * @return the distinct users with ids, or null if all and an id is not a user
+     */
+    private List<UserPartition.User> users(List<UUID> ids, boolean all) {
+        List<UserPartition.User> found = new ArrayList<>(ids.size());
+        for (UUID id : new LinkedHashSet<>(ids)) {
+            UserPartition.User u = user(id);
+            if (u != null) {
+                found.add(u);
+            } else if (all) {
+                return null;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the least power of two >= n, for n > 0
+     */
+    private static int partitionCount(int n) {
+        return n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
     }
 
 }
@@ -0,0 +1,171 @@
+package pheme;
+
+import timedelayqueue.MessageCodec;
+import timedelayqueue.PubSubMessage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A SnapshotReader reads back, in one streaming pass over a FileChannel,
+ * the fields written by a SnapshotWriter.
+ *
+ * <p>
+ *     Every read checks that the snapshot has the bytes it needs, so a
+ *     truncated snapshot fails with an EOFException; finish checks the
+ *     CRC32 of everything read against the one the writer appended.
+ * </p>
+ */
+class SnapshotReader {
+    // Rep invariants:
+    //   buf is in read mode, 0 <= checked <= buf.position()
+    //   crc covers every byte read before buf[checked]
+    // Abstraction function:
+    //   represents the bytes of the channel from buf.position() on
+    // Thread safety argument:
+    //   not thread-safe; confined to the thread loading a snapshot
+
+    private final FileChannel channel;
+    private final MessageCodec codec = new MessageCodec();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buf;
+    private int checked = 0;
+
+    /**
+     * Create a new SnapshotReader
+     *
+     * @param channel the channel to read from, at its position
+     */
+    SnapshotReader(FileChannel channel) {
+        this.channel = channel;
+        this.buf = ByteBuffer.allocateDirect(SnapshotWriter.BUFFER_SIZE);
+        buf.flip();
+    }
+
+    int getByte() throws IOException {
+        require(1);
+        return buf.get();
+    }
+
+    int getInt() throws IOException {
+        require(Integer.BYTES);
+        return buf.getInt();
+    }
+
+    long getLong() throws IOException {
+        require(Long.BYTES);
+        return buf.getLong();
+    }
+
+    long getVarint() throws IOException {
+        // a varint takes at most 10 bytes, but the snapshot may end sooner
+        fill(10);
+        try {
+            return MessageCodec.getVarint(buf);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("truncated snapshot");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt snapshot", e);
+        }
+    }
+
+    /**
+     * @return a varint that must fit in an int and be at least 0
+     * @throws IOException if it does not, or the snapshot cannot be read
+     */
+    int getLength() throws IOException {
+        long n = getVarint();
+        if (n < 0 || n > Integer.MAX_VALUE) {
+            throw new IOException("corrupt snapshot");
+        }
+        return (int) n;
+    }
+
+    UUID getUuid() throws IOException {
+        require(2 * Long.BYTES);
+        long msb = buf.getLong();
+        return new UUID(msb, buf.getLong());
+    }
+
+    String getString() throws IOException {
+        int length = getLength();
+        require(length);
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    PubSubMessage getMessage() throws IOException {
+        int size = getLength();
+        require(size);
+        ByteBuffer encoding = buf.slice();
+        encoding.limit(size);
+        buf.position(buf.position() + size);
+        try {
+            return codec.decode(encoding, 0);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("corrupt snapshot", e);
+        }
+    }
+
+    /**
+     * check the CRC32 that ends the snapshot, and that nothing follows it
+     *
+     * @throws IOException if the CRC32 does not match, or the snapshot
+     *                     is truncated or goes on after it
+     */
+    void finish() throws IOException {
+        checksum();
+        require(Long.BYTES);
+        if (buf.getLong() != crc.getValue()) {
+            throw new IOException("snapshot checksum mismatch");
+        }
+        fill(1);
+        if (buf.hasRemaining()) {
+            throw new IOException("trailing bytes after snapshot");
+        }
+    }
+
+    private void require(int n) throws IOException {
+        fill(n);
+        if (buf.remaining() < n) {
+            throw new EOFException("truncated snapshot");
+        }
+    }
+
+    /**
+     * read from the channel until n bytes remain in buf, or the channel ends
+     */
+    private void fill(int n) throws IOException {
+        if (buf.remaining() >= n) {
+            return;
+        }
+        checksum();
+        if (buf.capacity() < n) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(n);
+            larger.put(buf);
+            buf = larger;
+        } else {
+            buf.compact();
+        }
+        while (buf.position() < n && channel.read(buf) > 0) {
+            // keep reading until n bytes are in, or the channel ends
+        }
+        buf.flip();
+        checked = 0;
+    }
+
+    /** add the bytes read since the last checksum to crc */
+    private void checksum() {
+        ByteBuffer read = buf.duplicate();
+        read.limit(buf.position()).position(checked);
+        crc.update(read);
+        checked = buf.position();
+    }
+}
@@ -0,0 +1,125 @@
+package pheme;
+
+import timedelayqueue.MessageCodec;
+import timedelayqueue.PubSubMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A SnapshotWriter writes the fields of a snapshot to a FileChannel in
+ * one streaming pass, through a buffer that is written out when full.
+ *
+ * <p>
+ *     Numbers that are usually small are written as varints, strings as
+ *     a varint byte length and UTF-8, and messages as a varint length and
+ *     a self-contained MessageCodec encoding. A CRC32 of every byte is
+ *     appended by finish, so a reader can tell a complete snapshot from
+ *     a torn or corrupt one.
+ * </p>
+ */
+class SnapshotWriter {
+    // Rep invariants:
+    //   buf is in write mode, crc covers every byte written out of buf
+    // Abstraction function:
+    //   represents the bytes written to channel followed by buf[0..position)
+    // Thread safety argument:
+    //   not thread-safe; confined to the thread saving a snapshot
+
+    /** the default size of the buffer in bytes */
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final MessageCodec codec = new MessageCodec();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buf;
+
+    /**
+     * Create a new SnapshotWriter
+     *
+     * @param channel the channel to write to, at its position
+     */
+    SnapshotWriter(FileChannel channel) {
+        this.channel = channel;
+        this.buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    void putByte(int b) throws IOException {
+        ensure(1);
+        buf.put((byte) b);
+    }
+
+    void putInt(int n) throws IOException {
+        ensure(Integer.BYTES);
+        buf.putInt(n);
+    }
+
+    void putLong(long n) throws IOException {
+        ensure(Long.BYTES);
+        buf.putLong(n);
+    }
+
+    void putVarint(long n) throws IOException {
+        ensure(MessageCodec.varintSize(n));
+        MessageCodec.putVarint(buf, n);
+    }
+
+    void putUuid(UUID id) throws IOException {
+        ensure(2 * Long.BYTES);
+        buf.putLong(id.getMostSignificantBits());
+        buf.putLong(id.getLeastSignificantBits());
+    }
+
+    void putString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(bytes.length);
+        ensure(bytes.length);
+        buf.put(bytes);
+    }
+
+    void putMessage(PubSubMessage msg) throws IOException {
+        int size = codec.encodedSize(msg, 0);
+        putVarint(size);
+        ensure(size);
+        codec.encode(msg, buf, 0);
+    }
+
+    /**
+     * write out the buffer and the CRC32 of everything written,
+     * and force it all to the storage device
+     *
+     * @throws IOException if the channel cannot be written or forced
+     */
+    void finish() throws IOException {
+        flush();
+        buf.putLong(crc.getValue());
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+        channel.force(true);
+    }
+
+    private void ensure(int n) throws IOException {
+        if (buf.remaining() < n) {
+            flush();
+            if (buf.capacity() < n) {
+                buf = ByteBuffer.allocateDirect(n);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        crc.update(buf.duplicate());
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
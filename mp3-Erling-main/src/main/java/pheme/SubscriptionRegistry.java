@@ -0,0 +1,325 @@
+package pheme;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A SubscriptionRegistry indexes the subscriptions of Pheme users to
+ * Twitter accounts, by user and then by account, and by account and then
+ * by user.
+ *
+ * <p>
+ *     A user may follow an account for all its tweets, for its tweets
+ *     matching any of a set of patterns, or both; patterns are
+ *     case-insensitive and kept in lower case. The subscriptions of a user
+ *     to one account are an immutable Follow, replaced as a whole under the
+ *     lock of the account's entry, so every check and update of one
+ *     subscription is atomic and takes constant time, and enumerating the
+ *     subscriptions of a user never scans those of other users. The index
+ *     by account, which lets a tweet be matched against only the followers
+ *     of its author, is updated under the same lock as the index by user,
+ *     so it may lag behind it but never misses an update.
+ * </p>
+ */
+class SubscriptionRegistry {
+    // Rep invariants:
+    //   no map in byUser or byAccount is empty, and no Follow in them is empty
+    //   byUser.get(u).get(a) == byAccount.get(a).get(u) once every update has returned
+    // Abstraction function:
+    //   represents the set of (user, account) subscriptions to all tweets with
+    //   byUser.get(user).get(account).isAll(), and of (user, account, pattern)
+    //   subscriptions with pattern in byUser.get(user).get(account).getPatterns()
+    // Thread safety argument:
+    //   byUser and its values are ConcurrentHashMaps, every update of an entry
+    //   is done by compute or computeIfPresent, and Follow is immutable; an
+    //   emptied map of a user is removed under the lock of that user's entry,
+    //   and adds go through that entry too, so no add is lost in a removed map;
+    //   byAccount is updated within the same lock, so the updates of one user
+    //   reach it in order, and likewise for emptied maps of an account
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Follow>> byUser = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Follow>> byAccount = new ConcurrentHashMap<>();
+
+    /**
+     * subscribe a user to all tweets of an account
+     *
+     * @param user    the name of the user
+     * @param account the name of the Twitter account
+     * @return true if the user was not subscribed to all its tweets already
+     */
+    boolean add(String user, String account) {
+        return update(user, account, null, true);
+    }
+
+    /**
+     * subscribe a user to the tweets of an account that match a pattern
+     *
+     * @param user    the name of the user
+     * @param account the name of the Twitter account
+     * @param pattern the pattern, case-insensitive
+     * @return true if the user was not subscribed to the pattern already
+     */
+    boolean add(String user, String account, String pattern) {
+        return update(user, account, pattern.toLowerCase(), true);
+    }
+
+    /**
+     * cancel every subscription of a user to an account
+     *
+     * @param user    the name of the user
+     * @param account the name of the Twitter account
+     * @return true if the user had any subscription to the account
+     */
+    boolean cancel(String user, String account) {
+        boolean[] changed = new boolean[1];
+        byUser.computeIfPresent(user, (u, follows) -> {
+            changed[0] = follows.remove(account) != null;
+            index(user, account, null);
+            return follows.isEmpty() ? null : follows;
+        });
+        return changed[0];
+    }
+
+    /**
+     * cancel the subscription of a user to all tweets of an account,
+     * keeping its subscriptions to patterns
+     *
+     * @param user    the name of the user
+     * @param account the name of the Twitter account
+     * @return true if the user was subscribed to all its tweets
+     */
+    boolean cancelAll(String user, String account) {
+        return update(user, account, null, false);
+    }
+
+    /**
+     * cancel the subscription of a user to the tweets of an account that match a pattern
+     *
+     * @param user    the name of the user
+     * @param account the name of the Twitter account
+     * @param pattern the pattern, case-insensitive
+     * @return true if the user was subscribed to the pattern
+     */
+    boolean cancel(String user, String account, String pattern) {
+        return update(user, account, pattern.toLowerCase(), false);
+    }
+
+    /**
+     * cancel every subscription of a user
+     *
+     * @param user the name of the user
+     */
+    void removeUser(String user) {
+        byUser.computeIfPresent(user, (u, follows) -> {
+            for (String account : follows.keySet()) {
+                index(user, account, null);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @param user    the name of the user
+     * @param account the name of the Twitter account
+     * @return true if the user is subscribed to all tweets of the account
+     */
+    boolean contains(String user, String account) {
+        Follow follow = follow(user, account);
+        return follow != null && follow.isAll();
+    }
+
+    /**
+     * @param user    the name of the user
+     * @param account the name of the Twitter account
+     * @param pattern the pattern, case-insensitive
+     * @return true if the user is subscribed to the tweets of the account that match pattern
+     */
+    boolean contains(String user, String account, String pattern) {
+        Follow follow = follow(user, account);
+        return follow != null && follow.getPatterns().contains(pattern.toLowerCase());
+    }
+
+    /**
+     * @param user the name of the user
+     * @return the subscriptions of the user, by account in alphabetical order;
+     * a snapshot that later changes do not affect
+     */
+    Map<String, Follow> subscriptions(String user) {
+        Map<String, Follow> follows = byUser.get(user);
+        return follows == null ? Collections.emptyMap()
+            : Collections.unmodifiableMap(new TreeMap<>(follows));
+    }
+
+    /**
+     * @return the accounts that some user is subscribed to;
+     * a snapshot that later changes do not affect
+     */
+    Set<String> accounts() {
+        return new HashSet<>(byAccount.keySet());
+    }
+
+    /**
+     * @param account the name of the Twitter account
+     * @return true if some user is subscribed to the account
+     */
+    boolean isFollowed(String account) {
+        return byAccount.containsKey(account);
+    }
+
+    /**
+     * @param account the name of the Twitter account
+     * @return the subscriptions to the account, by user;
+     * a snapshot that later changes do not affect
+     */
+    Map<String, Follow> followers(String account) {
+        Map<String, Follow> follows = byAccount.get(account);
+        return follows == null ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(follows));
+    }
+
+    /**
+     * @return the number of (user, account) pairs with any subscription
+     */
+    int size() {
+        int size = 0;
+        for (Map<String, Follow> follows : byUser.values()) {
+            size += follows.size();
+        }
+        return size;
+    }
+
+    private Follow follow(String user, String account) {
+        Map<String, Follow> follows = byUser.get(user);
+        return follows == null ? null : follows.get(account);
+    }
+
+    /**
+     * add or remove one subscription of a user to an account
+     *
+     * @param pattern the pattern in lower case, or null for all tweets
+     * @param add     true to add the subscription, false to remove it
+     * @return true if the subscriptions changed
+     */
+    private boolean update(String user, String account, String pattern, boolean add) {
+        boolean[] changed = new boolean[1];
+        byUser.compute(user, (u, follows) -> {
+            if (follows == null) {
+                if (!add) {
+                    return null;
+                }
+                follows = new ConcurrentHashMap<>();
+            }
+            follows.compute(account, (a, follow) -> {
+                Follow current = follow == null ? Follow.NONE : follow;
+                Follow next = current.with(pattern, add);
+                changed[0] = next != current;
+                if (changed[0]) {
+                    index(user, account, next.isEmpty() ? null : next);
+                }
+                return next.isEmpty() ? null : next;
+            });
+            return follows.isEmpty() ? null : follows;
+        });
+        return changed[0];
+    }
+
+    /**
+     * set the subscriptions of a user to an account in the index by account
+     *
+     * @param follow the subscriptions, or null for none
+     */
+    private void index(String user, String account, Follow follow) {
+        byAccount.compute(account, (a, followers) -> {
+            if (follow == null) {
+                if (followers != null) {
+                    followers.remove(user);
+                }
+            } else {
+                if (followers == null) {
+                    followers = new ConcurrentHashMap<>();
+                }
+                followers.put(user, follow);
+            }
+            return followers == null || followers.isEmpty() ? null : followers;
+        });
+    }
+
+    /**
+     * A Follow is the immutable set of subscriptions of a user to one account.
+     */
+    static final class Follow {
+        // Rep invariants:
+        //   patterns is unmodifiable and never changes
+        // Abstraction function:
+        //   represents a subscription to all tweets if all, and one to the
+        //   tweets matching each pattern in patterns
+
+        private static final Follow NONE = new Follow(false, Collections.emptySet());
+
+        private final boolean all;
+        private final Set<String> patterns;
+
+        private Follow(boolean all, Set<String> patterns) {
+            this.all = all;
+            this.patterns = patterns;
+        }
+
+        /**
+         * @return true if the user follows all tweets of the account
+         */
+        boolean isAll() {
+            return all;
+        }
+
+        /**
+         * @return the patterns, in lower case, that the user follows the tweets of the account for
+         */
+        Set<String> getPatterns() {
+            return patterns;
+        }
+
+        /**
+         * @param text the text of a tweet of the account, in lower case
+         * @return true if the user follows all tweets of the account, or text contains a pattern
+         */
+        boolean matches(String text) {
+            if (all) {
+                return true;
+            }
+            for (String pattern : patterns) {
+                if (text.contains(pattern)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isEmpty() {
+            return !all && patterns.isEmpty();
+        }
+
+        /**
+         * @return this Follow with a subscription added or removed, or this if it has (or lacks) it already
+         */
+        private Follow with(String pattern, boolean add) {
+            if (pattern == null) {
+                return all == add ? this : new Follow(add, patterns);
+            }
+            if (patterns.contains(pattern) == add) {
+                return this;
+            }
+            Set<String> next = new HashSet<>(patterns);
+            if (add) {
+                next.add(pattern);
+            } else {
+                next.remove(pattern);
+            }
+            return new Follow(all, Collections.unmodifiableSet(next));
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package pheme;
+
+import timedelayqueue.Clock;
+import timedelayqueue.LatencyHistogram;
+import timedelayqueue.PubSubMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TweetFeed fetches the tweets of every followed Twitter account once
+ * for all the Pheme users that follow it, and hands each tweet to the
+ * users whose subscriptions it matches.
+ *
+ * <p>
+ *     Each account is fetched at most once per interval, over the window
+ *     from the end of its previous fetch to now, so a tweet is fetched
+ *     once however many users follow its author. The first fetch of an
+ *     account starts at the start time of the feed. A window is claimed
+ *     atomically before it is fetched, so concurrent polls never fetch an
+ *     account twice; if a fetch fails, its window is given back to be
+ *     fetched again by a later poll. The time of every fetch is recorded,
+ *     and the lag of the feed is how long ago the account fetched least
+ *     recently was last fetched.
+ * </p>
+ */
+class TweetFeed {
+    // Rep invariants:
+    //   interval >= 0, every value of fetched is the end of the last
+    //   window claimed for its account
+    // Abstraction function:
+    //   represents a feed that has fetched, for every key a of fetched,
+    //   the tweets of a posted from start until fetched.get(a)
+    // Thread safety argument:
+    //   source, subs and clock are thread-safe, fetched is a ConcurrentHashMap
+    //   whose entries are only claimed by compute and given back by replace or
+    //   remove, fetches and delivered are atomic, and fetchLatency is
+    //   guarded by its own lock
+
+    /**
+     * A Sink receives the tweets of a feed.
+     */
+    interface Sink {
+
+        /**
+         * deliver a tweet
+         *
+         * @param tweet the tweet, with no receiver
+         * @param users the names of the users whose subscriptions match the tweet, not empty
+         */
+        void deliver(PubSubMessage tweet, List<String> users);
+
+    }
+
+    private final TweetSource source;
+    private final SubscriptionRegistry subs;
+    private final Clock clock;
+    private final long interval;
+    private final long start;
+    private final ConcurrentMap<String, Long> fetched = new ConcurrentHashMap<>();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final LatencyHistogram fetchLatency = new LatencyHistogram();
+
+    /**
+     * Create a new TweetFeed
+     *
+     * @param source   the source of the tweets
+     * @param subs     the subscriptions the tweets are matched against
+     * @param clock    the source of the current time
+     * @param interval the least time, in milliseconds, between two fetches of an account, >= 0
+     * @param start    the time, in milliseconds since the epoch, from which tweets are fetched
+     * throws IllegalArgumentException if interval < 0
+     */
+    TweetFeed(TweetSource source, SubscriptionRegistry subs, Clock clock, long interval, long start) {
+        if (interval < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.source = source;
+        this.subs = subs;
+        this.clock = clock;
+        this.interval = interval;
+        this.start = start;
+    }
+
+    /**
+     * fetch the tweets of every followed account that is due,
+     * and deliver each to the users it matches
+     *
+     * @param sink the receiver of the tweets
+     * @return the number of accounts fetched
+     * throws RuntimeException the first exception thrown by the source, such as
+     * IllegalArgumentException if a followed account does not exist, after
+     * polling every other account
+     */
+    int poll(Sink sink) {
+        fetched.keySet().removeIf(account -> !subs.isFollowed(account));
+        int polled = 0;
+        RuntimeException failure = null;
+        for (String account : subs.accounts()) {
+            try {
+                if (poll(account, sink)) {
+                    polled++;
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return polled;
+    }
+
+    /**
+     * @return for every account fetched, the end of its last fetch window,
+     * in milliseconds since the epoch; a snapshot that later fetches do not affect
+     */
+    Map<String, Long> windows() {
+        return new HashMap<>(fetched);
+    }
+
+    /**
+     * set the end of the last fetch window of an account, such as one saved
+     * by an earlier feed, so its next fetch starts there
+     *
+     * @param account the name of a Twitter account
+     * @param end     the end of its last fetch window, in milliseconds since the epoch
+     */
+    void restore(String account, long end) {
+        fetched.put(account, end);
+    }
+
+    /**
+     * @return the number of fetches made from the source
+     */
+    long getFetches() {
+        return fetches.get();
+    }
+
+    /**
+     * @return the number of (tweet, users) deliveries made to sinks
+     */
+    long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @param percentile the percentile to read, 0 <= percentile <= 100
+     * @return the time, in milliseconds, not exceeded by percentile percent of
+     * the fetches made from the source, or 0 if none were
+     * throws IllegalArgumentException if percentile is out of range
+     */
+    long getFetchLatency(double percentile) {
+        synchronized (fetchLatency) {
+            return fetchLatency.percentile(percentile);
+        }
+    }
+
+    /**
+     * @return the time, in milliseconds, since the followed account fetched
+     * least recently was last fetched, or 0 if no followed account was fetched
+     */
+    long getLag() {
+        long now = clock.millis();
+        long lag = 0;
+        for (Map.Entry<String, Long> e : fetched.entrySet()) {
+            if (subs.isFollowed(e.getKey())) {
+                lag = Math.max(lag, now - e.getValue());
+            }
+        }
+        return lag;
+    }
+
+    /**
+     * fetch the tweets of one account if it is due,
+     * and deliver each to the users it matches
+     *
+     * @param account the name of a Twitter account
+     * @param sink    the receiver of the tweets
+     * @return true if the account was fetched
+     * throws RuntimeException any exception thrown by the source
+     */
+    boolean poll(String account, Sink sink) {
+        long now = clock.millis();
+        long[] window = new long[1];
+        boolean[] due = new boolean[1];
+        boolean[] first = new boolean[1];
+        fetched.compute(account, (a, last) -> {
+            first[0] = last == null;
+            due[0] = last == null || now - last >= interval;
+            window[0] = last == null ? start : last;
+            return due[0] ? Long.valueOf(now) : last;
+        });
+        if (!due[0]) {
+            return false;
+        }
+        List<PubSubMessage> tweets;
+        long started = System.nanoTime();
+        try {
+            fetches.incrementAndGet();
+            tweets = source.getTweets(account, window[0], now);
+        } catch (RuntimeException e) {
+            if (first[0]) {
+                fetched.remove(account, now);
+            } else {
+                fetched.replace(account, now, window[0]);
+            }
+            throw e;
+        } finally {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            synchronized (fetchLatency) {
+                fetchLatency.record(elapsed);
+            }
+        }
+        if (tweets.isEmpty()) {
+            return true;
+        }
+        Map<String, SubscriptionRegistry.Follow> followers = subs.followers(account);
+        for (PubSubMessage tweet : tweets) {
+            String text = tweet.getContent().toLowerCase();
+            List<String> users = new ArrayList<>();
+            for (Map.Entry<String, SubscriptionRegistry.Follow> e : followers.entrySet()) {
+                if (e.getValue().matches(text)) {
+                    users.add(e.getKey());
+                }
+            }
+            if (!users.isEmpty()) {
+                sink.deliver(tweet, users);
+                delivered.incrementAndGet();
+            }
+        }
+        return true;
+    }
+}
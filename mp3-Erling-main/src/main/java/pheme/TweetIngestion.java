@@ -0,0 +1,119 @@
+package pheme;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TweetIngestion polls a TweetFeed on a background thread, so that the
+ * tweets of subscribed accounts are fetched and enqueued ahead of the
+ * reads of their receivers.
+ *
+ * <p>
+ *     Polls run on a single daemon thread with a fixed delay between the
+ *     end of one and the start of the next, so a slow source delays the
+ *     next poll instead of piling polls up. A failed poll is counted and
+ *     the next one runs as scheduled. A poll may also be run on the
+ *     caller's thread, such as when a simulation drives a virtual clock.
+ * </p>
+ */
+class TweetIngestion {
+    // Rep invariants:
+    //   interval > 0, executor == null until start is called
+    // Abstraction function:
+    //   represents a pipeline moving tweets from feed into sink every interval
+    // Thread safety argument:
+    //   feed is thread-safe, polls and failures are atomic, and executor
+    //   is only written under the lock of this
+
+    private final TweetFeed feed;
+    private final TweetFeed.Sink sink;
+    private final long interval;
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private ScheduledExecutorService executor;
+
+    /**
+     * Create a new TweetIngestion, not yet started
+     *
+     * @param feed     the feed to poll
+     * @param sink     the receiver of the tweets
+     * @param interval the time, in milliseconds, between polls, > 0
+     * throws IllegalArgumentException if interval <= 0
+     */
+    TweetIngestion(TweetFeed feed, TweetFeed.Sink sink, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.feed = feed;
+        this.sink = sink;
+        this.interval = interval;
+    }
+
+    /**
+     * start polling in the background, if it is not started already
+     */
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pheme-tweet-ingestion");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::pollQuietly, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stop polling in the background; a poll in progress runs to its end
+     */
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * poll every followed account that is due, on the caller's thread
+     *
+     * @return the number of accounts fetched
+     * throws RuntimeException the first exception thrown by the source
+     */
+    int poll() {
+        polls.incrementAndGet();
+        try {
+            return feed.poll(sink);
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * poll one account if it is due, on the caller's thread
+     *
+     * @param account the name of a Twitter account
+     * throws RuntimeException any exception thrown by the source
+     */
+    void poll(String account) {
+        feed.poll(account, sink);
+    }
+
+    /**
+     * @return the current metrics of the ingestion
+     */
+    IngestionStats stats() {
+        return new IngestionStats(polls.get(), failures.get(), feed.getFetches(), feed.getDelivered(),
+            feed.getFetchLatency(50), feed.getFetchLatency(99), feed.getFetchLatency(100), feed.getLag());
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            // counted in failures; the fetch is retried by the next poll
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package pheme;
+
+import timedelayqueue.PubSubMessage;
+
+import java.util.List;
+
+/**
+ * A TweetSource supplies the tweets posted by Twitter accounts,
+ * such as the Twitter API or a recorded stand-in for it.
+ */
+public interface TweetSource {
+
+    /**
+     * check that an account exists
+     *
+     * @param account the name of a Twitter account
+     * @return true if the account exists, and false otherwise
+     */
+    boolean exists(String account);
+
+    /**
+     * Obtain the tweets posted by an account within a time range
+     *
+     * @param account the name of an existing Twitter account
+     * @param since   the start of the range, in milliseconds since the epoch, inclusive
+     * @param until   the end of the range, in milliseconds since the epoch, exclusive
+     * @return the tweets as messages of type TWEET, whose sender is made
+     * from the id of the account and whose receiver is PubSubMessage.ZERO_UUID
+     * throws IllegalArgumentException if the account does not exist
+     */
+    List<PubSubMessage> getTweets(String account, long since, long until);
+
+}
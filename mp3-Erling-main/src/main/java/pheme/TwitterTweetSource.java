@@ -0,0 +1,60 @@
+package pheme;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import twitter.TwitterListener;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A TwitterTweetSource obtains tweets from the Twitter API
+ * through a single TwitterListener.
+ */
+public class TwitterTweetSource implements TweetSource {
+    // Rep invariants:
+    //   listener != null
+    // Abstraction function:
+    //   represents the tweets visible to the Twitter credentials of listener
+    // Thread safety argument:
+    //   listener is final and only its stateless lookups are used
+
+    private final TwitterListener listener;
+
+    /**
+     * Create a new TwitterTweetSource
+     *
+     * @param twitterCredentialsFile a file of twitter Credentials
+     * throws IllegalArgumentException if twitterCredentialsFile is null
+     */
+    public TwitterTweetSource(File twitterCredentialsFile) {
+        this.listener = new TwitterListener(twitterCredentialsFile);
+    }
+
+    @Override
+    public boolean exists(String account) {
+        return listener.isValidUser(account);
+    }
+
+    @Override
+    public List<PubSubMessage> getTweets(String account, long since, long until) {
+        List<TweetV2.TweetData> tweets = listener.getTweetsByUser(account,
+            new Timestamp(since).toLocalDateTime(), new Timestamp(until).toLocalDateTime());
+        List<PubSubMessage> messages = new ArrayList<>(tweets == null ? 0 : tweets.size());
+        if (tweets == null) {
+            return messages;
+        }
+        for (TweetV2.TweetData tt : tweets) {
+            UUID msg_id = new UUID(Long.parseLong(tt.getId()), Long.parseLong(tt.getId()));
+            UUID sender = new UUID(Long.parseLong(tt.getAuthorId()), Long.parseLong(tt.getAuthorId()));
+            Timestamp timestamp = Timestamp.valueOf(tt.getCreatedAt());
+            messages.add(new PubSubMessage(msg_id, timestamp, sender, PubSubMessage.ZERO_UUID,
+                tt.getText(), BasicMessageType.TWEET));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,172 @@
+package pheme;
+
+import timedelayqueue.TimeDelayQueue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A UserPartition holds the users of a PhemeService whose ids hash to it,
+ * each with its password hash, message queue and delivery records.
+ *
+ * <p>
+ *     A service splits its users across many partitions, each guarded by
+ *     its own lock, so calls for users in different partitions do not
+ *     contend, and adding, checking and removing a user are each atomic.
+ *     The lock is held to look a user up or change membership, and by the
+ *     service to log a change to a user in order with its removal; the
+ *     queue and delivery records of a user are thread-safe on their own,
+ *     so messages are queued and delivered outside it.
+ * </p>
+ */
+class UserPartition {
+    // Rep invariants:
+    //   users.get(id).getId() == id for every key id
+    // Abstraction function:
+    //   represents the set of users in users.values()
+    // Thread safety argument:
+    //   users is only accessed under the lock of this, and User is immutable
+    //   apart from its thread-safe queue and delivery records
+
+    private final Map<UUID, User> users = new HashMap<>();
+
+    /**
+     * add a user, unless a user with its id is in the partition
+     *
+     * @param user the user
+     * @return true if the user was added
+     */
+    synchronized boolean add(User user) {
+        return users.putIfAbsent(user.getId(), user) == null;
+    }
+
+    /**
+     * @param id the id of a user
+     * @return the user with id, or null if there is none
+     */
+    synchronized User get(UUID id) {
+        return users.get(id);
+    }
+
+    /**
+     * remove a user, if its name and password hash match, and mark it removed
+     *
+     * @param id   the id of the user
+     * @param name the name of the user
+     * @param hash the password hash of the user
+     * @return the user removed, or null if there is no such user
+     */
+    synchronized User remove(UUID id, String name, String hash) {
+        User user = users.get(id);
+        if (user == null || !user.getName().equals(name) || !user.getHash().equals(hash)) {
+            return null;
+        }
+        users.remove(id);
+        user.removed = true;
+        return user;
+    }
+
+    /**
+     * @return the users of the partition, in no particular order
+     */
+    synchronized List<User> users() {
+        return new ArrayList<>(users.values());
+    }
+
+    /**
+     * A User is one user of a PhemeService: its id, name and password
+     * hash, the queue of messages waiting for it, the sequence numbers
+     * of the messages delivered to it, and the ids of the messages queued
+     * for it on recovery that have not been taken since. Once removed
+     * from its partition, a user is marked removed for good.
+     */
+    static final class User {
+        // Rep invariants:
+        //   no field is null
+        // Thread safety argument:
+        //   all fields but recovered and removed are final, the strings and
+        //   id are immutable, and queue, delivered and the set recovered
+        //   points to are thread-safe; recovered and removed are volatile
+
+        private final UUID id;
+        private final String name;
+        private final String hash;
+        private final TimeDelayQueue queue;
+        private final DeliveryBitmap delivered = new DeliveryBitmap();
+        private volatile Set<UUID> recovered = Collections.emptySet();
+        private volatile boolean removed = false;
+
+        User(UUID id, String name, String hash, TimeDelayQueue queue) {
+            this.id = id;
+            this.name = name;
+            this.hash = hash;
+            this.queue = queue;
+        }
+
+        UUID getId() {
+            return id;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        TimeDelayQueue getQueue() {
+            return queue;
+        }
+
+        DeliveryBitmap getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return true if the user was removed from its partition
+         */
+        boolean isRemoved() {
+            return removed;
+        }
+
+        /**
+         * remember the ids of the messages queued for this user on recovery
+         *
+         * @param ids the ids of the messages in the queue
+         */
+        void setRecovered(Collection<UUID> ids) {
+            if (ids.isEmpty()) {
+                recovered = Collections.emptySet();
+            } else {
+                Set<UUID> taken = ConcurrentHashMap.newKeySet(ids.size());
+                taken.addAll(ids);
+                recovered = taken;
+            }
+        }
+
+        /**
+         * forget that a message was queued for this user on recovery
+         *
+         * @param id the id of the message
+         * @return true if it was, and was not taken before
+         */
+        boolean takeRecovered(UUID id) {
+            Set<UUID> ids = recovered;
+            if (ids.isEmpty() || !ids.remove(id)) {
+                return false;
+            }
+            if (ids.isEmpty()) {
+                recovered = Collections.emptySet();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package pheme;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A WriteAheadLog appends LogRecords to numbered segment files in a
+ * directory, and makes them durable with group commit.
+ *
+ * <p>
+ *     Appending a record only copies it into a buffer; a committer thread
+ *     writes out every record appended so far and forces them to the
+ *     storage device with one fsync. Once a record is appended, the
+ *     committer waits up to the latency budget for others to join the
+ *     batch, or less if maxBatch records are waiting, so under load one
+ *     fsync makes many records durable, while appends go on into a second
+ *     buffer. A caller that needs its record durable waits for its ticket.
+ * </p>
+ *
+ * <p>
+ *     Each record is framed as its length and CRC32, as ints, followed by
+ *     its encoding. A segment that grows past segmentBytes is closed and
+ *     the next one started, so segments made obsolete by a snapshot can be
+ *     deleted whole. A new log never appends to an existing segment, so a
+ *     record torn by a crash can only be the last one of its segment.
+ * </p>
+ */
+class WriteAheadLog {
+    // Rep invariants:
+    //   0 <= synced <= appended, and batch records are in pending
+    //   the records with tickets in (synced, appended] are in pending, or
+    //   being written by the committer, in the order of their tickets
+    //   the records with tickets <= synced are forced to segment files
+    //   budgetNanos >= 0, maxBatch > 0, segmentBytes > 0
+    // Abstraction function:
+    //   represents the sequence of records with tickets 1..appended, of which
+    //   the first synced are durable, in segments numbered up to segment
+    // Thread safety argument:
+    //   the buffers, counts and flags are guarded by lock; channel and
+    //   segment are guarded by io, which only the committer and roll take,
+    //   and the committer writes outside lock so appends are not held up
+
+    /** the suffix of segment file names */
+    static final String SUFFIX = ".wal";
+
+    /** the default size past which a segment is closed */
+    static final long SEGMENT_BYTES = 64L << 20;
+
+    /** the default number of waiting records that are committed without waiting out the budget */
+    static final int MAX_BATCH = 1024;
+
+    private static final int FRAME = 2 * Integer.BYTES;
+
+    // Windows cannot open a directory, and makes its entries durable with the files
+    private static final boolean FORCE_DIRECTORIES = !System.getProperty("os.name").startsWith("Windows");
+
+    private final Path dir;
+    private final long budgetNanos;
+    private final int maxBatch;
+    private final long segmentBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    private final Object io = new Object();
+    private final Thread committer;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private int batch = 0;
+    private long firstPending;
+    private long appended = 0;
+    private long synced = 0;
+    private long commits = 0;
+    private boolean urgent = false;
+    private boolean closed = false;
+    private IOException failed;
+    private FileChannel channel;
+    private long segment;
+
+    /**
+     * Create a new WriteAheadLog with the default segment size and batch
+     *
+     * @param dir           the directory of the segments, created if missing
+     * @param budgetMicros  how long, in microseconds, a record may wait for
+     *                      others to share its fsync, >= 0
+     * @throws IOException if the first segment cannot be created
+     * throws IllegalArgumentException if budgetMicros < 0
+     */
+    WriteAheadLog(Path dir, long budgetMicros) throws IOException {
+        this(dir, budgetMicros, MAX_BATCH, SEGMENT_BYTES);
+    }
+
+    /**
+     * Create a new WriteAheadLog, starting a segment numbered after
+     * every segment already in dir
+     *
+     * @param dir           the directory of the segments, created if missing
+     * @param budgetMicros  how long, in microseconds, a record may wait for
+     *                      others to share its fsync, >= 0
+     * @param maxBatch      the number of waiting records that are committed
+     *                      without waiting out the budget, > 0
+     * @param segmentBytes  the size in bytes past which a segment is closed, > 0
+     * @throws IOException if the first segment cannot be created
+     * throws IllegalArgumentException if an argument is out of range
+     */
+    WriteAheadLog(Path dir, long budgetMicros, int maxBatch, long segmentBytes) throws IOException {
+        if (budgetMicros < 0 || maxBatch <= 0 || segmentBytes <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.dir = dir;
+        this.budgetNanos = TimeUnit.MICROSECONDS.toNanos(budgetMicros);
+        this.maxBatch = maxBatch;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        List<Long> existing = segments(dir);
+        openSegment(existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1);
+        committer = new Thread(this::commitLoop, "pheme-wal-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * @return the directory of the segments
+     */
+    Path directory() {
+        return dir;
+    }
+
+    /**
+     * append a record to the log, without waiting for it to be durable
+     *
+     * @param record the record
+     * @return the ticket of the record, to wait for with await
+     * throws UncheckedIOException if the log has failed to write
+     * throws IllegalStateException if the log is closed
+     */
+    long append(LogRecord record) {
+        byte[] body = record.encode();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        lock.lock();
+        try {
+            check();
+            if (pending.remaining() < FRAME + body.length) {
+                ByteBuffer larger = ByteBuffer.allocate(
+                    Math.max(2 * pending.capacity(), pending.position() + FRAME + body.length));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            pending.putInt(body.length).putInt((int) crc.getValue()).put(body);
+            if (batch++ == 0) {
+                firstPending = System.nanoTime();
+                work.signal();
+            } else if (batch >= maxBatch) {
+                work.signal();
+            }
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * wait until the record with a ticket, and every record before it, is durable
+     *
+     * @param ticket a ticket returned by append
+     * throws UncheckedIOException if the log failed to write it
+     */
+    void await(long ticket) {
+        lock.lock();
+        try {
+            while (synced < ticket && failed == null) {
+                durable.awaitUninterruptibly();
+            }
+            if (synced < ticket) {
+                throw new UncheckedIOException(failed);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * make every record appended so far durable, and start a new segment
+     * for the records appended from now on
+     *
+     * @return the number of the new segment
+     * throws UncheckedIOException if the log fails to write
+     * throws IllegalStateException if the log is closed
+     */
+    long roll() {
+        lock.lock();
+        try {
+            check();
+            urgent = true;
+            work.signal();
+            await(appended);
+            synchronized (io) {
+                openSegment(segment + 1);
+                return segment;
+            }
+        } catch (IOException e) {
+            failed = e;
+            durable.signalAll();
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * force the entries of a directory, such as a file just created in it
+     * or renamed into it, to the storage device, so they survive a crash
+     *
+     * @param dir the directory
+     * @throws IOException if the directory cannot be forced
+     */
+    static void forceDirectory(Path dir) throws IOException {
+        if (FORCE_DIRECTORIES) {
+            try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+                ch.force(true);
+            }
+        }
+    }
+
+    /**
+     * delete every segment numbered below first
+     *
+     * @param first the number of the first segment to keep
+     * @throws IOException if a segment cannot be deleted
+     */
+    void deleteBefore(long first) throws IOException {
+        for (long n : segments(dir)) {
+            if (n < first) {
+                Files.deleteIfExists(dir.resolve(name(n)));
+            }
+        }
+    }
+
+    /**
+     * make every record appended so far durable, and close the log
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            work.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (io) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // every record was forced, so nothing is lost
+            }
+        }
+    }
+
+    /**
+     * @return the number of fsyncs made
+     */
+    long getCommits() {
+        lock.lock();
+        try {
+            return commits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of records made durable
+     */
+    long getSynced() {
+        lock.lock();
+        try {
+            return synced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * read the records of the segments of a log numbered first or above,
+     * in the order they were appended
+     *
+     * <p>
+     *     A record torn by a crash ends its segment, as the log that was
+     *     writing it never wrote again, so it is skipped with everything
+     *     after it in that segment.
+     * </p>
+     *
+     * @param dir    the directory of the segments
+     * @param first  the number of the first segment to read
+     * @param action the action to perform on each record
+     * @return the number of records read
+     * @throws IOException if a segment cannot be read
+     */
+    static long replay(Path dir, long first, Consumer<LogRecord> action) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        List<Long> numbers = segments(dir);
+        long count = 0;
+        for (long n : numbers) {
+            if (n < first) {
+                continue;
+            }
+            try (FileChannel ch = FileChannel.open(dir.resolve(name(n)), StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                while (buf.hasRemaining()) {
+                    LogRecord record = next(buf);
+                    if (record == null) {
+                        break;
+                    }
+                    action.accept(record);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the record framed at the position of buf, or null if it is torn
+     */
+    private static LogRecord next(ByteBuffer buf) {
+        if (buf.remaining() < FRAME) {
+            return null;
+        }
+        int length = buf.getInt();
+        int crc = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            return null;
+        }
+        ByteBuffer body = buf.slice();
+        body.limit(length);
+        buf.position(buf.position() + length);
+        CRC32 check = new CRC32();
+        check.update(body.duplicate());
+        if ((int) check.getValue() != crc) {
+            return null;
+        }
+        try {
+            return LogRecord.decode(body);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            ByteBuffer out;
+            long upTo;
+            lock.lock();
+            try {
+                while (batch == 0 && !closed) {
+                    work.awaitUninterruptibly();
+                }
+                if (batch == 0) {
+                    return;
+                }
+                // wait out the budget of the oldest record, unless the batch fills first
+                long deadline = firstPending + budgetNanos;
+                for (long wait = deadline - System.nanoTime();
+                     wait > 0 && batch < maxBatch && !urgent && !closed;
+                     wait = deadline - System.nanoTime()) {
+                    try {
+                        work.awaitNanos(wait);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                out = pending;
+                pending = spare;
+                upTo = appended;
+                batch = 0;
+                urgent = false;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                synchronized (io) {
+                    out.flip();
+                    while (out.hasRemaining()) {
+                        channel.write(out);
+                    }
+                    channel.force(false);
+                    if (channel.position() >= segmentBytes) {
+                        openSegment(segment + 1);
+                    }
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failed = e;
+                    durable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            out.clear();
+            lock.lock();
+            try {
+                spare = out;
+                synced = upTo;
+                commits++;
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** the caller must hold lock */
+    private void check() {
+        if (failed != null) {
+            throw new UncheckedIOException(failed);
+        }
+        if (closed) {
+            throw new IllegalStateException("log is closed");
+        }
+    }
+
+    /** the caller must hold io, or be constructing the log */
+    private void openSegment(long number) throws IOException {
+        FileChannel next = FileChannel.open(dir.resolve(name(number)),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            // records forced to the segment are lost if its entry is
+            forceDirectory(dir);
+        } catch (IOException e) {
+            next.close();
+            throw e;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        channel = next;
+        segment = number;
+    }
+
+    private static String name(long number) {
+        return String.format("%016d%s", number, SUFFIX);
+    }
+
+    /**
+     * @return the numbers of the segments in dir, in increasing order
+     */
+    private static List<Long> segments(Path dir) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+}
@@ -0,0 +1,151 @@
+package timedelayqueue;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An ArenaRecord locates one encoded message in a chunk of a
+ * MessageArena and decodes its fields on demand.
+ *
+ * <p>
+ *     The message is encoded by MessageCodec with a base time of 0.
+ *     The id is at a fixed offset; the other fields are found by
+ *     stepping over the varints that precede them. Every read is
+ *     absolute, so the chunk buffer's position is never touched. Content
+ *     held by a PayloadStore is looked up when the record is created, so
+ *     it stays readable after the message is released, but it is only
+ *     inflated, if it is kept compressed, when it is read.
+ * </p>
+ */
+final class ArenaRecord {
+    // Rep invariants:
+    //   buf, codec != null
+    //   buf holds a complete encoding by codec, with base 0, at offset
+    //   and is never written there again
+    //   payload != null iff the encoding refers to a payload, and is then that payload
+    // Abstraction function:
+    //   represents the message encoded in buf at offset
+    // Thread safety argument:
+    //   all fields are final and buf is only read with absolute gets,
+    //   which do not change its state
+
+    private static final int ID = 2;
+    private static final int TIMESTAMP = ID + 16;
+
+    private final ByteBuffer buf;
+    private final int offset;
+    private final MessageCodec codec;
+    private final PayloadStore.Payload payload;
+
+    ArenaRecord(ByteBuffer buf, int offset, MessageCodec codec) {
+        this.buf = buf;
+        this.offset = offset;
+        this.codec = codec;
+        this.payload = hasPayload() ? codec.payloadRef(payloadId()) : null;
+    }
+
+    boolean hasPayload() {
+        return (buf.get(offset + 1) & MessageCodec.PAYLOAD) != 0;
+    }
+
+    /**
+     * @return the id of the payload holding the content, if hasPayload()
+     */
+    long payloadId() {
+        return buf.getLong(lengthAt());
+    }
+
+    boolean isTransient() {
+        return (buf.get(offset + 1) & MessageCodec.TRANSIENT) != 0;
+    }
+
+    UUID id() {
+        return uuid(offset + ID);
+    }
+
+    long timestampMillis() {
+        return MessageCodec.unzigzag(MessageCodec.getVarint(buf, offset + TIMESTAMP));
+    }
+
+    UUID sender() {
+        return uuid(senderAt());
+    }
+
+    MessageType type() {
+        return codec.type((int) MessageCodec.getVarint(buf, typeAt()));
+    }
+
+    List<UUID> receivers() {
+        int at = countAt();
+        long count = MessageCodec.getVarint(buf, at);
+        at += MessageCodec.varintSize(count);
+        List<UUID> receivers = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            receivers.add(uuid(at));
+            at += 16;
+        }
+        return Collections.unmodifiableList(receivers);
+    }
+
+    String content() {
+        if (payload != null) {
+            return payload.content();
+        }
+        int at = lengthAt();
+        long length = MessageCodec.getVarint(buf, at);
+        return MessageCodec.getUtf8(buf, at + MessageCodec.varintSize(length), (int) length);
+    }
+
+    /**
+     * @return a reader that decodes the content from the encoding as it is read
+     */
+    Reader contentReader() {
+        if (payload != null) {
+            return new StringReader(payload.content());
+        }
+        int at = lengthAt();
+        long length = MessageCodec.getVarint(buf, at);
+        return new Utf8Reader(buf, at + MessageCodec.varintSize(length), (int) length);
+    }
+
+    int lifetime() {
+        if (!isTransient()) {
+            return 0;
+        }
+        int at = lengthAt();
+        if (hasPayload()) {
+            return (int) MessageCodec.getVarint(buf, at + Long.BYTES);
+        }
+        long length = MessageCodec.getVarint(buf, at);
+        return (int) MessageCodec.getVarint(buf, at + MessageCodec.varintSize(length) + (int) length);
+    }
+
+    private UUID uuid(int at) {
+        return new UUID(buf.getLong(at), buf.getLong(at + 8));
+    }
+
+    private int senderAt() {
+        int at = offset + TIMESTAMP;
+        return at + MessageCodec.varintSize(MessageCodec.getVarint(buf, at));
+    }
+
+    private int typeAt() {
+        return senderAt() + 16;
+    }
+
+    private int countAt() {
+        int at = typeAt();
+        return at + MessageCodec.varintSize(MessageCodec.getVarint(buf, at));
+    }
+
+    private int lengthAt() {
+        int at = countAt();
+        long count = MessageCodec.getVarint(buf, at);
+        return at + MessageCodec.varintSize(count) + 16 * (int) count;
+    }
+}
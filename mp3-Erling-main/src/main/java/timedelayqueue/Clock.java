@@ -0,0 +1,25 @@
+package timedelayqueue;
+
+/**
+ * A Clock is a source of the current time for
+ * time-delay queues and the messages they hold.
+ *
+ * <p>
+ *     Queues and messages read the time only through a Clock,
+ *     so tests and simulations can substitute a VirtualClock
+ *     for the system clock and control time explicitly.
+ * </p>
+ */
+public interface Clock {
+
+    /** the clock that reads the system time */
+    Clock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * Obtain the current time
+     *
+     * @return the current time in milliseconds since the epoch
+     */
+    long millis();
+
+}
@@ -0,0 +1,466 @@
+package timedelayqueue;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A ConcurrentTimeDelayQueue is a TimeDelayQueue for many producers
+ * and consumers.
+ *
+ * <p>
+ *     Messages are kept in a lock-free skip list ordered by timestamp, and
+ *     ids are deduplicated in a concurrent hash set, so
+ *     neither adding nor taking a message takes a lock: producers insert
+ *     with compare-and-set, and consumers race to unlink the head, the
+ *     loser simply trying the next one. Transient messages are also kept
+ *     in a second skip list ordered by expiry, from which whoever comes
+ *     along next unlinks the expired ones. A lock is only taken by a
+ *     consumer that has to sleep until a message becomes ready, and by a
+ *     producer that has to wake one.
+ * </p>
+ *
+ * <p>
+ *     The id of a message is remembered while it is queued, and for the
+ *     dedup horizon after it was added; under heavier load the ids of
+ *     messages already delivered are forgotten oldest first, so that at
+ *     most dedupCapacity of them are kept.
+ * </p>
+ */
+public class ConcurrentTimeDelayQueue {
+    // Rep invariants:
+    //   delay >= 0, horizon > 0, dedupCapacity > 0
+    //   the id of every entry of queue and of transients is in ids
+    //   transients holds the transient entries of queue, and possibly some
+    //   that another thread is unlinking from both or that were taken from
+    //   queue before add put them in transients; these are unlinked once
+    //   they expire, and are then found to be in queue no longer
+    //   retired holds the ids of entries no longer in queue that are still
+    //   in ids, and retiredCount is its size, give or take the ones being
+    //   added and removed
+    //   waiters is the number of consumers registered to be woken
+    //   logs.length is a power of two
+    // Abstraction function:
+    //   represents the messages of queue, delivered in the order of their
+    //   timestamps subject to the delay, after which messages of equal
+    //   timestamp are delivered in the order they were added
+    // Thread safety argument:
+    //   - queue, transients, ids and retired are lock-free or concurrent
+    //     collections; an entry belongs to the thread whose remove from
+    //     queue succeeds, which alone delivers or discards it
+    //   - add puts an entry in queue before transients, so an expire that
+    //     finds it in transients also finds it in queue, unless it was taken;
+    //     getNext still discards an expired head rather than deliver it
+    //   - sequence, count and the counters are atomic, and every log is
+    //     thread-safe
+    //   - sleeping consumers register in waiters, then check the queue
+    //     again, before waiting on the condition of waitLock; a producer
+    //     adds its entry, then reads waiters, so one of them sees the other
+
+    private final int delay;
+    private final long horizon;
+    private final int dedupCapacity;
+    private final Clock clock;
+    private final ConcurrentSkipListSet<Entry> queue = new ConcurrentSkipListSet<>(Entry::compareReady);
+    private final ConcurrentSkipListSet<Entry> transients = new ConcurrentSkipListSet<>(Entry::compareExpiry);
+    private final Set<UUID> ids = ConcurrentHashMap.newKeySet();
+    private final Queue<Retired> retired = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retiredCount = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder count = new LongAdder();
+    private final OperationLog[] logs;
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition added = waitLock.newCondition();
+    private volatile int waiters = 0;
+
+    /**
+     * Create a new ConcurrentTimeDelayQueue with
+     * one operation log stripe per available processor,
+     * rounded up to a power of two and doubled
+     *
+     * @param delay the delay, in milliseconds, that the queue can tolerate, >= 0
+     */
+    public ConcurrentTimeDelayQueue(int delay) {
+        this(delay, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new ConcurrentTimeDelayQueue with the default
+     * number of operation log stripes that reads the time from clock
+     *
+     * @param delay the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param clock the source of the current time
+     */
+    public ConcurrentTimeDelayQueue(int delay, Clock clock) {
+        this(delay, 2 * Runtime.getRuntime().availableProcessors(), clock);
+    }
+
+    /**
+     * Create a new ConcurrentTimeDelayQueue
+     *
+     * @param delay   the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param stripes the minimum number of stripes of the operation log, > 0;
+     *                rounded up to a power of two
+     */
+    public ConcurrentTimeDelayQueue(int delay, int stripes) {
+        this(delay, stripes, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new ConcurrentTimeDelayQueue that reads the time from clock
+     *
+     * @param delay   the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param stripes the minimum number of stripes of the operation log, > 0;
+     *                rounded up to a power of two
+     * @param clock   the source of the current time
+     */
+    public ConcurrentTimeDelayQueue(int delay, int stripes, Clock clock) {
+        this(delay, stripes, IdWindow.DEFAULT_HORIZON, IdWindow.DEFAULT_CAPACITY, clock);
+    }
+
+    /**
+     * Create a new ConcurrentTimeDelayQueue with a bounded memory
+     * of delivered ids that reads the time from clock
+     *
+     * @param delay         the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param stripes       the minimum number of stripes of the operation log, > 0;
+     *                      rounded up to a power of two
+     * @param dedupHorizon  the time, in milliseconds, for which the id of an added
+     *                      message is remembered to reject duplicates, > 0
+     * @param dedupCapacity the most ids of messages no longer queued that are
+     *                      remembered, > 0
+     * @param clock         the source of the current time
+     * throws IllegalArgumentException if an argument is out of range
+     */
+    public ConcurrentTimeDelayQueue(int delay, int stripes, long dedupHorizon, int dedupCapacity, Clock clock) {
+        if (delay < 0 || stripes <= 0 || dedupHorizon <= 0 || dedupCapacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int n = Integer.highestOneBit(stripes);
+        if (n < stripes) {
+            n <<= 1;
+        }
+        this.delay = delay;
+        this.horizon = dedupHorizon;
+        this.dedupCapacity = dedupCapacity;
+        this.clock = clock;
+        this.logs = new OperationLog[n];
+        for (int i = 0; i < n; i++) {
+            // the stripes share the retention of one queue
+            logs[i] = new OperationLog(Math.max(1, OperationLog.DEFAULT_RETENTION / n), false);
+        }
+    }
+
+    /**
+     * add a message to the queue
+     * if a message with the same id is queued, or was
+     * added within the dedup horizon, then return false
+     *
+     * @param msg the message to add
+     * @return if add successfully
+     */
+    public boolean add(PubSubMessage msg) {
+        long now = clock.millis();
+        expire(now);
+        forget(now);
+        UUID id = msg.getId();
+        if (!ids.add(id)) {
+            return false;
+        }
+        log(now);
+        count.increment();
+        Entry entry = new Entry(msg, sequence.getAndIncrement(), now);
+        if (entry.expiry <= now) {
+            // a transient message that has already expired is counted but not kept
+            retire(entry);
+            return true;
+        }
+        size.incrementAndGet();
+        queue.add(entry);
+        if (entry.expiry != Long.MAX_VALUE) {
+            transients.add(entry);
+        }
+        if (waiters > 0) {
+            waitLock.lock();
+            try {
+                added.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the next message
+     *
+     * @return the ready message with the earliest timestamp,
+     * and PubSubMessage.NO_MSG if there is no suitable message
+     */
+    public PubSubMessage getNext() {
+        long now = clock.millis();
+        expire(now);
+        for (Entry head = first(); head != null; head = first()) {
+            boolean expired = head.expiry <= now;
+            if (!expired && !ready(head, now)) {
+                break;
+            }
+            if (queue.remove(head)) {
+                transients.remove(head);
+                size.decrementAndGet();
+                retire(head);
+                if (expired) {
+                    // added with an expiry that expire(now) had not seen
+                    continue;
+                }
+                log(now);
+                return head.msg;
+            }
+            // another consumer took the head first; look again
+        }
+        return PubSubMessage.NO_MSG;
+    }
+
+    /**
+     * Get the next message, waiting if necessary until
+     * a message becomes ready or the timeout elapses
+     *
+     * @param timeout how long to wait before giving up, in units of unit
+     * @param unit    the unit of timeout
+     * @return the next message and PubSubMessage.NO_MSG
+     * if no message became ready before the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public PubSubMessage getNext(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(unit.toNanos(timeout), true);
+    }
+
+    /**
+     * Get the next message, waiting if necessary until
+     * a message becomes ready
+     *
+     * @return the next message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public PubSubMessage take() throws InterruptedException {
+        return await(0, false);
+    }
+
+    /**
+     * take the next message without a lock, and only register and sleep
+     * under waitLock when there is none; waits are measured in real time
+     * even if clock is virtual, and every take goes through getNext, so
+     * an expired head is discarded rather than delivered
+     */
+    private PubSubMessage await(long nanos, boolean timed) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        while (true) {
+            PubSubMessage next = getNext();
+            if (!next.equals(PubSubMessage.NO_MSG)) {
+                return next;
+            }
+            long wait = Long.MAX_VALUE;
+            if (timed) {
+                wait = deadline - System.nanoTime();
+                if (wait <= 0) {
+                    return PubSubMessage.NO_MSG;
+                }
+            }
+            waitLock.lockInterruptibly();
+            waiters++;
+            try {
+                // a message added before waiters was raised is seen here
+                next = getNext();
+                if (!next.equals(PubSubMessage.NO_MSG)) {
+                    return next;
+                }
+                Entry head = first();
+                if (head != null) {
+                    // ready once more than delay has passed since its timestamp
+                    long until = head.time + delay + 1 - clock.millis();
+                    wait = Math.min(wait, TimeUnit.MILLISECONDS.toNanos(Math.max(1, until)));
+                }
+                if (wait == Long.MAX_VALUE) {
+                    added.await();
+                } else {
+                    added.awaitNanos(wait);
+                }
+            } finally {
+                waiters--;
+                waitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Get the count of the total number of messages processed
+     * by this queue
+     *
+     * @return count
+     */
+    public long getTotalMsgCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the count of the total number of messages in the queue,
+     * not counting transient messages that have expired
+     *
+     * @return size
+     */
+    public int getSize() {
+        expire(clock.millis());
+        return size.get();
+    }
+
+    /**
+     * Get the maximum number of operations
+     * performed on this queue over
+     * any window of length timeWindow
+     * the operations of interest are add and getNext
+     *
+     * @param timeWindow the length of the window in milliseconds, >= 0
+     * @return the number of operations, 0 if no operation was performed
+     */
+    public int getPeakLoad(int timeWindow) {
+        long[] times = getOperationTimes();
+        return OperationLog.peakLoad(times, times.length, timeWindow);
+    }
+
+    /**
+     * Get the times of the most recent operations performed
+     * on this queue, as retained by the stripes of its operation log
+     *
+     * @return the operation times in milliseconds, oldest first
+     */
+    public long[] getOperationTimes() {
+        long[][] snapshots = new long[logs.length][];
+        int total = 0;
+        for (int i = 0; i < logs.length; i++) {
+            snapshots[i] = logs[i].snapshot();
+            total += snapshots[i].length;
+        }
+        long[] times = new long[total];
+        int offset = 0;
+        for (long[] snapshot : snapshots) {
+            System.arraycopy(snapshot, 0, times, offset, snapshot.length);
+            offset += snapshot.length;
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+    /** @return the entry with the earliest timestamp, or null if the queue is empty */
+    private Entry first() {
+        return queue.ceiling(Entry.LEAST);
+    }
+
+    /** @return true if more than delay has passed since the timestamp of entry */
+    private boolean ready(Entry entry, long now) {
+        return now - entry.time > delay;
+    }
+
+    /** unlink every transient entry that has expired by now */
+    private void expire(long now) {
+        for (Entry entry = transients.ceiling(Entry.LEAST); entry != null && entry.expiry <= now;
+             entry = transients.ceiling(Entry.LEAST)) {
+            if (transients.remove(entry) && queue.remove(entry)) {
+                size.decrementAndGet();
+                retire(entry);
+            }
+        }
+    }
+
+    /**
+     * remember the id of an entry that is no longer queued until the
+     * dedup horizon after it was added, if that is still to come
+     */
+    private void retire(Entry entry) {
+        long until = entry.added + horizon;
+        if (until <= clock.millis()) {
+            ids.remove(entry.msg.getId());
+            return;
+        }
+        retired.add(new Retired(entry.msg.getId(), until));
+        retiredCount.incrementAndGet();
+    }
+
+    /**
+     * forget the retired ids whose horizon is over, and the oldest
+     * ones beyond dedupCapacity
+     */
+    private void forget(long now) {
+        for (Retired head = retired.peek(); head != null; head = retired.peek()) {
+            if (head.until > now && retiredCount.get() <= dedupCapacity) {
+                return;
+            }
+            if (retired.remove(head)) {
+                retiredCount.decrementAndGet();
+                ids.remove(head.id);
+            }
+        }
+    }
+
+    /** log an operation in the stripe of the calling thread */
+    private void log(long now) {
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        logs[(int) (h >>> 32) & (logs.length - 1)].record(now);
+    }
+
+    /** a queued message, with the order in which it was added */
+    private static final class Entry {
+        /** an entry ordered before every other, to find the first of a set */
+        static final Entry LEAST = new Entry();
+
+        private final PubSubMessage msg;
+        private final long time;
+        private final long seq;
+        private final long added;
+        private final long expiry;
+
+        Entry(PubSubMessage msg, long seq, long added) {
+            this.msg = msg;
+            this.time = msg.getTimestampMillis();
+            this.seq = seq;
+            this.added = added;
+            this.expiry = msg.isTransient() ? time + msg.lifetime() + 1 : Long.MAX_VALUE;
+        }
+
+        private Entry() {
+            msg = null;
+            time = seq = added = expiry = Long.MIN_VALUE;
+        }
+
+        static int compareReady(Entry a, Entry b) {
+            int c = Long.compare(a.time, b.time);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        }
+
+        static int compareExpiry(Entry a, Entry b) {
+            int c = Long.compare(a.expiry, b.expiry);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        }
+    }
+
+    /** the id of a message no longer queued, remembered until a time */
+    private static final class Retired {
+        private final UUID id;
+        private final long until;
+
+        Retired(UUID id, long until) {
+            this.id = id;
+            this.until = until;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package timedelayqueue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A ContentCompressor deflates message contents of at least a threshold
+ * size, optionally against a preset dictionary, and inflates them back.
+ *
+ * <p>
+ *     Short contents do not repay the cost of compressing them, and a
+ *     content that would not shrink is left as it is, so compress returns
+ *     null for both. A dictionary holds byte strings common to the contents,
+ *     such as the field names of tweet JSON, so that even the first
+ *     occurrence of a string in a content is a back-reference; train builds
+ *     one from sample contents. Contents must be inflated by a compressor
+ *     with the same dictionary as the one that deflated them.
+ * </p>
+ *
+ * <p>
+ *     Each Deflater and Inflater holds a native zlib stream. A compressor
+ *     keeps at most POOL_SIZE of each idle for reuse, and ends any other
+ *     one as soon as it has been used, so the native memory held does not
+ *     grow with the number of threads, virtual threads included.
+ * </p>
+ */
+public class ContentCompressor {
+    // Rep invariants:
+    //   threshold >= 0, dictionary != null (empty for none)
+    // Abstraction function:
+    //   represents the map from a content of at least threshold bytes of
+    //   UTF-8 to its zlib stream against dictionary, where that is shorter
+    // Thread safety argument:
+    //   threshold and dictionary are never modified after construction;
+    //   a Deflater or Inflater is used by one thread at a time, taken from
+    //   and given back to a thread-safe pool
+
+    /** the default smallest content, in bytes of UTF-8, that is compressed */
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    /** the length of the byte strings whose frequency train measures */
+    private static final int GRAM = 8;
+
+    /** the length of the pieces of samples of which train builds a dictionary */
+    private static final int SEGMENT = 64;
+
+    /** the largest number of idle Deflaters, and of idle Inflaters, kept for reuse */
+    static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final int threshold;
+    private final byte[] dictionary;
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Create a new ContentCompressor without a dictionary
+     *
+     * @param threshold the smallest content, in bytes of UTF-8, to compress, >= 0
+     * throws IllegalArgumentException if threshold < 0
+     */
+    public ContentCompressor(int threshold) {
+        this(threshold, new byte[0]);
+    }
+
+    /**
+     * Create a new ContentCompressor
+     *
+     * @param threshold  the smallest content, in bytes of UTF-8, to compress, >= 0
+     * @param dictionary the preset dictionary, as returned by train, with the
+     *                   strings most likely to occur in a content at its end
+     * throws IllegalArgumentException if threshold < 0
+     */
+    public ContentCompressor(int threshold, byte[] dictionary) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.threshold = threshold;
+        this.dictionary = dictionary.clone();
+    }
+
+    /**
+     * build a dictionary from sample contents
+     *
+     * <p>
+     *     Every sample is cut into overlapping segments, and segments are
+     *     chosen greedily by how many samples share their 8-byte strings,
+     *     counting each string only until a chosen segment covers it. The
+     *     best segments are placed last, where deflate reaches them with
+     *     the shortest distances.
+     * </p>
+     *
+     * @param samples contents like those to be compressed
+     * @param size    the largest size of the dictionary in bytes, > 0;
+     *                deflate uses at most the last 32 KiB
+     * @return the dictionary, empty if the samples are too short to share anything
+     * throws IllegalArgumentException if size <= 0
+     */
+    public static byte[] train(Collection<String> samples, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException();
+        }
+        List<byte[]> texts = new ArrayList<>();
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (String sample : samples) {
+            byte[] text = sample.getBytes(StandardCharsets.UTF_8);
+            texts.add(text);
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= text.length; i++) {
+                if (seen.add(gram(text, i))) {
+                    frequency.merge(gram(text, i), 1, Integer::sum);
+                }
+            }
+        }
+        PriorityQueue<Segment> candidates = new PriorityQueue<>();
+        for (byte[] text : texts) {
+            for (int start = 0; start + SEGMENT <= text.length; start += SEGMENT / 2) {
+                Segment segment = new Segment(text, start);
+                segment.score = score(segment, frequency);
+                candidates.add(segment);
+            }
+        }
+        List<Segment> chosen = new ArrayList<>();
+        int length = 0;
+        while (length + SEGMENT <= size && !candidates.isEmpty()) {
+            Segment best = candidates.poll();
+            if (best.score == 0) {
+                // scores only fall, so no segment has anything left to share
+                break;
+            }
+            long score = score(best, frequency);
+            if (!candidates.isEmpty() && score < candidates.peek().score) {
+                // its strings were covered by a segment chosen since it was scored
+                best.score = score;
+                candidates.add(best);
+                continue;
+            }
+            for (int i = best.start; i + GRAM <= best.start + SEGMENT; i++) {
+                frequency.remove(gram(best.text, i));
+            }
+            chosen.add(best);
+            length += SEGMENT;
+        }
+        ByteBuffer dictionary = ByteBuffer.allocate(length);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            dictionary.put(chosen.get(i).text, chosen.get(i).start, SEGMENT);
+        }
+        return dictionary.array();
+    }
+
+    /**
+     * @return the smallest content, in bytes of UTF-8, that is compressed
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * deflate a content
+     *
+     * @param content the content
+     * @param length  the length of content in UTF-8
+     * @return the compressed content, or null if content is shorter than the
+     * threshold or would not shrink
+     */
+    byte[] compress(String content, int length) {
+        if (length < threshold) {
+            return null;
+        }
+        byte[] text = content.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        try {
+            if (dictionary.length > 0) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(text);
+            deflater.finish();
+            byte[] packed = new byte[text.length];
+            int n = 0;
+            while (!deflater.finished() && n < packed.length) {
+                n += deflater.deflate(packed, n, packed.length - n);
+            }
+            return deflater.finished() && n < text.length ? Arrays.copyOf(packed, n) : null;
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * inflate a content
+     *
+     * @param packed a content compressed by a compressor with the same dictionary
+     * @param length the length of the content in UTF-8
+     * @return the content
+     * throws IllegalArgumentException if packed is not such a compressed content
+     */
+    String decompress(byte[] packed, int length) {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.setInput(packed);
+        byte[] text = new byte[length];
+        int n = 0;
+        try {
+            while (n < length) {
+                int inflated = inflater.inflate(text, n, length - n);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary() && dictionary.length > 0) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new IllegalArgumentException("truncated content");
+                    }
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    private static long gram(byte[] text, int at) {
+        long gram = 0;
+        for (int i = 0; i < GRAM; i++) {
+            gram = gram << 8 | (text[at + i] & 0xFF);
+        }
+        return gram;
+    }
+
+    /** the number of samples sharing each string of segment not yet covered */
+    private static long score(Segment segment, Map<Long, Integer> frequency) {
+        long score = 0;
+        for (int i = segment.start; i + GRAM <= segment.start + SEGMENT; i++) {
+            int shared = frequency.getOrDefault(gram(segment.text, i), 0);
+            // a string found in one sample only is not worth a place
+            if (shared > 1) {
+                score += shared;
+            }
+        }
+        return score;
+    }
+
+    private static final class Segment implements Comparable<Segment> {
+        private final byte[] text;
+        private final int start;
+        private long score;
+
+        private Segment(byte[] text, int start) {
+            this.text = text;
+            this.start = start;
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            return Long.compare(other.score, score);
+        }
+    }
+}
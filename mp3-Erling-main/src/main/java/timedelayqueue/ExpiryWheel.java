@@ -0,0 +1,181 @@
+package timedelayqueue;
+
+import java.util.Arrays;
+
+/**
+ * An ExpiryWheel is a hierarchical timing wheel that indexes the slots
+ * of a MessageHeap by the time at which their messages expire.
+ *
+ * <p>
+ *     Level 0 has one bucket per millisecond, and every level above
+ *     has buckets 64 times wider than the level below. A slot sits
+ *     in the lowest level whose 64 buckets reach its expiry time and
+ *     moves down a level each time its bucket comes due, so scheduling,
+ *     cancelling and expiring a slot cost O(1) amortized. Buckets are
+ *     doubly linked lists threaded through primitive arrays.
+ * </p>
+ */
+class ExpiryWheel {
+    // Rep invariants:
+    //   size is the number of slots linked into buckets
+    //   every linked slot s has slots.expiry(s) > current and is reachable
+    //   from buckets[level[s] * SLOTS + bucket[s]]
+    //   a slot at level l > 0 has (expiry >>> 6l) > (current >>> 6l)
+    //   level[s] == NONE for every slot s that is not linked
+    // Abstraction function:
+    //   represents the set of linked slots, none of which has expired
+    //   at time current
+    // Thread safety argument:
+    //   not thread-safe; guarded by the lock of the owning TimeDelayQueue
+
+    private static final int NONE = MessageHeap.NONE;
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 4;
+
+    private final MessageHeap slots;
+    private final int[] buckets = new int[LEVELS * SLOTS];
+    private int[] level = new int[0];
+    private int[] bucket = new int[0];
+    private int[] prev = new int[0];
+    private int[] next = new int[0];
+    private long current;
+    private int size = 0;
+
+    /**
+     * @param slots the heap whose slots are scheduled
+     * @param now   the current time in milliseconds
+     */
+    ExpiryWheel(MessageHeap slots, long now) {
+        this.slots = slots;
+        current = now;
+        Arrays.fill(buckets, NONE);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * schedule a slot for expiry
+     *
+     * @param slot an allocated slot that is not scheduled
+     * @return false if the message in slot has already expired, and true otherwise
+     */
+    boolean schedule(int slot) {
+        if (slot >= level.length) {
+            grow(slots.capacity());
+        }
+        if (slots.expiry(slot) <= current) {
+            level[slot] = NONE;
+            return false;
+        }
+        place(slot);
+        size++;
+        return true;
+    }
+
+    /**
+     * cancel the expiry of a slot, if it is scheduled
+     *
+     * @param slot an allocated slot
+     */
+    void cancel(int slot) {
+        if (slot >= level.length || level[slot] == NONE) {
+            return;
+        }
+        int head = level[slot] * SLOTS + bucket[slot];
+        if (prev[slot] == NONE) {
+            buckets[head] = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        }
+        level[slot] = NONE;
+        size--;
+    }
+
+    /**
+     * advance the wheel to now and unschedule every slot that has expired
+     *
+     * @param now the current time in milliseconds
+     * @return the first expired slot, or NONE if no slot has expired;
+     * the others follow through nextExpired
+     */
+    int advance(long now) {
+        if (now <= current) {
+            return NONE;
+        }
+        long previous = current;
+        current = now;
+        int expired = NONE;
+        for (int l = LEVELS - 1; l >= 0; l--) {
+            int shift = BITS * l;
+            long from = previous >>> shift;
+            long to = now >>> shift;
+            long due = Math.min(to - from, SLOTS);
+            for (long k = 0; k < due; k++) {
+                int head = l * SLOTS + (int) ((to - k) & (SLOTS - 1));
+                int slot = buckets[head];
+                buckets[head] = NONE;
+                while (slot != NONE) {
+                    int following = next[slot];
+                    level[slot] = NONE;
+                    if (slots.expiry(slot) <= now) {
+                        next[slot] = expired;
+                        expired = slot;
+                        size--;
+                    } else {
+                        place(slot);
+                    }
+                    slot = following;
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @param slot an expired slot returned by advance or nextExpired
+     * @return the next expired slot, or NONE if there are no more
+     */
+    int nextExpired(int slot) {
+        return next[slot];
+    }
+
+    /** link slot into the lowest level whose buckets reach its expiry */
+    private void place(int slot) {
+        long expiry = slots.expiry(slot);
+        for (int l = 0; l < LEVELS; l++) {
+            int shift = BITS * l;
+            long b = expiry >>> shift;
+            long base = current >>> shift;
+            if (b - base < SLOTS || l == LEVELS - 1) {
+                // slots beyond the top level wait in its last bucket
+                b = Math.min(b, base + SLOTS - 1);
+                int index = (int) (b & (SLOTS - 1));
+                int head = l * SLOTS + index;
+                level[slot] = l;
+                bucket[slot] = index;
+                prev[slot] = NONE;
+                next[slot] = buckets[head];
+                if (next[slot] != NONE) {
+                    prev[next[slot]] = slot;
+                }
+                buckets[head] = slot;
+                return;
+            }
+        }
+    }
+
+    private void grow(int capacity) {
+        int old = level.length;
+        level = Arrays.copyOf(level, capacity);
+        bucket = Arrays.copyOf(bucket, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+        Arrays.fill(level, old, capacity, NONE);
+    }
+}
@@ -0,0 +1,289 @@
+package timedelayqueue;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * An IdWindow remembers the ids of the messages that are queued, and
+ * the ids of messages released from the queue over a recent time horizon,
+ * using a bounded amount of memory for the latter.
+ *
+ * <p>
+ *     Ids are kept as pairs of longs in open-addressing hash tables. The ids
+ *     of queued messages are kept exactly, in a table that grows with the
+ *     queue, so a queued id is never forgotten. Once released, an id moves to
+ *     one table per generation. Each generation covers horizon / (GENERATIONS - 1)
+ *     milliseconds; when the newest generation is older than that, the oldest
+ *     generation is cleared and becomes the newest. A released id is therefore
+ *     remembered for at least the horizon after it was released. If the newest
+ *     generation fills up before its time is over, it is rotated early, so
+ *     under sustained overload the effective horizon of released ids shrinks
+ *     instead of the memory growing.
+ * </p>
+ */
+class IdWindow {
+    // Rep invariants:
+    //   span > 0, 4 <= maxCapacity, maxCapacity is a power of two
+    //   msbs.length == lsbs.length == zeros.length == starts.length == GENERATIONS
+    //   msbs[g].length == lsbs[g].length is a power of two <= maxCapacity
+    //   sizes[g] <= msbs[g].length * 3 / 4
+    //   starts[newest] >= starts[g] for every generation g
+    //   queuedMsbs.length == queuedLsbs.length is a power of two >= 16,
+    //   queuedSize <= queuedMsbs.length * 3 / 4, and no queued id is in a generation
+    //   an id in the queued table sits at or after its hash slot with no
+    //   free slot in between, as linear probing requires
+    // Abstraction function:
+    //   represents the queued ids, those (queuedMsbs[i], queuedLsbs[i]) with
+    //   slot i in use plus the zero id if zeroQueued, and the released ids,
+    //   those (msbs[g][i], lsbs[g][i]) with slot i in use in any generation g
+    //   plus the zero id in every generation g with zeros[g]
+    //   a slot is in use iff it does not hold the pair (0, 0)
+    // Thread safety argument:
+    //   not thread-safe; guarded by the lock of the owning TimeDelayQueue
+
+    /** the default horizon, in milliseconds, over which duplicates are detected */
+    static final long DEFAULT_HORIZON = 24L * 60 * 60 * 1000;
+
+    /** the default maximum number of table slots per generation */
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int GENERATIONS = 4;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NOT_FOUND = -1;
+
+    private final long span;
+    private final int maxCapacity;
+    private final long[][] msbs = new long[GENERATIONS][];
+    private final long[][] lsbs = new long[GENERATIONS][];
+    private final boolean[] zeros = new boolean[GENERATIONS];
+    private final int[] sizes = new int[GENERATIONS];
+    private final long[] starts = new long[GENERATIONS];
+    private int newest = 0;
+    private long[] queuedMsbs = new long[INITIAL_CAPACITY];
+    private long[] queuedLsbs = new long[INITIAL_CAPACITY];
+    private int queuedSize = 0;
+    private boolean zeroQueued = false;
+
+    /**
+     * Create a new IdWindow
+     *
+     * @param horizon     the time, in milliseconds, for which an id is remembered, > 0
+     * @param maxCapacity the maximum number of table slots per generation, > 0;
+     *                    rounded up to a power of two of at least 4
+     * @param now         the current time in milliseconds
+     * throws IllegalArgumentException if horizon or maxCapacity is out of range
+     */
+    IdWindow(long horizon, int maxCapacity, long now) {
+        if (horizon <= 0 || maxCapacity <= 0 || maxCapacity > 1 << 30) {
+            throw new IllegalArgumentException();
+        }
+        this.span = Math.max(1, horizon / (GENERATIONS - 1));
+        int capacity = Integer.highestOneBit(maxCapacity);
+        // a table always keeps a free slot, so probing terminates
+        this.maxCapacity = Math.max(4, capacity < maxCapacity ? capacity << 1 : capacity);
+        for (int g = 0; g < GENERATIONS; g++) {
+            reset(g, now);
+        }
+    }
+
+    /**
+     * add the id of a message being queued to the window
+     *
+     * @param id  the id to add
+     * @param now the current time in milliseconds
+     * @return true if id is neither queued nor was released within
+     * the horizon, and false otherwise
+     */
+    boolean add(UUID id, long now) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        rotate(now);
+        if (isQueued(msb, lsb) || contains(msb, lsb)) {
+            return false;
+        }
+        if (msb == 0 && lsb == 0) {
+            zeroQueued = true;
+            return true;
+        }
+        if (queuedSize + 1 > queuedMsbs.length * 3 / 4) {
+            long[] m = queuedMsbs;
+            long[] l = queuedLsbs;
+            queuedMsbs = new long[2 * m.length];
+            queuedLsbs = new long[2 * m.length];
+            for (int i = 0; i < m.length; i++) {
+                if (m[i] != 0 || l[i] != 0) {
+                    insert(queuedMsbs, queuedLsbs, m[i], l[i]);
+                }
+            }
+        }
+        insert(queuedMsbs, queuedLsbs, msb, lsb);
+        queuedSize++;
+        return true;
+    }
+
+    /**
+     * @return true if some id is queued
+     */
+    boolean hasQueued() {
+        return queuedSize > 0 || zeroQueued;
+    }
+
+    /**
+     * release the id of a message that has left the queue, so that it
+     * is remembered for the horizon from now on
+     *
+     * @param id  the id of the message
+     * @param now the current time in milliseconds
+     */
+    void release(UUID id, long now) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        rotate(now);
+        if (msb == 0 && lsb == 0) {
+            if (zeroQueued) {
+                zeroQueued = false;
+                zeros[newest] = true;
+            }
+            return;
+        }
+        if (!removeQueued(msb, lsb)) {
+            return;
+        }
+        if (sizes[newest] + 1 > msbs[newest].length * 3 / 4) {
+            if (msbs[newest].length < maxCapacity) {
+                resize(newest, msbs[newest].length * 2);
+            } else {
+                advance(now);
+            }
+        }
+        insert(msbs[newest], lsbs[newest], msb, lsb);
+        sizes[newest]++;
+    }
+
+    /**
+     * @return the number of long slots currently allocated, for reporting
+     */
+    long footprint() {
+        long slots = 2L * queuedMsbs.length;
+        for (int g = 0; g < GENERATIONS; g++) {
+            slots += 2L * msbs[g].length;
+        }
+        return slots;
+    }
+
+    private boolean contains(long msb, long lsb) {
+        for (int g = 0; g < GENERATIONS; g++) {
+            if (msb == 0 && lsb == 0) {
+                if (zeros[g]) {
+                    return true;
+                }
+                continue;
+            }
+            long[] m = msbs[g];
+            long[] l = lsbs[g];
+            int mask = m.length - 1;
+            for (int i = hash(msb, lsb) & mask; m[i] != 0 || l[i] != 0; i = (i + 1) & mask) {
+                if (m[i] == msb && l[i] == lsb) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isQueued(long msb, long lsb) {
+        if (msb == 0 && lsb == 0) {
+            return zeroQueued;
+        }
+        return find(queuedMsbs, queuedLsbs, msb, lsb) != NOT_FOUND;
+    }
+
+    /** remove a non-zero id from the queued table, shifting back the ids probed past it */
+    private boolean removeQueued(long msb, long lsb) {
+        long[] m = queuedMsbs;
+        long[] l = queuedLsbs;
+        int mask = m.length - 1;
+        int hole = find(m, l, msb, lsb);
+        if (hole == NOT_FOUND) {
+            return false;
+        }
+        for (int i = (hole + 1) & mask; m[i] != 0 || l[i] != 0; i = (i + 1) & mask) {
+            int home = hash(m[i], l[i]) & mask;
+            // move the id at i into the hole unless its home lies cyclically in (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                m[hole] = m[i];
+                l[hole] = l[i];
+                hole = i;
+            }
+        }
+        m[hole] = 0;
+        l[hole] = 0;
+        queuedSize--;
+        return true;
+    }
+
+    private static int find(long[] m, long[] l, long msb, long lsb) {
+        int mask = m.length - 1;
+        for (int i = hash(msb, lsb) & mask; m[i] != 0 || l[i] != 0; i = (i + 1) & mask) {
+            if (m[i] == msb && l[i] == lsb) {
+                return i;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static void insert(long[] m, long[] l, long msb, long lsb) {
+        int mask = m.length - 1;
+        int i = hash(msb, lsb) & mask;
+        while (m[i] != 0 || l[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        m[i] = msb;
+        l[i] = lsb;
+    }
+
+    private void resize(int g, int capacity) {
+        long[] m = msbs[g];
+        long[] l = lsbs[g];
+        msbs[g] = new long[capacity];
+        lsbs[g] = new long[capacity];
+        for (int i = 0; i < m.length; i++) {
+            if (m[i] != 0 || l[i] != 0) {
+                insert(msbs[g], lsbs[g], m[i], l[i]);
+            }
+        }
+    }
+
+    /** start a new generation if the newest one has covered its span */
+    private void rotate(long now) {
+        if (now - starts[newest] >= span) {
+            advance(now);
+        }
+    }
+
+    /** clear the oldest generation and make it the newest */
+    private void advance(long now) {
+        newest = (newest + 1) % GENERATIONS;
+        reset(newest, now);
+    }
+
+    private void reset(int g, long now) {
+        if (msbs[g] == null) {
+            int capacity = Math.min(INITIAL_CAPACITY, maxCapacity);
+            msbs[g] = new long[capacity];
+            lsbs[g] = new long[capacity];
+        } else {
+            // keep the tables that were grown, so rotation does not allocate
+            Arrays.fill(msbs[g], 0);
+            Arrays.fill(lsbs[g], 0);
+        }
+        zeros[g] = false;
+        sizes[g] = 0;
+        starts[g] = now;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = (msb ^ Long.rotateLeft(lsb, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
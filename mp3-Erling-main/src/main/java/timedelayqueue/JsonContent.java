@@ -0,0 +1,140 @@
+package timedelayqueue;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * JsonContent reads single fields of the JSON content of a message
+ * without parsing the whole content.
+ *
+ * <p>
+ *     A field is named by a path of member names, and of indexes for
+ *     arrays, such as ("entities", "hashtags", "0", "tag"). The content is
+ *     streamed through a JsonReader, which skips every value off the path
+ *     without building it and stops as soon as the field is found. For a
+ *     message stored in a MessageArena the content is read directly from
+ *     its encoded UTF-8 bytes, without creating the content String.
+ * </p>
+ */
+public final class JsonContent {
+
+    private JsonContent() {
+    }
+
+    /**
+     * Get a field of the content of msg as text
+     *
+     * @param msg  a message whose content is JSON
+     * @param path the member names and array indexes leading to the field
+     * @return the value of a string field, the text of a number or boolean
+     * field, the JSON text of an object or array field, and null if there is
+     * no such field or its value is null
+     * throws JsonSyntaxException if the content is not valid JSON up to the field
+     */
+    public static String getString(PubSubMessage msg, String... path) {
+        try (JsonReader reader = new JsonReader(msg.contentReader())) {
+            if (!seek(reader, path)) {
+                return null;
+            }
+            switch (reader.peek()) {
+                case NULL:
+                    return null;
+                case BOOLEAN:
+                    return Boolean.toString(reader.nextBoolean());
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    return JsonParser.parseReader(reader).toString();
+                default:
+                    // strings and numbers
+                    return reader.nextString();
+            }
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Get a field of the content of msg as a tree, building only
+     * the part of the tree under the field
+     *
+     * @param msg  a message whose content is JSON
+     * @param path the member names and array indexes leading to the field
+     * @return the value of the field, or null if there is no such field
+     * throws JsonSyntaxException if the content is not valid JSON up to the field
+     */
+    public static JsonElement getElement(PubSubMessage msg, String... path) {
+        try (JsonReader reader = new JsonReader(msg.contentReader())) {
+            if (!seek(reader, path)) {
+                return null;
+            }
+            return JsonParser.parseReader(reader);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Check whether the content of msg has a field
+     *
+     * @param msg  a message whose content is JSON
+     * @param path the member names and array indexes leading to the field
+     * @return true if the field exists, even with a null value
+     * throws JsonSyntaxException if the content is not valid JSON up to the field
+     */
+    public static boolean has(PubSubMessage msg, String... path) {
+        try (JsonReader reader = new JsonReader(msg.contentReader())) {
+            return seek(reader, path);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * advance reader to the value at path
+     *
+     * @return true if reader is positioned at the value, and false if there is none
+     */
+    private static boolean seek(JsonReader reader, String[] path) throws IOException {
+        for (String name : path) {
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                boolean found = false;
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals(name)) {
+                        found = true;
+                        break;
+                    }
+                    reader.skipValue();
+                }
+                if (!found) {
+                    return false;
+                }
+            } else if (token == JsonToken.BEGIN_ARRAY) {
+                int index;
+                try {
+                    index = Integer.parseInt(name);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                reader.beginArray();
+                for (int i = 0; i < index && reader.hasNext(); i++) {
+                    reader.skipValue();
+                }
+                if (index < 0 || !reader.hasNext()) {
+                    return false;
+                }
+            } else {
+                // a primitive has no fields; check that it is well formed
+                reader.skipValue();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+package timedelayqueue;
+
+/**
+ * A LatencyHistogram counts non-negative latencies in log-linear buckets,
+ * so that percentiles can be read without keeping every sample.
+ *
+ * <p>
+ *     Latencies below 2^SUB_BITS milliseconds have a bucket each; above
+ *     that, every power of two is split into 2^SUB_BITS buckets, so a
+ *     percentile is reported within about 3% of the true latency. Recording
+ *     never allocates, and the histogram takes a fixed 15 KiB.
+ * </p>
+ */
+public class LatencyHistogram {
+    // Rep invariants:
+    //   count is the sum of counts, max >= 0
+    //   max is the largest latency recorded, or 0 if count == 0
+    // Abstraction function:
+    //   represents the multiset of latencies recorded, each known
+    //   up to the range of values of its bucket
+    // Thread safety argument:
+    //   not thread-safe; guarded by the lock of its owner, such as a TimeDelayQueue
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB + (Long.SIZE - 1 - SUB_BITS) * SUB;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long max = 0;
+
+    /**
+     * record one latency
+     *
+     * @param latency the latency in milliseconds; negative latencies count as 0
+     */
+    public void record(long latency) {
+        long value = Math.max(0, latency);
+        counts[bucket(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile to read, 0 <= percentile <= 100
+     * @return the least latency, to the precision of the buckets, not exceeded
+     * by percentile percent of the latencies recorded, or 0 if none were
+     * throws IllegalArgumentException if percentile is out of range
+     */
+    public long percentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException();
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return Math.min(highest(b), max);
+            }
+        }
+        return max;
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB - 1);
+        return SUB + (exponent - SUB_BITS) * SUB + sub;
+    }
+
+    /** the largest value counted in bucket b */
+    private static long highest(int b) {
+        if (b < SUB) {
+            return b;
+        }
+        int exponent = (b - SUB) / SUB + SUB_BITS;
+        long sub = (b - SUB) % SUB;
+        long low = (1L << exponent) | (sub << (exponent - SUB_BITS));
+        return low + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
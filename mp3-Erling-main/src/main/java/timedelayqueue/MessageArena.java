@@ -0,0 +1,473 @@
+package timedelayqueue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A MessageArena stores encoded messages outside the Java heap and
+ * names each one by a 64-bit handle.
+ *
+ * <p>
+ *     Messages are encoded by a MessageCodec into large chunks, either
+ *     direct buffers or memory-mapped files, and appended one after the
+ *     other, so a stored message costs its encoded size and no Java
+ *     objects. A handle holds the number of its chunk in the upper 32
+ *     bits and the offset in the lower 32 bits. view(handle) returns a
+ *     flyweight PubSubMessage that decodes each field when it is read.
+ * </p>
+ *
+ * <p>
+ *     A message may be stored with several references, for example one
+ *     per receiver of a message delivered to many queues, and is only
+ *     released when every reference has been released. Chunks are never
+ *     written again once full. When every message of a full chunk has
+ *     been released, the arena drops the chunk and its memory is reclaimed
+ *     once no view refers to it any more, so a view stays readable after
+ *     its handle is released.
+ * </p>
+ *
+ * <p>
+ *     A few long-lived messages, such as those queued for a user who
+ *     never reads them, would otherwise keep whole chunks alive. When no
+ *     more than a quarter of the bytes of a full chunk are still in use,
+ *     the arena copies the messages left in it to the current chunk and
+ *     drops its buffer, keeping only a table from the old offsets to the
+ *     new handles, so handles held elsewhere stay valid. Each chunk is
+ *     compacted at most once, so the bytes copied are at most a third of
+ *     the bytes stored, and the chunks held stay within about four times
+ *     the bytes of the messages stored.
+ * </p>
+ *
+ * <p>
+ *     Messages are spread by id over stripes, each with its own chunks
+ *     and lock, so callers storing and releasing different messages
+ *     mostly take different locks; a stripe numbers its chunks so that
+ *     a chunk number names its stripe, and compacts only into its own
+ *     chunks. The content of a message shared through a PayloadStore is
+ *     acquired, and deflated, before the lock of the stripe is taken, and
+ *     released after it is let go.
+ * </p>
+ */
+public class MessageArena {
+    // Rep invariants:
+    //   codec != null, chunkSize > 0, stripes.length is a power of two
+    //   for every stripe s, s.current != null and s.current is in s.chunks
+    //   s.chunks maps c.number to c for every chunk c of s that is current
+    //   or holds, or forwards to, a message that has not been released, and
+    //   c.number & (stripes.length - 1) == s.index for each of them
+    //   every message is preceded in its chunk by two ints, its encoded
+    //   length and its count of references not released, which is > 0
+    //   while it is stored
+    //   for every chunk c, c.live is the number of its messages not released,
+    //   and c.liveBytes the bytes they take with their headers
+    //   c.buf == null iff c was compacted; then c.from holds, in increasing
+    //   order, the offsets of the messages it held when it was compacted,
+    //   and c.to[i] the handle, in the same stripe, the message at c.from[i]
+    //   was copied to
+    //   bytes of every chunk before its position, other than reference
+    //   counts, are never written again
+    // Abstraction function:
+    //   represents the map from handle (c.number << 32 | offset) to the
+    //   message encoded at offset in chunk c, or to the message its
+    //   forwarding handle names if c was compacted, for every message
+    //   stored and not yet released
+    // Thread safety argument:
+    //   every method of a stripe, which alone reads or writes its chunks,
+    //   current, nextChunk, live and reference counts, is synchronized on
+    //   the stripe; codec is thread-safe; views read their chunk with
+    //   absolute gets only, and never read reference counts, so a view of
+    //   a message that is moved keeps reading the buffer it was made from
+
+    /** the default size of a chunk in bytes */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /** a full chunk is compacted once no more than 1 / COMPACT_RATIO of it is in use */
+    private static final int COMPACT_RATIO = 4;
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    private final MessageCodec codec;
+    private final int chunkSize;
+    private final Path directory;
+    private final Stripe[] stripes;
+
+    /**
+     * Create a new MessageArena of direct buffers
+     * for the basic message types
+     */
+    public MessageArena() {
+        this(new MessageCodec());
+    }
+
+    /**
+     * Create a new MessageArena of direct buffers
+     *
+     * @param codec the codec that encodes the stored messages; with a
+     *              PayloadStore, equal contents are stored once
+     */
+    public MessageArena(MessageCodec codec) {
+        this(codec, DEFAULT_CHUNK_SIZE, null);
+    }
+
+    /**
+     * Create a new MessageArena with one stripe
+     *
+     * @param codec     the codec that encodes the stored messages
+     * @param chunkSize the size of a chunk in bytes, > 0; a message larger
+     *                  than a chunk gets a chunk of its own
+     * @param directory the directory in which to map chunks from files, or
+     *                  null to allocate chunks as direct buffers; the files
+     *                  are deleted as soon as they are mapped
+     * throws IllegalArgumentException if chunkSize <= 0
+     * throws UncheckedIOException if the first chunk cannot be mapped
+     */
+    public MessageArena(MessageCodec codec, int chunkSize, Path directory) {
+        this(codec, chunkSize, directory, 1);
+    }
+
+    /**
+     * Create a new MessageArena
+     *
+     * @param codec     the codec that encodes the stored messages
+     * @param chunkSize the size of a chunk in bytes, > 0; a message larger
+     *                  than a chunk gets a chunk of its own
+     * @param directory the directory in which to map chunks from files, or
+     *                  null to allocate chunks as direct buffers; the files
+     *                  are deleted as soon as they are mapped
+     * @param stripes   the least number of stripes, > 0 and <= 2^16; rounded
+     *                  up to a power of two, each holding a chunk from the start
+     * throws IllegalArgumentException if chunkSize or stripes is out of range
+     * throws UncheckedIOException if the first chunks cannot be mapped
+     */
+    public MessageArena(MessageCodec codec, int chunkSize, Path directory, int stripes) {
+        if (chunkSize <= 0 || stripes <= 0 || stripes > 1 << 16) {
+            throw new IllegalArgumentException();
+        }
+        this.codec = codec;
+        this.chunkSize = chunkSize;
+        this.directory = directory;
+        this.stripes = new Stripe[stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(i);
+        }
+    }
+
+    /**
+     * store a message in the arena with one reference
+     *
+     * @param msg the message, whose type is known to the codec of this arena
+     * @return the handle of the stored message
+     * throws UncheckedIOException if a new chunk cannot be mapped
+     */
+    public long store(PubSubMessage msg) {
+        return store(msg, 1);
+    }
+
+    /**
+     * store a message in the arena once for several holders
+     *
+     * @param msg  the message, whose type is known to the codec of this arena
+     * @param refs the number of references to the message, > 0; the message
+     *             stays stored until release has been called refs times
+     * @return the handle of the stored message
+     * throws IllegalArgumentException if refs <= 0
+     * throws UncheckedIOException if a new chunk cannot be mapped
+     */
+    public long store(PubSubMessage msg, int refs) {
+        if (refs <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int hash = msg.getId().hashCode();
+        Stripe stripe = stripes[(hash ^ hash >>> 16) & (stripes.length - 1)];
+        long payload = codec.acquirePayload(msg);
+        try {
+            return stripe.store(msg, refs, payload);
+        } catch (RuntimeException e) {
+            if (payload != MessageCodec.NO_PAYLOAD) {
+                codec.releasePayload(payload);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get a view of a stored message
+     *
+     * @param handle the handle of a message that has not been released
+     * @return a message whose fields are read from the arena
+     * throws IllegalArgumentException if handle names no stored message
+     */
+    public PubSubMessage view(long handle) {
+        ArenaRecord record = stripe(handle).record(handle);
+        return record.isTransient() ? new TransientArenaMessage(record) : new ArenaMessage(record);
+    }
+
+    /**
+     * release one reference to a stored message, and release the message
+     * if it was the last one; views of the message remain readable
+     *
+     * @param handle the handle of a message that has not been released
+     * throws IllegalArgumentException if handle names no stored message
+     */
+    public void release(long handle) {
+        long payload = stripe(handle).release(handle);
+        if (payload != MessageCodec.NO_PAYLOAD) {
+            codec.releasePayload(payload);
+        }
+    }
+
+    /**
+     * @return the number of messages stored and not released
+     */
+    public int size() {
+        int live = 0;
+        for (Stripe stripe : stripes) {
+            live += stripe.size();
+        }
+        return live;
+    }
+
+    /**
+     * @return the number of bytes of the chunks held by the arena
+     */
+    public long footprint() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.footprint();
+        }
+        return bytes;
+    }
+
+    /** the stripe whose chunk a handle names */
+    private Stripe stripe(long handle) {
+        return stripes[(int) (handle >>> 32) & (stripes.length - 1)];
+    }
+
+    private static boolean isSparse(Chunk chunk) {
+        return chunk.buf != null && (long) chunk.liveBytes * COMPACT_RATIO <= chunk.buf.capacity();
+    }
+
+    /** the chunks of the messages stored in one stripe, numbered index, index + stripes.length, ... */
+    private final class Stripe {
+        private final int index;
+        private final Map<Integer, Chunk> chunks = new HashMap<>();
+        private Chunk current;
+        private int nextChunk;
+        private int live = 0;
+
+        /**
+         * Create a new Stripe with a first chunk
+         *
+         * @param index the index of the stripe in stripes
+         * throws UncheckedIOException if the first chunk cannot be mapped
+         */
+        Stripe(int index) {
+            this.index = index;
+            this.nextChunk = index;
+            current = newChunk(chunkSize);
+        }
+
+        /**
+         * store a message with refs references
+         *
+         * @param payload the payload acquired for the content of msg, or NO_PAYLOAD
+         * @return the handle of the stored message
+         */
+        synchronized long store(PubSubMessage msg, int refs, long payload) {
+            int length = codec.encodedSize(msg, 0);
+            Chunk chunk = reserve(HEADER + length);
+            chunk.buf.putInt(length);
+            chunk.buf.putInt(refs);
+            int offset = chunk.buf.position();
+            codec.encode(msg, chunk.buf, 0, payload);
+            live++;
+            return (long) chunk.number << 32 | offset;
+        }
+
+        /**
+         * @return the record of the message named by handle
+         * throws IllegalArgumentException if handle names no stored message
+         */
+        synchronized ArenaRecord record(long handle) {
+            handle = resolve(handle);
+            return new ArenaRecord(chunks.get((int) (handle >>> 32)).buf, (int) handle, codec);
+        }
+
+        /**
+         * release one reference to the message named by handle
+         *
+         * @return the payload the message referred to if it was released,
+         * to be released outside the lock, or NO_PAYLOAD
+         * throws IllegalArgumentException if handle names no stored message
+         */
+        synchronized long release(long handle) {
+            long stored = resolve(handle);
+            Chunk chunk = chunks.get((int) (stored >>> 32));
+            int offset = (int) stored;
+            int refs = chunk.buf.getInt(offset - Integer.BYTES) - 1;
+            chunk.buf.putInt(offset - Integer.BYTES, refs);
+            if (refs > 0) {
+                return MessageCodec.NO_PAYLOAD;
+            }
+            ArenaRecord record = new ArenaRecord(chunk.buf, offset, codec);
+            long payload = record.hasPayload() ? record.payloadId() : MessageCodec.NO_PAYLOAD;
+            live--;
+            // every compacted chunk on the way forwarded one message fewer
+            while (handle != stored) {
+                Chunk stub = chunks.get((int) (handle >>> 32));
+                handle = stub.to[Arrays.binarySearch(stub.from, (int) handle)];
+                if (--stub.live == 0) {
+                    chunks.remove(stub.number);
+                }
+            }
+            chunk.live--;
+            chunk.liveBytes -= HEADER + chunk.buf.getInt(offset - HEADER);
+            if (chunk != current) {
+                if (chunk.live == 0) {
+                    chunks.remove(chunk.number);
+                } else if (isSparse(chunk)) {
+                    compact(chunk);
+                }
+            }
+            return payload;
+        }
+
+        synchronized int size() {
+            return live;
+        }
+
+        synchronized long footprint() {
+            long bytes = 0;
+            for (Chunk chunk : chunks.values()) {
+                if (chunk.buf != null) {
+                    bytes += chunk.buf.capacity();
+                } else {
+                    bytes += (long) chunk.from.length * (Integer.BYTES + Long.BYTES);
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * follow the forwarding tables of compacted chunks from handle
+         *
+         * @return the handle at which the message named by handle is encoded
+         * throws IllegalArgumentException if handle names no stored message
+         */
+        private long resolve(long handle) {
+            while (true) {
+                Chunk chunk = chunks.get((int) (handle >>> 32));
+                int offset = (int) handle;
+                if (chunk == null) {
+                    throw new IllegalArgumentException();
+                }
+                if (chunk.buf == null) {
+                    int i = Arrays.binarySearch(chunk.from, offset);
+                    if (i < 0) {
+                        throw new IllegalArgumentException();
+                    }
+                    handle = chunk.to[i];
+                    continue;
+                }
+                if (offset < HEADER || offset >= chunk.buf.position()
+                    || chunk.buf.getInt(offset - Integer.BYTES) <= 0) {
+                    throw new IllegalArgumentException();
+                }
+                return handle;
+            }
+        }
+
+        /**
+         * make room for size bytes in the current chunk, starting a
+         * new one if needed, and count them as one more live message
+         *
+         * @return the current chunk, with at least size bytes remaining
+         */
+        private Chunk reserve(int size) {
+            if (current.buf.remaining() < size) {
+                Chunk full = current;
+                current = newChunk(Math.max(chunkSize, size));
+                if (full.live == 0) {
+                    chunks.remove(full.number);
+                } else if (isSparse(full)) {
+                    compact(full);
+                }
+            }
+            current.live++;
+            current.liveBytes += size;
+            return current;
+        }
+
+        /**
+         * copy the messages still stored in a full chunk to the current
+         * chunk, with their reference counts, and drop the chunk's buffer
+         */
+        private void compact(Chunk chunk) {
+            ByteBuffer buf = chunk.buf;
+            int[] from = new int[chunk.live];
+            long[] to = new long[chunk.live];
+            int moved = 0;
+            for (int at = 0; at < buf.position(); ) {
+                int size = HEADER + buf.getInt(at);
+                if (buf.getInt(at + Integer.BYTES) > 0) {
+                    Chunk target = reserve(size);
+                    int start = target.buf.position();
+                    target.buf.put(start, buf, at, size);
+                    target.buf.position(start + size);
+                    from[moved] = at + HEADER;
+                    to[moved] = (long) target.number << 32 | (start + HEADER);
+                    moved++;
+                }
+                at += size;
+            }
+            chunk.buf = null;
+            chunk.from = from;
+            chunk.to = to;
+        }
+
+        private Chunk newChunk(int capacity) {
+            ByteBuffer buf;
+            if (directory == null) {
+                buf = ByteBuffer.allocateDirect(capacity);
+            } else {
+                try {
+                    Path file = Files.createTempFile(directory, "arena", ".chunk");
+                    try (FileChannel channel = FileChannel.open(file,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        // the mapping outlives the channel and the file name
+                        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                    } finally {
+                        Files.delete(file);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            Chunk chunk = new Chunk(nextChunk, buf);
+            nextChunk += stripes.length;
+            chunks.put(chunk.number, chunk);
+            return chunk;
+        }
+    }
+
+    private static final class Chunk {
+        private final int number;
+        private ByteBuffer buf;
+        private int live = 0;
+        private int liveBytes = 0;
+        private int[] from;
+        private long[] to;
+
+        private Chunk(int number, ByteBuffer buf) {
+            this.number = number;
+            this.buf = buf;
+        }
+    }
+}
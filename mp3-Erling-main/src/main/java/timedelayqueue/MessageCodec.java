@@ -0,0 +1,536 @@
+package timedelayqueue;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A MessageCodec writes PubSubMessages to ByteBuffers in a compact,
+ * versioned binary form and reads them back.
+ *
+ * <p>
+ *     An encoded message is laid out as
+ *     <pre>
+ *     version   1 byte, VERSION
+ *     flags     1 byte, TRANSIENT if the message is transient,
+ *               and PAYLOAD if the content is held by a PayloadStore
+ *     id        2 longs, most significant first
+ *     timestamp zigzag varint, milliseconds after a base time
+ *     sender    2 longs
+ *     type      varint, the index of the type in the codec's type table
+ *     receivers varint count, then 2 longs per receiver
+ *     content   varint byte length, then the content in UTF-8,
+ *               or, with PAYLOAD, a long: the id of the content
+ *     lifetime  varint, only if the message is transient
+ *     </pre>
+ *     The base time is chosen by the caller. Encoding consecutive messages
+ *     of a stream against the timestamp of the previous one keeps each
+ *     timestamp to one or two bytes; a base of 0 makes every message
+ *     self-contained. Messages are read and written directly in the
+ *     buffer, without intermediate byte arrays, and the byte order of
+ *     the buffer is ignored.
+ * </p>
+ *
+ * <p>
+ *     A codec with a PayloadStore writes every content of at least
+ *     MIN_SHARED bytes as a reference to its copy in the store, taking a
+ *     reference to the payload for each message encoded; whoever discards
+ *     the encoding gives the reference back with releasePayload.
+ * </p>
+ */
+public class MessageCodec {
+    // Rep invariants:
+    //   types != null, types.length > 0, and no element is null or repeated
+    // Abstraction function:
+    //   represents the encoding in which type types[i] is written as i,
+    //   and content is written to payloads if payloads != null
+    // Thread safety argument:
+    //   types is never modified after construction, and payloads is null
+    //   or thread-safe, so a codec may be shared by any number of threads
+
+    /** the version of the encoding written by this codec */
+    public static final byte VERSION = 1;
+
+    /** the flag of a transient message */
+    static final int TRANSIENT = 1;
+
+    /** the flag of a message whose content is held by a PayloadStore */
+    static final int PAYLOAD = 2;
+
+    /** the id of no payload, returned by acquirePayload for a content kept in the encoding */
+    static final long NO_PAYLOAD = -1;
+
+    /** the smallest content, in bytes of UTF-8, written to a PayloadStore */
+    public static final int MIN_SHARED = 16;
+
+    private static final int UUID_BYTES = 2 * Long.BYTES;
+
+    private final MessageType[] types;
+    private final PayloadStore payloads;
+
+    /**
+     * Create a new MessageCodec for the basic message types
+     */
+    public MessageCodec() {
+        this(BasicMessageType.values());
+    }
+
+    /**
+     * Create a new MessageCodec
+     *
+     * @param types every message type that may be encoded, in a fixed order
+     *              that encoder and decoder agree on; new types may only be
+     *              appended, so that existing encodings stay readable
+     * throws IllegalArgumentException if types is empty or has duplicates
+     */
+    public MessageCodec(MessageType... types) {
+        this(null, types);
+    }
+
+    /**
+     * Create a new MessageCodec for the basic message types
+     * that shares content through payloads
+     *
+     * @param payloads the store that holds the content of encoded messages
+     */
+    public MessageCodec(PayloadStore payloads) {
+        this(payloads, BasicMessageType.values());
+    }
+
+    /**
+     * Create a new MessageCodec
+     *
+     * @param payloads the store that holds the content of encoded messages,
+     *                 or null to write content into the encoding
+     * @param types    every message type that may be encoded, in a fixed order
+     *                 that encoder and decoder agree on
+     * throws IllegalArgumentException if types is empty or has duplicates
+     */
+    public MessageCodec(PayloadStore payloads, MessageType... types) {
+        if (types.length == 0 || Arrays.stream(types).distinct().count() != types.length) {
+            throw new IllegalArgumentException();
+        }
+        this.types = types.clone();
+        this.payloads = payloads;
+    }
+
+    /**
+     * Get the number of bytes that encode(msg, base) writes
+     *
+     * @param msg  the message, whose type is known to this codec
+     * @param base the base time in milliseconds
+     * @return the size of the encoding of msg in bytes
+     */
+    public int encodedSize(PubSubMessage msg, long base) {
+        return encodedSize(msg, msg.getReceiver(), utf8Length(msg.getContent()), base);
+    }
+
+    private int encodedSize(PubSubMessage msg, List<UUID> receivers, int length, long base) {
+        int size = 2 + UUID_BYTES
+            + varintSize(zigzag(msg.getTimestampMillis() - base))
+            + UUID_BYTES
+            + varintSize(typeIndex(msg.getType()))
+            + varintSize(receivers.size()) + receivers.size() * UUID_BYTES
+            + (shared(length) ? Long.BYTES : varintSize(length) + length);
+        if (msg.isTransient()) {
+            size += varintSize(msg.lifetime());
+        }
+        return size;
+    }
+
+    /**
+     * write msg to buf at its position, and advance the position
+     * past the encoding
+     *
+     * @param msg  the message, whose type is known to this codec
+     * @param buf  the buffer to write to
+     * @param base the base time in milliseconds
+     * @return the number of bytes written
+     * throws BufferOverflowException, without writing anything,
+     * if buf has fewer than encodedSize(msg, base) bytes remaining
+     * throws IllegalArgumentException if the type of msg is unknown to this codec
+     */
+    public int encode(PubSubMessage msg, ByteBuffer buf, long base) {
+        return encode(msg, buf, base, NO_PAYLOAD);
+    }
+
+    /**
+     * write msg to buf at its position, referring to a payload already
+     * acquired for its content, and advance the position past the encoding
+     *
+     * @param msg     the message, whose type is known to this codec
+     * @param buf     the buffer to write to
+     * @param base    the base time in milliseconds
+     * @param payload the id returned by acquirePayload(msg), whose reference
+     *                the encoding takes over, or NO_PAYLOAD to acquire one
+     * @return the number of bytes written
+     * throws BufferOverflowException, without writing anything,
+     * if buf has fewer than encodedSize(msg, base) bytes remaining
+     * throws IllegalArgumentException if the type of msg is unknown to this codec
+     */
+    int encode(PubSubMessage msg, ByteBuffer buf, long base, long payload) {
+        List<UUID> receivers = msg.getReceiver();
+        String content = msg.getContent();
+        int length = utf8Length(content);
+        int size = encodedSize(msg, receivers, length, base);
+        if (buf.remaining() < size) {
+            throw new BufferOverflowException();
+        }
+        buf.put(VERSION);
+        buf.put((byte) ((msg.isTransient() ? TRANSIENT : 0) | (shared(length) ? PAYLOAD : 0)));
+        putUuid(buf, msg.getId());
+        putVarint(buf, zigzag(msg.getTimestampMillis() - base));
+        putUuid(buf, msg.getSender());
+        putVarint(buf, typeIndex(msg.getType()));
+        putVarint(buf, receivers.size());
+        for (UUID receiver : receivers) {
+            putUuid(buf, receiver);
+        }
+        if (shared(length)) {
+            buf.putLong(payload != NO_PAYLOAD ? payload : payloads.acquire(content));
+        } else {
+            putVarint(buf, length);
+            putUtf8(buf, content);
+        }
+        if (msg.isTransient()) {
+            putVarint(buf, msg.lifetime());
+        }
+        return size;
+    }
+
+    /**
+     * write msg to buf with a base time of 0
+     *
+     * @param msg the message, whose type is known to this codec
+     * @param buf the buffer to write to
+     * @return the number of bytes written
+     * throws BufferOverflowException, without writing anything,
+     * if buf has too few bytes remaining
+     */
+    public int encode(PubSubMessage msg, ByteBuffer buf) {
+        return encode(msg, buf, 0);
+    }
+
+    /**
+     * read a message from buf at its position, and advance the
+     * position past the encoding
+     *
+     * @param buf  the buffer to read from
+     * @param base the base time in milliseconds that the message was encoded with
+     * @return the message
+     * throws BufferUnderflowException if buf ends before the encoding does
+     * throws IllegalArgumentException if the encoding is malformed, of another
+     * version, or names a type unknown to this codec
+     */
+    public PubSubMessage decode(ByteBuffer buf, long base) {
+        int version = buf.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported version " + version);
+        }
+        int flags = buf.get();
+        UUID id = getUuid(buf);
+        Timestamp timestamp = new Timestamp(base + unzigzag(getVarint(buf)));
+        UUID sender = getUuid(buf);
+        long type = getVarint(buf);
+        if (type < 0 || type >= types.length) {
+            throw new IllegalArgumentException("unknown type " + type);
+        }
+        int count = checkedLength(getVarint(buf), buf, UUID_BYTES);
+        List<UUID> receivers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            receivers.add(getUuid(buf));
+        }
+        String content;
+        if ((flags & PAYLOAD) != 0) {
+            content = payload(buf.getLong());
+        } else {
+            content = getUtf8(buf, checkedLength(getVarint(buf), buf, 1));
+        }
+        MessageType messageType = types[(int) type];
+        if ((flags & TRANSIENT) != 0) {
+            long lifetime = getVarint(buf);
+            if (lifetime != (int) lifetime) {
+                throw new IllegalArgumentException("lifetime out of range");
+            }
+            return new TransientPubSubMessage(id, timestamp, sender, receivers, content,
+                messageType, (int) lifetime);
+        }
+        return new PubSubMessage(id, timestamp, sender, receivers, content, messageType);
+    }
+
+    /**
+     * read a message that was encoded with a base time of 0
+     *
+     * @param buf the buffer to read from
+     * @return the message
+     * throws BufferUnderflowException if buf ends before the encoding does
+     * throws IllegalArgumentException if the encoding is malformed
+     */
+    public PubSubMessage decode(ByteBuffer buf) {
+        return decode(buf, 0);
+    }
+
+    /**
+     * take a reference to the payload that an encoding of msg refers
+     * to, so that it is hashed and deflated before encode is called
+     *
+     * @param msg the message
+     * @return the id of the payload holding the content of msg, or
+     * NO_PAYLOAD if its encoding holds the content itself
+     */
+    long acquirePayload(PubSubMessage msg) {
+        String content = msg.getContent();
+        return shared(utf8Length(content)) ? payloads.acquire(content) : NO_PAYLOAD;
+    }
+
+    private boolean shared(int length) {
+        return payloads != null && length >= MIN_SHARED;
+    }
+
+    /**
+     * @param id the id of a payload referenced by an encoding
+     * @return the content of the payload
+     * throws IllegalArgumentException if this codec has no payload store,
+     * or id names no payload in it
+     */
+    String payload(long id) {
+        if (payloads == null) {
+            throw new IllegalArgumentException("no payload store");
+        }
+        return payloads.get(id);
+    }
+
+    /**
+     * @param id the id of a payload referenced by an encoding
+     * @return the payload, whose content is only inflated when it is read
+     * throws IllegalArgumentException if this codec has no payload store,
+     * or id names no payload in it
+     */
+    PayloadStore.Payload payloadRef(long id) {
+        if (payloads == null) {
+            throw new IllegalArgumentException("no payload store");
+        }
+        return payloads.payload(id);
+    }
+
+    /**
+     * give back the reference to a payload taken when a message was encoded
+     *
+     * @param id the id of a payload referenced by a discarded encoding
+     */
+    void releasePayload(long id) {
+        payloadRef(id);
+        payloads.release(id);
+    }
+
+    /**
+     * @param index the index of a type in the type table, 0 <= index < the number of types
+     * @return the type written as index
+     */
+    MessageType type(int index) {
+        return types[index];
+    }
+
+    private int typeIndex(MessageType type) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == type) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown type " + type);
+    }
+
+    /** a length read from buf, which must fit in the rest of buf */
+    private static int checkedLength(long n, ByteBuffer buf, int unit) {
+        if (n < 0 || n > buf.remaining() / unit) {
+            throw new BufferUnderflowException();
+        }
+        return (int) n;
+    }
+
+    static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * @param n a number, read as unsigned
+     * @return the number of bytes that putVarint writes for n
+     */
+    public static int varintSize(long n) {
+        int size = 1;
+        while ((n & ~0x7FL) != 0) {
+            n >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * write n to buf at its position in 7-bit groups, least significant first
+     *
+     * @param buf the buffer to write to, with at least varintSize(n) bytes remaining
+     * @param n   a number, read as unsigned
+     */
+    public static void putVarint(ByteBuffer buf, long n) {
+        while ((n & ~0x7FL) != 0) {
+            buf.put((byte) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        buf.put((byte) n);
+    }
+
+    /**
+     * read a varint written by putVarint from buf at its position
+     *
+     * @param buf the buffer to read from
+     * @return the number
+     * throws BufferUnderflowException if buf ends before the varint does
+     * throws IllegalArgumentException if the varint is longer than 10 bytes
+     */
+    public static long getVarint(ByteBuffer buf) {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            n |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return n;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    /**
+     * read the varint at index without moving the position of buf;
+     * it occupies varintSize of the result bytes, as written by putVarint
+     */
+    static long getVarint(ByteBuffer buf, int index) {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get(index++);
+            n |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return n;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private static void putUuid(ByteBuffer buf, UUID id) {
+        buf.putLong(id.getMostSignificantBits());
+        buf.putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer buf) {
+        long msb = buf.getLong();
+        return new UUID(msb, buf.getLong());
+    }
+
+    /**
+     * @return the length of s in UTF-8, in which, as in String.getBytes,
+     * an unpaired surrogate is written as '?'
+     */
+    static int utf8Length(String s) {
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    length += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    length += 2;
+                }
+            }
+        }
+        return length;
+    }
+
+    private static void putUtf8(ByteBuffer buf, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | c >> 6));
+                buf.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf.put((byte) (0xF0 | cp >> 18));
+                buf.put((byte) (0x80 | cp >> 12 & 0x3F));
+                buf.put((byte) (0x80 | cp >> 6 & 0x3F));
+                buf.put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | c >> 12));
+                buf.put((byte) (0x80 | c >> 6 & 0x3F));
+                buf.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private static String getUtf8(ByteBuffer buf, int length) {
+        String s = getUtf8(buf, buf.position(), length);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    /**
+     * decode length bytes of UTF-8 starting at index, without moving
+     * the position of buf
+     */
+    static String getUtf8(ByteBuffer buf, int index, int length) {
+        if (buf.hasArray()) {
+            // decode straight from the backing array
+            return new String(buf.array(), buf.arrayOffset() + index, length, StandardCharsets.UTF_8);
+        }
+        char[] chars = new char[length];
+        int n = 0;
+        int i = index;
+        int end = index + length;
+        while (i < end) {
+            int b = buf.get(i++);
+            if (b >= 0) {
+                chars[n++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[n++] = (char) ((b & 0x1F) << 6 | continuation(buf, i++, end));
+            } else if ((b & 0xF0) == 0xE0) {
+                int c = (b & 0x0F) << 12 | continuation(buf, i++, end) << 6;
+                chars[n++] = (char) (c | continuation(buf, i++, end));
+            } else if ((b & 0xF8) == 0xF0) {
+                int cp = (b & 0x07) << 18 | continuation(buf, i++, end) << 12;
+                cp |= continuation(buf, i++, end) << 6;
+                cp |= continuation(buf, i++, end);
+                n += Character.toChars(cp, chars, n);
+            } else {
+                throw new IllegalArgumentException("malformed UTF-8");
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    private static int continuation(ByteBuffer buf, int index, int end) {
+        if (index >= end) {
+            throw new IllegalArgumentException("malformed UTF-8");
+        }
+        int b = buf.get(index);
+        if ((b & 0xC0) != 0x80) {
+            throw new IllegalArgumentException("malformed UTF-8");
+        }
+        return b & 0x3F;
+    }
+}
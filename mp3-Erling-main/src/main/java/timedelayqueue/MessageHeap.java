@@ -0,0 +1,344 @@
+package timedelayqueue;
+
+import java.util.Arrays;
+
+/**
+ * A MessageHeap is a set of binary min-heaps, one per lane, of queued
+ * messages ordered by timestamp and then insertion order.
+ *
+ * <p>
+ *     Every message lives in a numbered slot of parallel primitive arrays
+ *     holding its timestamp, sequence number and expiry time, and the heap
+ *     itself is an array of slot numbers. Ordering and removal therefore
+ *     never allocate, and any slot can be removed in logarithmic time.
+ *     Slots are recycled through a free list. A slot holds either a
+ *     message or the handle of a message stored in a MessageArena.
+ *     Every slot belongs to one lane; the lanes share the slots, so a
+ *     slot number names a message whichever lane holds it.
+ * </p>
+ */
+class MessageHeap {
+    // Rep invariants:
+    //   heaps.length == sizes.length >= 1
+    //   msgs.length == times.length == seqs.length == expiries.length
+    //     == positions.length, and sizes[l] <= heaps[l].length for every lane l
+    //   size is the sum of sizes
+    //   heaps[l][0..sizes[l]) are distinct slots s with positions[s] == i
+    //     for heaps[l][i], and with lane(s) == l
+    //   slot heaps[l][i] is not before slot heaps[l][(i - 1) / 2] for 0 < i < sizes[l]
+    //   lanes == null iff heaps.length == 1, and otherwise lanes.length == msgs.length
+    //   a slot s is in use iff it has been allocated and not freed since;
+    //   positions[s] == -1 for slots in use that have been removed from the heap
+    //   handles == null or handles.length == msgs.length
+    //   free slots are chained from freeSlot through positions
+    // Abstraction function:
+    //   represents, for every lane l, the multiset of messages held by the
+    //   slots heaps[l][0..sizes[l]), either msgs[s] or the message with
+    //   handle handles[s], the least of which is held by heaps[l][0]
+    // Thread safety argument:
+    //   not thread-safe; guarded by the lock of the owning TimeDelayQueue
+
+    static final int NONE = -1;
+
+    private final int[][] heaps;
+    private final int[] sizes;
+    private int[] lanes;
+    private PubSubMessage[] msgs = new PubSubMessage[16];
+    private long[] times = new long[16];
+    private long[] seqs = new long[16];
+    private long[] expiries = new long[16];
+    private int[] positions = new int[16];
+    private long[] handles = null;
+    private int size = 0;
+    private int used = 0;
+    private int freeSlot = NONE;
+    private long nextSeq = 0;
+
+    /**
+     * Create a new MessageHeap with one lane
+     */
+    MessageHeap() {
+        this(1);
+    }
+
+    /**
+     * Create a new MessageHeap
+     *
+     * @param laneCount the number of lanes, > 0
+     * throws IllegalArgumentException if laneCount <= 0
+     */
+    MessageHeap(int laneCount) {
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        heaps = new int[laneCount][16];
+        sizes = new int[laneCount];
+        lanes = laneCount == 1 ? null : new int[msgs.length];
+    }
+
+    /**
+     * @return the number of slots in all lanes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param lane a lane of this heap
+     * @return the number of slots in lane
+     */
+    int size(int lane) {
+        return sizes[lane];
+    }
+
+    /**
+     * @param lane a lane of this heap
+     * @param i    a position in the heap of lane, 0 <= i < size(lane)
+     * @return the slot at position i of the heap of lane
+     */
+    int slot(int lane, int i) {
+        return heaps[lane][i];
+    }
+
+    int laneCount() {
+        return heaps.length;
+    }
+
+    /**
+     * @return the number of slots allocated, a bound on every slot number
+     */
+    int capacity() {
+        return msgs.length;
+    }
+
+    /**
+     * @return the slot of the least message of all lanes,
+     * or NONE if every lane is empty
+     */
+    int peek() {
+        int least = NONE;
+        for (int l = 0; l < heaps.length; l++) {
+            if (sizes[l] > 0 && (least == NONE || before(heaps[l][0], least))) {
+                least = heaps[l][0];
+            }
+        }
+        return least;
+    }
+
+    /**
+     * @param lane a lane of this heap
+     * @return the slot of the least message of lane, or NONE if lane is empty
+     */
+    int peek(int lane) {
+        return sizes[lane] == 0 ? NONE : heaps[lane][0];
+    }
+
+    /**
+     * @param slot an allocated slot
+     * @return the lane of slot
+     */
+    int lane(int slot) {
+        return lanes == null ? 0 : lanes[slot];
+    }
+
+    PubSubMessage message(int slot) {
+        return msgs[slot];
+    }
+
+    /**
+     * @param slot a slot allocated with a handle
+     * @return the handle held by slot
+     */
+    long handle(int slot) {
+        return handles[slot];
+    }
+
+    long time(int slot) {
+        return times[slot];
+    }
+
+    long expiry(int slot) {
+        return expiries[slot];
+    }
+
+    /**
+     * take a slot for a message without adding it to the heap
+     *
+     * @param msg    the message
+     * @param time   the timestamp of msg in milliseconds
+     * @param expiry the time in milliseconds from which msg has expired,
+     *               Long.MAX_VALUE if msg never expires
+     * @return the slot of msg
+     */
+    int allocate(PubSubMessage msg, long time, long expiry) {
+        return allocate(msg, time, expiry, 0);
+    }
+
+    /**
+     * take a slot in a lane for a message without adding it to the heap
+     *
+     * @param msg    the message
+     * @param time   the timestamp of msg in milliseconds
+     * @param expiry the time in milliseconds from which msg has expired,
+     *               Long.MAX_VALUE if msg never expires
+     * @param lane   the lane of msg, a lane of this heap
+     * @return the slot of msg
+     */
+    int allocate(PubSubMessage msg, long time, long expiry, int lane) {
+        int slot = take(time, expiry, lane);
+        msgs[slot] = msg;
+        return slot;
+    }
+
+    /**
+     * take a slot for a message stored in a MessageArena
+     * without adding it to the heap
+     *
+     * @param handle the handle of the message
+     * @param time   the timestamp of the message in milliseconds
+     * @param expiry the time in milliseconds from which the message has
+     *               expired, Long.MAX_VALUE if it never expires
+     * @return the slot of the message
+     */
+    int allocate(long handle, long time, long expiry) {
+        return allocate(handle, time, expiry, 0);
+    }
+
+    /**
+     * take a slot in a lane for a message stored in a MessageArena
+     * without adding it to the heap
+     *
+     * @param handle the handle of the message
+     * @param time   the timestamp of the message in milliseconds
+     * @param expiry the time in milliseconds from which the message has
+     *               expired, Long.MAX_VALUE if it never expires
+     * @param lane   the lane of the message, a lane of this heap
+     * @return the slot of the message
+     */
+    int allocate(long handle, long time, long expiry, int lane) {
+        if (handles == null) {
+            handles = new long[msgs.length];
+        }
+        int slot = take(time, expiry, lane);
+        handles[slot] = handle;
+        return slot;
+    }
+
+    private int take(long time, long expiry, int lane) {
+        int slot;
+        if (freeSlot != NONE) {
+            slot = freeSlot;
+            freeSlot = positions[slot];
+        } else {
+            if (used == msgs.length) {
+                grow();
+            }
+            slot = used++;
+        }
+        times[slot] = time;
+        seqs[slot] = nextSeq++;
+        expiries[slot] = expiry;
+        positions[slot] = NONE;
+        if (lanes != null) {
+            lanes[slot] = lane;
+        }
+        return slot;
+    }
+
+    /**
+     * @param slot an allocated slot that is not in the heap
+     */
+    void add(int slot) {
+        int lane = lane(slot);
+        if (sizes[lane] == heaps[lane].length) {
+            heaps[lane] = Arrays.copyOf(heaps[lane], sizes[lane] * 2);
+        }
+        size++;
+        siftUp(heaps[lane], sizes[lane]++, slot);
+    }
+
+    /**
+     * remove a slot from the heap; the slot stays allocated
+     *
+     * @param slot a slot in the heap
+     */
+    void remove(int slot) {
+        int lane = lane(slot);
+        int[] heap = heaps[lane];
+        int i = positions[slot];
+        positions[slot] = NONE;
+        size--;
+        int last = heap[--sizes[lane]];
+        if (i != sizes[lane]) {
+            siftDown(heap, sizes[lane], i, last);
+            if (heap[i] == last) {
+                siftUp(heap, i, last);
+            }
+        }
+    }
+
+    /**
+     * release a slot that is not in the heap for reuse
+     *
+     * @param slot an allocated slot
+     */
+    void free(int slot) {
+        msgs[slot] = null;
+        positions[slot] = freeSlot;
+        freeSlot = slot;
+    }
+
+    private boolean before(int a, int b) {
+        return times[a] < times[b] || (times[a] == times[b] && seqs[a] < seqs[b]);
+    }
+
+    private void siftUp(int[] heap, int i, int slot) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (!before(slot, p)) {
+                break;
+            }
+            heap[i] = p;
+            positions[p] = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        positions[slot] = i;
+    }
+
+    private void siftDown(int[] heap, int size, int i, int slot) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && before(heap[right], heap[child])) {
+                child = right;
+            }
+            int c = heap[child];
+            if (!before(c, slot)) {
+                break;
+            }
+            heap[i] = c;
+            positions[c] = i;
+            i = child;
+        }
+        heap[i] = slot;
+        positions[slot] = i;
+    }
+
+    private void grow() {
+        int capacity = msgs.length * 2;
+        msgs = Arrays.copyOf(msgs, capacity);
+        times = Arrays.copyOf(times, capacity);
+        seqs = Arrays.copyOf(seqs, capacity);
+        expiries = Arrays.copyOf(expiries, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        if (handles != null) {
+            handles = Arrays.copyOf(handles, capacity);
+        }
+        if (lanes != null) {
+            lanes = Arrays.copyOf(lanes, capacity);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package timedelayqueue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An OperationLog is a bounded log of the times, in milliseconds,
+ * at which operations were performed on a TimeDelayQueue.
+ *
+ * <p>
+ *     The log keeps the most recent operations in a ring buffer of
+ *     primitive longs, optionally allocated outside the Java heap.
+ *     Writers are serialized among themselves; readers never block
+ *     writers and always observe a consistent snapshot.
+ * </p>
+ */
+class OperationLog {
+    // Rep invariants:
+    //   capacity > 0
+    //   0 < slots.capacity() <= capacity + 1
+    //   slots.capacity() <= capacity implies head <= slots.capacity()
+    //   the operations with index in [max(0, head - capacity), head)
+    //   are stored in slots at position index % slots.capacity()
+    //   the one spare slot is the one a writer may be overwriting
+    //   stored times are in non-decreasing order of index
+    //   peakWindows.size() <= MAX_PEAK_WINDOWS
+    //   tracked holds the values of peakWindows
+    // Abstraction function:
+    //   represents the sequence of the last min(head, capacity) operation
+    //   times, together with the peak load over those operations for every
+    //   tracked window length
+    // Thread safety argument:
+    //   - record and the catch-up step of peakLoad are synchronized, so
+    //     there is a single writer at any time
+    //   - a writer stores the slot before publishing the new head through
+    //     a volatile write, so a reader that sees head also sees the slots
+    //   - a reader re-reads head after copying and drops every slot that
+    //     may have been overwritten while it was copying
+    //   - tracked peaks are published through volatile fields of windows
+    //     held in a concurrent map, and the writer walks them through a
+    //     volatile array that is replaced, never modified, under the lock
+
+    /** the default number of operations retained by a log */
+    static final int DEFAULT_RETENTION = 1 << 16;
+
+    /** the number of window lengths whose peak load is kept up to date */
+    private static final int MAX_PEAK_WINDOWS = 8;
+
+    private static final int INITIAL_SLOTS = 64;
+
+    private final int capacity;
+    private final boolean offHeap;
+    private final Map<Integer, PeakWindow> peakWindows = new ConcurrentHashMap<>();
+    private volatile PeakWindow[] tracked = new PeakWindow[0];
+    private volatile LongBuffer slots;
+    private volatile long head = 0;
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Create a new OperationLog
+     *
+     * @param capacity the number of most recent operations to retain,
+     *                 > 0 and < Integer.MAX_VALUE / Long.BYTES
+     * @param offHeap  true to keep the log in a direct buffer outside the Java heap
+     * throws IllegalArgumentException if capacity is out of range
+     */
+    OperationLog(int capacity, boolean offHeap) {
+        if (capacity <= 0 || capacity >= Integer.MAX_VALUE / Long.BYTES) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        slots = offHeap ? allocate(capacity + 1) : allocate(Math.min(capacity + 1, INITIAL_SLOTS));
+    }
+
+    /**
+     * append an operation to the log and bring every
+     * tracked peak window up to date
+     *
+     * @param time the time of the operation in milliseconds
+     */
+    synchronized void record(long time) {
+        // keep the log sorted even if the wall clock steps back
+        time = Math.max(time, lastTime);
+        lastTime = time;
+        long index = head;
+        // an array, unlike the values of the map, is walked without allocating
+        for (PeakWindow peakWindow : tracked) {
+            peakWindow.advance(index, time);
+        }
+        LongBuffer buffer = slots;
+        if (index == buffer.capacity() && buffer.capacity() <= capacity) {
+            buffer = grow(buffer);
+        }
+        buffer.put((int) (index % buffer.capacity()), time);
+        head = index + 1;
+    }
+
+    /**
+     * Get the total number of operations ever recorded
+     *
+     * @return the number of operations
+     */
+    long totalRecorded() {
+        return head;
+    }
+
+    /**
+     * Take a consistent snapshot of the retained operation times
+     * without blocking writers
+     *
+     * @return the retained operation times, oldest first
+     */
+    long[] snapshot() {
+        return copy().times;
+    }
+
+    /**
+     * Get the maximum number of retained operations
+     * over any window of length timeWindow
+     *
+     * <p>
+     *     The first call for a given window length sweeps a snapshot
+     *     of the log once; the result is then kept up to date as
+     *     operations are recorded, so later calls for the same window
+     *     length take constant time. Either way, only the retained
+     *     operations count: a tracked peak is forgotten once its
+     *     operations are no longer retained, so a call returns the same
+     *     peak whether or not the window length was asked for before.
+     * </p>
+     *
+     * @param timeWindow the length of the window in milliseconds, >= 0
+     * @return the number of operations, 0 if no operation was recorded
+     */
+    int peakLoad(int timeWindow) {
+        PeakWindow peakWindow = peakWindows.get(timeWindow);
+        if (peakWindow != null) {
+            return peakWindow.peak;
+        }
+        Snapshot snapshot = copy();
+        if (peakWindows.size() < MAX_PEAK_WINDOWS) {
+            peakWindow = new PeakWindow(timeWindow, snapshot);
+            synchronized (this) {
+                // catch up with the operations recorded since the snapshot
+                LongBuffer buffer = slots;
+                for (long index = snapshot.end; index < head; index++) {
+                    peakWindow.advance(index, buffer.get((int) (index % buffer.capacity())));
+                }
+                peakWindow.seeded();
+                if (peakWindows.size() < MAX_PEAK_WINDOWS && peakWindows.putIfAbsent(timeWindow, peakWindow) == null) {
+                    PeakWindow[] grown = Arrays.copyOf(tracked, tracked.length + 1);
+                    grown[tracked.length] = peakWindow;
+                    tracked = grown;
+                }
+                PeakWindow installed = peakWindows.get(timeWindow);
+                return installed != null ? installed.peak : peakWindow.peak;
+            }
+        }
+        return peakLoad(snapshot.times, snapshot.times.length, timeWindow);
+    }
+
+    /**
+     * Get the maximum number of entries of sortedTimes
+     * that fall in any closed window of length timeWindow
+     *
+     * @param sortedTimes operation times in non-decreasing order
+     * @param count the number of entries of sortedTimes to consider
+     * @param timeWindow the length of the window in milliseconds, >= 0
+     * @return the peak number of operations in a window
+     */
+    static int peakLoad(long[] sortedTimes, int count, int timeWindow) {
+        int peak = 0;
+        int left = 0;
+        for (int right = 0; right < count; right++) {
+            while (sortedTimes[right] - sortedTimes[left] > timeWindow) {
+                left++;
+            }
+            peak = Math.max(peak, right - left + 1);
+        }
+        return peak;
+    }
+
+    /**
+     * copy the retained operations, dropping any slot that a
+     * concurrent writer may have overwritten during the copy
+     */
+    private Snapshot copy() {
+        long end = head;
+        LongBuffer buffer = slots;
+        int length = buffer.capacity();
+        long start = Math.max(0, end - capacity);
+        long[] times = new long[(int) (end - start)];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = buffer.get((int) ((start + i) % length));
+        }
+        if (length > capacity) {
+            // a writer may be storing index head over index head - length
+            long firstValid = head + 1 - length;
+            if (firstValid > start) {
+                int dropped = (int) Math.min(firstValid - start, times.length);
+                long[] valid = new long[times.length - dropped];
+                System.arraycopy(times, dropped, valid, 0, valid.length);
+                return new Snapshot(end - valid.length, end, valid);
+            }
+        }
+        return new Snapshot(start, end, times);
+    }
+
+    /** double the heap buffer, up to the capacity of the log and its spare slot */
+    private LongBuffer grow(LongBuffer buffer) {
+        LongBuffer grown = allocate((int) Math.min((long) buffer.capacity() * 2, capacity + 1L));
+        for (int i = 0; i < buffer.capacity(); i++) {
+            grown.put(i, buffer.get(i));
+        }
+        slots = grown;
+        return grown;
+    }
+
+    private LongBuffer allocate(int size) {
+        if (offHeap) {
+            return ByteBuffer.allocateDirect(size * Long.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asLongBuffer();
+        }
+        return LongBuffer.allocate(size);
+    }
+
+    /** the operations with index in [start, end) */
+    private static class Snapshot {
+        private final long start;
+        private final long end;
+        private final long[] times;
+
+        Snapshot(long start, long end, long[] times) {
+            this.start = start;
+            this.end = end;
+            this.times = times;
+        }
+    }
+
+    /**
+     * the running peak load over windows of a fixed length, over the
+     * retained operations, computed with a sliding window over the log
+     */
+    private class PeakWindow {
+        // Rep invariants:
+        //   floor <= start <= left <= the last operation, and start <= fromEnd
+        //   fromEnd is the first index after start whose time is more than
+        //   timeWindow after the time of start, or the next index
+        //   the entries of the deque, front to back, have increasing rights
+        //   and strictly decreasing counts, and each starts after start
+        //   peak is the largest of fromEnd - start and the count at the front
+        // Abstraction function:
+        //   represents the peak load over windows of length timeWindow among
+        //   the operations with index in [start, the last operation], where
+        //   an entry (r, c) is the window of c operations that ends at r
+
+        private final int timeWindow;
+        private final long floor;
+        private Snapshot seed;
+        private long start;
+        private long left;
+        private long leftTime;
+        private long fromEnd;
+        private long[] rights = new long[4];
+        private int[] counts = new int[4];
+        private int first = 0;
+        private int size = 0;
+        private volatile int peak = 0;
+
+        /**
+         * start tracking windows of length timeWindow, sweeping
+         * the operations of snapshot once
+         *
+         * @param timeWindow the length of the window in milliseconds
+         * @param snapshot the operations logged so far
+         */
+        PeakWindow(int timeWindow, Snapshot snapshot) {
+            this.timeWindow = timeWindow;
+            this.floor = snapshot.start;
+            this.seed = snapshot;
+            start = left = fromEnd = snapshot.start;
+            for (long index = snapshot.start; index < snapshot.end; index++) {
+                advance(index, snapshot.times[(int) (index - snapshot.start)]);
+            }
+        }
+
+        /**
+         * stop reading the snapshot the window was started from,
+         * called by the single writer once every operation
+         * after the snapshot has been advanced over
+         */
+        void seeded() {
+            seed = null;
+        }
+
+        /**
+         * extend the windows to end at the operation at index right, and
+         * drop the operations the log no longer retains once it is written;
+         * called by the single writer before the slot is written
+         *
+         * @param right the index of the new operation
+         * @param time the time of the new operation
+         */
+        void advance(long right, long time) {
+            long nextStart = Math.max(floor, right + 1 - capacity);
+            if (left < nextStart) {
+                left = nextStart;
+                leftTime = timeAt(left, right, time);
+            }
+            if (left == right) {
+                leftTime = time;
+            }
+            while (time - leftTime > timeWindow) {
+                left++;
+                leftTime = timeAt(left, right, time);
+            }
+            push(right, (int) (right - left + 1));
+
+            // the window that starts at the oldest retained operation
+            if (start < nextStart) {
+                start = nextStart;
+                fromEnd = Math.max(fromEnd, start);
+            }
+            long startTime = timeAt(start, right, time);
+            while (fromEnd <= right && timeAt(fromEnd, right, time) - startTime <= timeWindow) {
+                fromEnd++;
+            }
+            // a window that starts at or before start is no larger than that one
+            while (size > 0 && rights[first] - counts[first] + 1 <= start) {
+                first = (first + 1) % rights.length;
+                size--;
+            }
+            peak = (int) Math.max(fromEnd - start, size > 0 ? counts[first] : 0);
+        }
+
+        /** append the window of count operations ending at right, dropping smaller ones before it */
+        private void push(long right, int count) {
+            while (size > 0 && counts[(first + size - 1) % rights.length] <= count) {
+                size--;
+            }
+            if (size == rights.length) {
+                long[] grownRights = new long[2 * size];
+                int[] grownCounts = new int[2 * size];
+                for (int i = 0; i < size; i++) {
+                    grownRights[i] = rights[(first + i) % rights.length];
+                    grownCounts[i] = counts[(first + i) % rights.length];
+                }
+                rights = grownRights;
+                counts = grownCounts;
+                first = 0;
+            }
+            int slot = (first + size) % rights.length;
+            rights[slot] = right;
+            counts[slot] = count;
+            size++;
+        }
+
+        /** the time of the operation at index, where right is the one being added at time */
+        private long timeAt(long index, long right, long time) {
+            if (index == right) {
+                return time;
+            }
+            Snapshot from = seed;
+            if (from != null && index >= from.start && index < from.end) {
+                return from.times[(int) (index - from.start)];
+            }
+            LongBuffer buffer = slots;
+            return buffer.get((int) (index % buffer.capacity()));
+        }
+    }
+}
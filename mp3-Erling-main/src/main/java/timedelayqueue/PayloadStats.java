@@ -0,0 +1,102 @@
+package timedelayqueue;
+
+/**
+ * A PayloadStats is a snapshot of the counters of a PayloadStore.
+ */
+public class PayloadStats {
+    // Rep invariants:
+    //   all counts >= 0, storedBytes <= referencedBytes
+    // Abstraction function:
+    //   represents the state of a PayloadStore at one moment
+    // Thread safety argument:
+    //   immutable
+
+    private final int payloads;
+    private final long references;
+    private final long storedBytes;
+    private final long heldBytes;
+    private final long referencedBytes;
+    private final long acquired;
+
+    PayloadStats(int payloads, long references, long storedBytes, long heldBytes,
+                 long referencedBytes, long acquired) {
+        this.payloads = payloads;
+        this.references = references;
+        this.storedBytes = storedBytes;
+        this.heldBytes = heldBytes;
+        this.referencedBytes = referencedBytes;
+        this.acquired = acquired;
+    }
+
+    /**
+     * @return the number of distinct payloads stored
+     */
+    public int getPayloads() {
+        return payloads;
+    }
+
+    /**
+     * @return the number of references held to stored payloads
+     */
+    public long getReferences() {
+        return references;
+    }
+
+    /**
+     * @return the bytes of content actually stored
+     */
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * @return the bytes that the stored content is kept in,
+     * fewer than getStoredBytes if some of it is compressed
+     */
+    public long getHeldBytes() {
+        return heldBytes;
+    }
+
+    /**
+     * @return stored bytes per byte kept, 1 if nothing is stored
+     */
+    public double getCompressionRatio() {
+        return heldBytes == 0 ? 1 : (double) storedBytes / heldBytes;
+    }
+
+    /**
+     * @return the bytes of content that the references would take
+     * if every reference held its own copy
+     */
+    public long getReferencedBytes() {
+        return referencedBytes;
+    }
+
+    /**
+     * @return the bytes saved by sharing payloads
+     */
+    public long getSavedBytes() {
+        return referencedBytes - storedBytes;
+    }
+
+    /**
+     * @return the total number of references ever taken
+     */
+    public long getAcquired() {
+        return acquired;
+    }
+
+    /**
+     * @return referenced bytes per stored byte, 1 if nothing is stored
+     */
+    public double getDedupRatio() {
+        return storedBytes == 0 ? 1 : (double) referencedBytes / storedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d payloads, %d references, %d bytes stored for %d referenced (%.2fx),"
+            + " kept in %d bytes (%.2fx)", payloads, references, storedBytes, referencedBytes,
+            getDedupRatio(), heldBytes, getCompressionRatio());
+    }
+}
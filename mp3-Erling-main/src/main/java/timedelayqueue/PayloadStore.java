@@ -0,0 +1,326 @@
+package timedelayqueue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A PayloadStore keeps each distinct message content once, addressed
+ * by its xxHash64, and counts the references to it.
+ *
+ * <p>
+ *     acquire(content) returns the id of the stored copy of content,
+ *     storing it first if it is new, and release(id) gives a reference
+ *     back; a payload is dropped when its last reference is released.
+ *     Contents with equal hashes are told apart by comparing them, so a
+ *     hash collision only costs a comparison. Sizes are counted in bytes
+ *     of UTF-8.
+ * </p>
+ *
+ * <p>
+ *     A store with a ContentCompressor keeps every content that the
+ *     compressor shrinks deflated, and inflates it each time it is read,
+ *     so a view of a message only pays for inflating its content when
+ *     getContent is called. Contents are deflated, and inflated to be
+ *     compared, outside any lock, so a slow deflate holds up no other
+ *     caller; a content is deflated the same way every time, so a new
+ *     content is told from one stored meanwhile by its deflated bytes.
+ * </p>
+ *
+ * <p>
+ *     Payloads are spread by hash over stripes, each with a lock of its
+ *     own, so callers storing and releasing different contents mostly
+ *     take different locks.
+ * </p>
+ */
+public class PayloadStore {
+    // Rep invariants:
+    //   stripes.length is a power of two
+    //   a payload p is only in stripes[p.id & (stripes.length - 1)], and
+    //   that is the stripe indexed by p.hash
+    //   within a stripe, byId and byHash hold the same payloads: for every
+    //   payload p, byId.get(p.id) == p and p is in the chain byHash.get(p.hash)
+    //   p.refs > 0 for every payload p
+    //   within a stripe, references is the sum of p.refs, storedBytes the
+    //   sum of p.bytes, heldBytes the sum of p.held(), and referencedBytes
+    //   the sum of p.refs * p.bytes over its payloads
+    //   p.packed != null only if compressor != null, and then p.compressor == compressor
+    // Abstraction function:
+    //   represents the map from id to (content, reference count) for
+    //   every payload p in the byId of any stripe
+    // Thread safety argument:
+    //   every method of a stripe is synchronized on the stripe, and
+    //   compressor is thread-safe; the content of a Payload is final, so
+    //   it may be read without the lock once the Payload is found
+
+    private static final long SEED = 0;
+
+    private final ContentCompressor compressor;
+    private final Stripe[] stripes;
+
+    /**
+     * Create a new PayloadStore that keeps contents as they are
+     */
+    public PayloadStore() {
+        this(null);
+    }
+
+    /**
+     * Create a new PayloadStore with one stripe
+     *
+     * @param compressor the compressor of the contents stored,
+     *                   or null to keep them as they are
+     */
+    public PayloadStore(ContentCompressor compressor) {
+        this(compressor, 1);
+    }
+
+    /**
+     * Create a new PayloadStore
+     *
+     * @param compressor the compressor of the contents stored,
+     *                   or null to keep them as they are
+     * @param stripes    the least number of stripes, > 0 and <= 2^16;
+     *                   rounded up to a power of two
+     * throws IllegalArgumentException if stripes is out of range
+     */
+    public PayloadStore(ContentCompressor compressor, int stripes) {
+        if (stripes <= 0 || stripes > 1 << 16) {
+            throw new IllegalArgumentException();
+        }
+        this.compressor = compressor;
+        this.stripes = new Stripe[stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(i);
+        }
+    }
+
+    /**
+     * take a reference to the stored copy of content, storing it if it is new
+     *
+     * @param content the content
+     * @return the id of the payload holding content, >= 0
+     */
+    public long acquire(String content) {
+        long hash = XXHash64.hash(content, SEED);
+        int bytes = MessageCodec.utf8Length(content);
+        Stripe stripe = stripes[(int) (hash ^ hash >>> 32) & (stripes.length - 1)];
+        // take a reference to each payload that may hold content, and compare outside the lock
+        for (int skip = 0; ; skip++) {
+            Payload p = stripe.pin(hash, bytes, skip);
+            if (p == null) {
+                break;
+            }
+            if (p.content().equals(content)) {
+                return p.id;
+            }
+            stripe.unpin(p);
+        }
+        byte[] packed = compressor == null ? null : compressor.compress(content, bytes);
+        return stripe.insert(hash, bytes, content, packed).id;
+    }
+
+    /**
+     * Get the content of a payload
+     *
+     * @param id the id of a payload with references left
+     * @return the content of the payload
+     * throws IllegalArgumentException if id names no payload
+     */
+    public String get(long id) {
+        return payload(id).content();
+    }
+
+    /**
+     * give back a reference to a payload, dropping it
+     * if it was the last reference
+     *
+     * @param id the id of a payload with references left
+     * throws IllegalArgumentException if id names no payload
+     */
+    public void release(long id) {
+        stripe(id).release(id);
+    }
+
+    /**
+     * @return the current counts of payloads, references and bytes
+     */
+    public PayloadStats stats() {
+        int payloads = 0;
+        long references = 0;
+        long storedBytes = 0;
+        long heldBytes = 0;
+        long referencedBytes = 0;
+        long acquired = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                payloads += stripe.byId.size();
+                references += stripe.references;
+                storedBytes += stripe.storedBytes;
+                heldBytes += stripe.heldBytes;
+                referencedBytes += stripe.referencedBytes;
+                acquired += stripe.acquired;
+            }
+        }
+        return new PayloadStats(payloads, references, storedBytes, heldBytes, referencedBytes, acquired);
+    }
+
+    /**
+     * @param id the id of a payload with references left
+     * @return the payload, whose content stays readable after it is dropped
+     * throws IllegalArgumentException if id names no payload
+     */
+    Payload payload(long id) {
+        return stripe(id).payload(id);
+    }
+
+    private Stripe stripe(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException();
+        }
+        return stripes[(int) id & (stripes.length - 1)];
+    }
+
+    /** the payloads whose hashes index one stripe */
+    private final class Stripe {
+        private final int index;
+        private final Map<Long, Payload> byId = new HashMap<>();
+        private final Map<Long, Payload> byHash = new HashMap<>();
+        private long nextId = 0;
+        private long references = 0;
+        private long storedBytes = 0;
+        private long heldBytes = 0;
+        private long referencedBytes = 0;
+        private long acquired = 0;
+
+        private Stripe(int index) {
+            this.index = index;
+        }
+
+        /**
+         * take a reference to the payload after skip others with a hash and
+         * length, or return null if there is none; lengths differ for most
+         * collisions, so a packed content is rarely inflated in vain
+         */
+        synchronized Payload pin(long hash, int bytes, int skip) {
+            for (Payload p = byHash.get(hash); p != null; p = p.collision) {
+                if (p.bytes == bytes && skip-- == 0) {
+                    take(p);
+                    return p;
+                }
+            }
+            return null;
+        }
+
+        /** give back a reference taken by pin, as if it was never taken */
+        synchronized void unpin(Payload p) {
+            acquired--;
+            drop(p);
+        }
+
+        /**
+         * take a reference to the stored copy of content, storing packed, the
+         * content deflated, or content if packed is null, if there is none
+         */
+        synchronized Payload insert(long hash, int bytes, String content, byte[] packed) {
+            Payload p = byHash.get(hash);
+            // a copy stored meanwhile is deflated to the same bytes, so no inflation is needed
+            while (p != null && (p.bytes != bytes || (packed == null
+                ? p.content == null || !p.content.equals(content) : !Arrays.equals(p.packed, packed)))) {
+                p = p.collision;
+            }
+            if (p == null) {
+                long id = nextId++ * stripes.length + index;
+                p = new Payload(id, hash, packed == null ? content : null, packed, bytes, compressor);
+                p.collision = byHash.put(hash, p);
+                byId.put(p.id, p);
+                storedBytes += p.bytes;
+                heldBytes += p.held();
+            }
+            take(p);
+            return p;
+        }
+
+        private void take(Payload p) {
+            p.refs++;
+            references++;
+            referencedBytes += p.bytes;
+            acquired++;
+        }
+
+        synchronized void release(long id) {
+            drop(payload(id));
+        }
+
+        private void drop(Payload p) {
+            p.refs--;
+            references--;
+            referencedBytes -= p.bytes;
+            if (p.refs > 0) {
+                return;
+            }
+            byId.remove(p.id);
+            storedBytes -= p.bytes;
+            heldBytes -= p.held();
+            Payload head = byHash.get(p.hash);
+            if (head == p) {
+                if (p.collision == null) {
+                    byHash.remove(p.hash);
+                } else {
+                    byHash.put(p.hash, p.collision);
+                }
+            } else {
+                while (head.collision != p) {
+                    head = head.collision;
+                }
+                head.collision = p.collision;
+            }
+        }
+
+        synchronized Payload payload(long id) {
+            Payload p = byId.get(id);
+            if (p == null) {
+                throw new IllegalArgumentException();
+            }
+            return p;
+        }
+    }
+
+    /**
+     * A Payload is one stored content, kept either as it is or deflated.
+     */
+    static final class Payload {
+        private final long id;
+        private final long hash;
+        private final String content;
+        private final byte[] packed;
+        private final int bytes;
+        private final ContentCompressor compressor;
+        private int refs = 0;
+        private Payload collision;
+
+        private Payload(long id, long hash, String content, byte[] packed, int bytes,
+                        ContentCompressor compressor) {
+            this.id = id;
+            this.hash = hash;
+            this.content = content;
+            this.packed = packed;
+            this.bytes = bytes;
+            this.compressor = compressor;
+        }
+
+        /**
+         * @return the content, inflated if it is kept deflated
+         */
+        String content() {
+            return packed == null ? content : compressor.decompress(packed, bytes);
+        }
+
+        /**
+         * @return the bytes that the content is kept in
+         */
+        private int held() {
+            return packed == null ? bytes : packed.length;
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package timedelayqueue;
 
+import java.io.Reader;
+import java.io.StringReader;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -32,8 +35,7 @@ public class PubSubMessage implements TimestampedObject {
         this.sender = sender;
         this.isTransient = false;
         this.content = content;
-        this.receiver = new ArrayList<>();
-        this.receiver.add(receiver);
+        this.receiver = Collections.singletonList(receiver);
         this.type = type;
     }
 
@@ -44,17 +46,33 @@ public class PubSubMessage implements TimestampedObject {
         this.id = id;
         this.timestamp = timestamp;
         this.sender = sender;
-        this.receiver = new ArrayList<>(receiver);
+        this.receiver = Collections.unmodifiableList(new ArrayList<>(receiver));
         this.isTransient = false;
         this.content = content;
         this.type = type;
     }
 
+    // create a view whose subclass supplies every field through
+    // the getters, such as a message stored in a MessageArena
+    PubSubMessage() {
+        this.sender = null;
+        this.isTransient = false;
+        this.content = null;
+        this.receiver = null;
+        this.type = null;
+    }
+
     // create a PubSubMessage instance with implicit args
     public PubSubMessage(UUID sender, UUID receiver, String content) {
+        this(Clock.SYSTEM, sender, receiver, content);
+    }
+
+    // create a PubSubMessage instance with implicit args,
+    // timestamped with the current time of clock
+    public PubSubMessage(Clock clock, UUID sender, UUID receiver, String content) {
         this(
             UUID.randomUUID(),
-            new Timestamp(System.currentTimeMillis()),
+            new Timestamp(clock.millis()),
             sender, receiver,
             content,
             BasicMessageType.SIMPLEMSG
@@ -63,9 +81,15 @@ public class PubSubMessage implements TimestampedObject {
 
     // create a PubSubMessage instance with implicit args
     public PubSubMessage(UUID sender, List<UUID> receiver, String content) {
+        this(Clock.SYSTEM, sender, receiver, content);
+    }
+
+    // create a PubSubMessage instance with implicit args,
+    // timestamped with the current time of clock
+    public PubSubMessage(Clock clock, UUID sender, List<UUID> receiver, String content) {
         this(
             UUID.randomUUID(),
-            new Timestamp(System.currentTimeMillis()),
+            new Timestamp(clock.millis()),
             sender, receiver,
             content,
             BasicMessageType.SIMPLEMSG
@@ -82,12 +106,23 @@ public class PubSubMessage implements TimestampedObject {
         return (Timestamp) timestamp.clone();
     }
 
+    // obtain the timestamp in milliseconds without copying it
+    public long getTimestampMillis() {
+        return timestamp.getTime();
+    }
+
     // obtain message content
     // note that this will be in JSON format
     public String getContent() {
         return content;
     }
 
+    // a reader of the content, which a view may stream
+    // without building the content String
+    Reader contentReader() {
+        return new StringReader(getContent());
+    }
+
     // what is the message type?
     public MessageType getType() {
         return type;
@@ -97,8 +132,9 @@ public class PubSubMessage implements TimestampedObject {
         return sender;
     }
 
+    // the receivers of the message, as an unmodifiable list
     public List<UUID> getReceiver() {
-        return new ArrayList<>(receiver);
+        return receiver;
     }
 
     // is the message transient?
@@ -107,16 +143,21 @@ public class PubSubMessage implements TimestampedObject {
         return isTransient;
     }
 
+    // the lifetime of a transient message in milliseconds, 0 otherwise
+    int lifetime() {
+        return 0;
+    }
+
     @Override
     public int hashCode() {
-        return id.hashCode();
+        return getId().hashCode();
     }
 
     @Override
     public boolean equals(Object other) {
         if (other instanceof PubSubMessage) {
             PubSubMessage that = (PubSubMessage) other;
-            return this.id.equals(that.id);
+            return this.getId().equals(that.getId());
         } else {
             return false;
         }
@@ -124,7 +165,7 @@ public class PubSubMessage implements TimestampedObject {
 
     @Override
     public String toString() {
-        return String.format("%s: (%s) %s", id.toString(), timestamp.toString(), content);
+        return String.format("%s: (%s) %s", getId().toString(), getTimestamp().toString(), getContent());
     }
 
 }
\ No newline at end of file
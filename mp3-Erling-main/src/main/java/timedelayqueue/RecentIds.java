@@ -0,0 +1,100 @@
+package timedelayqueue;
+
+import java.util.UUID;
+
+/**
+ * A RecentIds remembers the ids of the messages added to it over a recent
+ * time horizon, so that a message sent twice is refused the second time,
+ * without holding on to the messages themselves.
+ *
+ * <p>
+ *     Ids are kept in IdWindows, one per stripe, each with a lock of its
+ *     own, and an id is remembered in the stripe its hash selects. An id
+ *     is remembered for at least the horizon after it was added, unless
+ *     more than the capacity of a stripe is added over a generation of the
+ *     horizon; then the oldest ids are forgotten first, so memory stays
+ *     bounded under sustained load.
+ * </p>
+ */
+public class RecentIds {
+    // Rep invariants:
+    //   clock != null, stripes.length is a power of two
+    //   an id is only in stripes[hash(id) & (stripes.length - 1)], and
+    //   never queued there: every id added is released at once
+    // Abstraction function:
+    //   represents the set of ids added within the horizon, less the
+    //   ones forgotten early to keep within the capacity
+    // Thread safety argument:
+    //   each IdWindow is only accessed under its own lock, and clock
+    //   is thread-safe
+
+    private final Clock clock;
+    private final IdWindow[] stripes;
+
+    /**
+     * Create a new RecentIds with the default horizon and capacity,
+     * and one stripe per available processor
+     *
+     * @param clock the source of the current time
+     */
+    public RecentIds(Clock clock) {
+        this(IdWindow.DEFAULT_HORIZON, IdWindow.DEFAULT_CAPACITY,
+            Runtime.getRuntime().availableProcessors(), clock);
+    }
+
+    /**
+     * Create a new RecentIds
+     *
+     * @param horizon  the time, in milliseconds, for which an id is remembered, > 0
+     * @param capacity the most table slots of all stripes per generation, > 0;
+     *                 shared evenly among the stripes
+     * @param stripes  the least number of stripes, > 0 and <= 2^16;
+     *                 rounded up to a power of two
+     * @param clock    the source of the current time
+     * throws IllegalArgumentException if an argument is out of range
+     */
+    public RecentIds(long horizon, int capacity, int stripes, Clock clock) {
+        if (horizon <= 0 || capacity <= 0 || stripes <= 0 || stripes > 1 << 16) {
+            throw new IllegalArgumentException();
+        }
+        this.clock = clock;
+        this.stripes = new IdWindow[stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        long now = clock.millis();
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new IdWindow(horizon, Math.max(1, capacity / this.stripes.length), now);
+        }
+    }
+
+    /**
+     * remember the id of a message
+     *
+     * @param id the id of the message
+     * @return true if id was not remembered already, and false otherwise
+     */
+    public boolean add(UUID id) {
+        int hash = id.hashCode();
+        IdWindow window = stripes[(hash ^ hash >>> 16) & (stripes.length - 1)];
+        synchronized (window) {
+            long now = clock.millis();
+            if (!window.add(id, now)) {
+                return false;
+            }
+            // no message is held, so the id moves straight to the released generations
+            window.release(id, now);
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of bytes of the tables of all stripes
+     */
+    public long footprint() {
+        long slots = 0;
+        for (IdWindow window : stripes) {
+            synchronized (window) {
+                slots += window.footprint();
+            }
+        }
+        return slots * Long.BYTES;
+    }
+}
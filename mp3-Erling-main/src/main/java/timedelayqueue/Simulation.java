@@ -0,0 +1,156 @@
+package timedelayqueue;
+
+import java.util.PriorityQueue;
+
+/**
+ * A Simulation runs scheduled actions in virtual time.
+ *
+ * <p>
+ *     Actions are kept in order of the time at which they are due, and
+ *     actions due at the same time run in the order they were scheduled.
+ *     Running the simulation repeatedly moves its VirtualClock straight to
+ *     the time of the next action and runs it, so idle time costs nothing
+ *     and a recorded workload replays as fast as its actions can execute.
+ *     Actions may schedule further actions. Queues and messages created
+ *     with getClock() observe the simulated time.
+ * </p>
+ */
+public class Simulation {
+    // Rep invariant:
+    //   clock != null, events != null
+    //   every event in events has time >= the time of the last event run
+    // Abstraction function:
+    //   represents the actions in events, to be run at their times on clock
+    // Thread safety argument:
+    //   not thread-safe; a simulation is driven by a single thread
+
+    private final VirtualClock clock;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long nextSeq = 0;
+    private long executed = 0;
+
+    /**
+     * Create a new Simulation
+     *
+     * @param start the initial simulated time in milliseconds since the epoch
+     */
+    public Simulation(long start) {
+        clock = new VirtualClock(start);
+    }
+
+    /**
+     * @return the clock that shows the simulated time
+     */
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return the current simulated time in milliseconds
+     */
+    public long now() {
+        return clock.millis();
+    }
+
+    /**
+     * schedule an action at a given time
+     *
+     * @param time   the simulated time in milliseconds at which to run action;
+     *               a time in the past means as soon as possible
+     * @param action the action to run
+     */
+    public void at(long time, Runnable action) {
+        events.add(new Event(Math.max(time, clock.millis()), nextSeq++, action));
+    }
+
+    /**
+     * schedule an action after a delay from the current simulated time
+     *
+     * @param delay  the delay in milliseconds, >= 0
+     * @param action the action to run
+     */
+    public void after(long delay, Runnable action) {
+        at(clock.millis() + delay, action);
+    }
+
+    /**
+     * schedule an action to run repeatedly, first at a given time
+     * and then every period until a given end time
+     *
+     * @param first  the simulated time in milliseconds of the first run
+     * @param period the time in milliseconds between runs, > 0
+     * @param end    the simulated time in milliseconds after which action stops
+     * @param action the action to run
+     * throws IllegalArgumentException if period <= 0
+     */
+    public void every(long first, long period, long end, Runnable action) {
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (first > end) {
+            return;
+        }
+        at(first, () -> {
+            action.run();
+            every(first + period, period, end, action);
+        });
+    }
+
+    /**
+     * run every scheduled action, including those scheduled while running
+     *
+     * @return the number of actions run
+     */
+    public long run() {
+        return runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * run the scheduled actions that are due no later than end,
+     * and then advance the clock to end
+     *
+     * @param end the simulated time in milliseconds to run until
+     * @return the number of actions run
+     */
+    public long runUntil(long end) {
+        long before = executed;
+        while (!events.isEmpty() && events.peek().time <= end) {
+            Event event = events.poll();
+            clock.advanceTo(event.time);
+            event.action.run();
+            executed++;
+        }
+        if (end != Long.MAX_VALUE) {
+            clock.advanceTo(end);
+        }
+        return executed - before;
+    }
+
+    /**
+     * @return the number of actions scheduled but not yet run
+     */
+    public int pending() {
+        return events.size();
+    }
+
+    private static final class Event implements Comparable<Event> {
+        private final long time;
+        private final long seq;
+        private final Runnable action;
+
+        private Event(long time, long seq, Runnable action) {
+            this.time = time;
+            this.seq = seq;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+}
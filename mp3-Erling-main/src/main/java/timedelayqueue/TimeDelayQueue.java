@@ -1,26 +1,58 @@
 package timedelayqueue;
 
-import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class TimeDelayQueue {
     // Rep invariants:
-    // timeDelayQueue != null
+    // heap != null, expiries != null
+    // every slot scheduled in expiries is in heap
+    // a slot in heap is scheduled in expiries iff its message is transient
     // delay >= 0
     // count >= 0
     // operations != null
     // ids != null
+    // clock != null
+    // if arena != null, every slot in heap holds the handle of a message
+    // stored in arena and not released, and otherwise holds a message
+    // leader is null or a thread waiting for the head to become ready
+    // laneOf maps every type with a lane of its own to a lane < weights.length - 1;
+    // the last lane holds the messages of every other type
+    // weights.length == heap.laneCount() == latencies.length, weights[l] > 0
+    // 0 <= turn < weights.length, 0 <= credit < weights[turn]
     //Abstraction function:
     //represents a queue data structure that returns objects in an order
-    //that is determined by their individual timestamps and a delay parameter
+    //that is determined by their individual timestamps and a delay parameter;
+    //among messages that are ready, each lane gets turns in proportion to its
+    //weight, and within a lane messages are returned in timestamp order
+    //latencies[l] holds the time each message of lane l waited once ready
+    //Thread safety argument:
+    //    - heap, expiries, ids, leader, turn, credit and latencies are
+    //      only accessed while holding lock
+    //    - laneOf and weights are never modified after construction
+    //    - count is an AtomicInteger and operations is thread-safe
+    //    - delay is final and immutable
+    //    - clock is final and thread-safe, and arena is null or thread-safe
 
-    private final PriorityQueue<PubSubMessage> timeDelayQueue;
+    private final MessageHeap heap;
+    private final ExpiryWheel expiries;
     private final int delay;
-    private AtomicInteger count;
-    private int countt = 0;
-    private final List<Timestamp> operations;
-    private final Set<UUID> ids;
+    private final AtomicInteger count;
+    private final OperationLog operations;
+    private final IdWindow ids;
+    private final Clock clock;
+    private final MessageArena arena;
+    private final Map<MessageType, Integer> laneOf = new HashMap<>();
+    private final int[] weights;
+    private final LatencyHistogram[] latencies;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private Thread leader = null;
+    private int turn = 0;
+    private int credit = 0;
 
     /**
      * Create a new TimeDelayQueue
@@ -28,34 +60,282 @@ public class TimeDelayQueue {
      * @param delay the delay, in milliseconds, that the queue can tolerate, >= 0
      */
     public TimeDelayQueue(int delay) {
-        timeDelayQueue = new PriorityQueue<>(new PubSubMessageComparator());
+        this(delay, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new TimeDelayQueue that reads the time from clock
+     *
+     * @param delay the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param clock the source of the current time
+     */
+    public TimeDelayQueue(int delay, Clock clock) {
+        this(delay, OperationLog.DEFAULT_RETENTION, false,
+            IdWindow.DEFAULT_HORIZON, IdWindow.DEFAULT_CAPACITY, clock);
+    }
+
+    /**
+     * Create a new TimeDelayQueue with a bounded operation log
+     *
+     * @param delay        the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param logRetention the number of most recent operations kept for
+     *                     getPeakLoad and getOperationTimes, > 0
+     * @param offHeapLog   true to keep the operation log outside the Java heap
+     */
+    public TimeDelayQueue(int delay, int logRetention, boolean offHeapLog) {
+        this(delay, logRetention, offHeapLog, IdWindow.DEFAULT_HORIZON, IdWindow.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new TimeDelayQueue with a bounded operation log
+     * and a bounded window for duplicate detection
+     *
+     * @param delay         the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param logRetention  the number of most recent operations kept for
+     *                      getPeakLoad and getOperationTimes, > 0
+     * @param offHeapLog    true to keep the operation log outside the Java heap
+     * @param dedupHorizon  the time, in milliseconds, for which the id of a
+     *                      message that has left the queue is remembered to
+     *                      reject duplicates, > 0; queued ids are always remembered
+     * @param dedupCapacity the number of slots of each of the four hash tables
+     *                      that remember the ids of messages that have left the
+     *                      queue, > 0, so those never take more than
+     *                      64 * dedupCapacity bytes; under heavier load the oldest
+     *                      of them are forgotten before the horizon is over
+     */
+    public TimeDelayQueue(int delay, int logRetention, boolean offHeapLog,
+                          long dedupHorizon, int dedupCapacity) {
+        this(delay, logRetention, offHeapLog, dedupHorizon, dedupCapacity, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new TimeDelayQueue with a bounded operation log
+     * and a bounded window for duplicate detection
+     * that reads the time from clock
+     *
+     * @param delay         the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param logRetention  the number of most recent operations kept for
+     *                      getPeakLoad and getOperationTimes, > 0
+     * @param offHeapLog    true to keep the operation log outside the Java heap
+     * @param dedupHorizon  the time, in milliseconds, for which the id of a
+     *                      message that has left the queue is remembered to
+     *                      reject duplicates, > 0; queued ids are always remembered
+     * @param dedupCapacity the number of slots of each of the four hash tables
+     *                      that remember the ids of messages that have left
+     *                      the queue, > 0
+     * @param clock         the source of the current time
+     */
+    public TimeDelayQueue(int delay, int logRetention, boolean offHeapLog,
+                          long dedupHorizon, int dedupCapacity, Clock clock) {
+        this(delay, logRetention, offHeapLog, dedupHorizon, dedupCapacity, clock, null, null);
+    }
+
+    /**
+     * Create a new TimeDelayQueue that keeps its messages in arena
+     * and itself holds only their handles
+     *
+     * <p>
+     *     Messages are encoded into the arena when they are added, and
+     *     the messages returned by getNext, take and drainReady are
+     *     flyweight views that decode their fields from the arena.
+     * </p>
+     *
+     * @param delay the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param clock the source of the current time
+     * @param arena the arena in which to store queued messages
+     */
+    public TimeDelayQueue(int delay, Clock clock, MessageArena arena) {
+        this(delay, clock, arena, null);
+    }
+
+    /**
+     * Create a new TimeDelayQueue with a lane per message type
+     *
+     * <p>
+     *     Each type in laneWeights gets a lane of its own, and messages of
+     *     every other type share one more lane of weight 1. Within a lane,
+     *     messages are delivered in timestamp order. Among the lanes whose
+     *     head is ready, delivery is by deficit round-robin: a lane, on its
+     *     turn, delivers up to its weight in messages before the turn passes
+     *     to the next lane with a ready message, so under a flood of one type
+     *     the other lanes still get their share. No message is ever delivered
+     *     before its delay has passed.
+     * </p>
+     *
+     * @param delay       the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param clock       the source of the current time
+     * @param arena       the arena in which to store queued messages,
+     *                    or null to keep them on the Java heap
+     * @param laneWeights the weight, > 0, of each type given a lane of its own,
+     *                    or null to deliver every message in timestamp order
+     * throws IllegalArgumentException if a weight is null or <= 0
+     */
+    public TimeDelayQueue(int delay, Clock clock, MessageArena arena,
+                          Map<MessageType, Integer> laneWeights) {
+        this(delay, OperationLog.DEFAULT_RETENTION, false,
+            IdWindow.DEFAULT_HORIZON, IdWindow.DEFAULT_CAPACITY, clock, arena, laneWeights);
+    }
+
+    private TimeDelayQueue(int delay, int logRetention, boolean offHeapLog,
+                           long dedupHorizon, int dedupCapacity, Clock clock, MessageArena arena,
+                           Map<MessageType, Integer> laneWeights) {
+        this.clock = clock;
+        this.arena = arena;
+        long now = clock.millis();
+        int lanes = laneWeights == null ? 1 : laneWeights.size() + 1;
+        weights = new int[lanes];
+        if (laneWeights != null) {
+            for (Map.Entry<MessageType, Integer> entry : laneWeights.entrySet()) {
+                Integer weight = entry.getValue();
+                if (weight == null || weight <= 0) {
+                    throw new IllegalArgumentException();
+                }
+                weights[laneOf.size()] = weight;
+                laneOf.put(entry.getKey(), laneOf.size());
+            }
+        }
+        weights[lanes - 1] = 1;
+        latencies = new LatencyHistogram[lanes];
+        for (int l = 0; l < lanes; l++) {
+            latencies[l] = new LatencyHistogram();
+        }
+        heap = new MessageHeap(lanes);
+        expiries = new ExpiryWheel(heap, now);
         this.delay = delay;
-        ids = new HashSet<>();
+        ids = new IdWindow(dedupHorizon, dedupCapacity, now);
         count=new AtomicInteger(0);
-        operations = Collections.synchronizedList(new ArrayList<>());
+        operations = new OperationLog(logRetention, offHeapLog);
     }
 
     /**
      * add a message to the TimeDelayQueue
-     * if a message with the same id exists then
-     * return false
+     * if a message with the same id is queued, or left
+     * the queue within the dedup horizon, then return false
      *
      * @return if add successfully
      */
     public boolean add(PubSubMessage msg) {
-        if(ids.contains(msg.getId())){
-            return false;
+        lock.lock();
+        try {
+            long now = clock.millis();
+            expire(now);
+            int head = heap.peek();
+            if (!enqueue(msg, now)) {
+                return false;
+            }
+            if (heap.peek() != head) {
+                // a new head may be ready sooner than the one being waited for
+                leader = null;
+                available.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * add every message of msgs to the TimeDelayQueue in one pass;
+     * messages whose id already exists are skipped
+     *
+     * @param msgs the messages to add
+     * @return the number of messages added
+     */
+    public int addAll(Collection<PubSubMessage> msgs) {
+        lock.lock();
+        try {
+            long now = clock.millis();
+            expire(now);
+            int head = heap.peek();
+            int added = 0;
+            for (PubSubMessage msg : msgs) {
+                if (enqueue(msg, now)) {
+                    added++;
+                }
+            }
+            if (heap.peek() != head) {
+                leader = null;
+                available.signal();
+            }
+            return added;
+        } finally {
+            lock.unlock();
         }
-        operations.add(msg.getTimestamp());
-        timeDelayQueue.add(msg);
-        countt=count.incrementAndGet();
-        ids.add(msg.getId());
+    }
+
+    /**
+     * add a message that is already stored in the arena of this queue,
+     * taking over one of its references
+     *
+     * <p>
+     *     This lets one stored copy of a message be delivered through many
+     *     queues. Unlike add, the id of the message is not checked against
+     *     the ids seen by this queue, so the caller is responsible for not
+     *     adding the same message twice.
+     * </p>
+     *
+     * @param handle the handle of a message stored in the arena of this queue
+     * throws IllegalStateException if this queue does not keep its messages in an arena
+     * throws IllegalArgumentException if handle names no stored message
+     */
+    public void addStored(long handle) {
+        if (arena == null) {
+            throw new IllegalStateException();
+        }
+        lock.lock();
         try {
-            Thread.sleep(1);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            long now = clock.millis();
+            expire(now);
+            int head = heap.peek();
+            insert(arena.view(handle), handle, now);
+            if (heap.peek() != head) {
+                leader = null;
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove every message from the TimeDelayQueue without delivering it,
+     * releasing the messages it keeps in an arena
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            long now = clock.millis();
+            for (int slot = heap.peek(); slot != MessageHeap.NONE; slot = heap.peek()) {
+                heap.remove(slot);
+                expiries.cancel(slot);
+                discard(slot, now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get every message waiting in the TimeDelayQueue, ready or not,
+     * without removing any; expired transient messages are discarded first
+     *
+     * @return the waiting messages, in no particular order
+     */
+    public List<PubSubMessage> snapshot() {
+        lock.lock();
+        try {
+            expire(clock.millis());
+            List<PubSubMessage> msgs = new ArrayList<>(heap.size());
+            for (int lane = 0; lane < heap.laneCount(); lane++) {
+                for (int i = 0; i < heap.size(lane); i++) {
+                    int slot = heap.slot(lane, i);
+                    msgs.add(arena == null ? heap.message(slot) : arena.view(heap.handle(slot)));
+                }
+            }
+            return msgs;
+        } finally {
+            lock.unlock();
         }
-        return true;
     }
 
     /**
@@ -65,7 +345,7 @@ public class TimeDelayQueue {
      * @return count
      */
     public long getTotalMsgCount() {
-        return countt;
+        return count.get();
     }
 
     /**
@@ -75,25 +355,294 @@ public class TimeDelayQueue {
      * if there is ni suitable message
      */
     public PubSubMessage getNext() {
-        if (!timeDelayQueue.isEmpty()) {
-            Timestamp nowTime = new Timestamp(System.currentTimeMillis());
-            while (timeDelayQueue.peek().isTransient() &&
-                    nowTime.getTime()-timeDelayQueue.peek().getTimestamp().getTime()
-                            >((TransientPubSubMessage) timeDelayQueue.peek()).getLifetime()) {
-                timeDelayQueue.remove(timeDelayQueue.peek());
+        lock.lock();
+        try {
+            long now = clock.millis();
+            expire(now);
+            int lane = nextLane(now);
+            if (lane != MessageHeap.NONE) {
+                return poll(lane, now);
             }
-            assert timeDelayQueue.peek() != null;
-            if (nowTime.getTime()-timeDelayQueue.peek().getTimestamp().getTime()>delay) {
-                operations.add(nowTime);
-                return timeDelayQueue.poll();
+            return PubSubMessage.NO_MSG;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove up to max ready messages, in delivery order,
+     * and add them to sink in one pass
+     *
+     * @param sink the collection to receive the messages
+     * @param max  the maximum number of messages to remove, >= 0
+     * @return the number of messages removed
+     */
+    public int drainReady(Collection<? super PubSubMessage> sink, int max) {
+        lock.lock();
+        try {
+            long now = clock.millis();
+            expire(now);
+            int drained = 0;
+            while (drained < max) {
+                int lane = nextLane(now);
+                if (lane == MessageHeap.NONE) {
+                    break;
+                }
+                sink.add(poll(lane, now));
+                drained++;
             }
+            return drained;
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * Get the next message, waiting if necessary until
+     * a message becomes ready or the timeout elapses
+     *
+     * @param timeout how long to wait before giving up, in units of unit
+     * @param unit    the unit of timeout
+     * @return the next message and PubSubMessage.NO_MSG
+     * if no message became ready before the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public PubSubMessage getNext(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(unit.toNanos(timeout), true);
+    }
+
+    /**
+     * Get the next message, waiting if necessary until
+     * a message becomes ready
+     *
+     * @return the next message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public PubSubMessage take() throws InterruptedException {
+        return await(0, false);
+    }
+
+    /**
+     * wait until the head of the queue becomes ready; only one waiting
+     * thread (the leader) sleeps until the head's ready time, the others
+     * wait until they are signalled
+     * waits are measured in real time even if clock is virtual, so a
+     * waiter sees a virtual clock move at the latest when its wait ends
+     *
+     * @param nanos the longest time to wait if timed
+     * @param timed true if nanos bounds the wait
+     * @return the next message, or PubSubMessage.NO_MSG on timeout
+     */
+    private PubSubMessage await(long nanos, boolean timed) throws InterruptedException {
+        lock.lockInterruptibly();
         try {
-            Thread.sleep(1);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            while (true) {
+                long now = clock.millis();
+                int head = peekLive(now);
+                long wait;
+                if (head == MessageHeap.NONE) {
+                    wait = Long.MAX_VALUE;
+                } else {
+                    long readyTime = readyTime(head);
+                    if (readyTime <= now) {
+                        return poll(nextLane(now), now);
+                    }
+                    wait = TimeUnit.MILLISECONDS.toNanos(readyTime - now);
+                }
+                if (timed && nanos <= 0) {
+                    return PubSubMessage.NO_MSG;
+                }
+                if (head == MessageHeap.NONE || leader != null) {
+                    if (timed) {
+                        nanos = available.awaitNanos(nanos);
+                    } else {
+                        available.await();
+                    }
+                } else {
+                    Thread thisThread = Thread.currentThread();
+                    leader = thisThread;
+                    try {
+                        long bound = timed ? Math.min(nanos, wait) : wait;
+                        long left = available.awaitNanos(bound);
+                        if (timed) {
+                            nanos -= bound - left;
+                        }
+                    } finally {
+                        if (leader == thisThread) {
+                            leader = null;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (leader == null && heap.size() > 0) {
+                available.signal();
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * add msg unless a message with the same id exists;
+     * the caller must hold lock
+     *
+     * @param msg the message to add
+     * @param now the current time in milliseconds
+     * @return false if a message with the same id exists, and true otherwise
+     */
+    private boolean enqueue(PubSubMessage msg, long now) {
+        if (!ids.add(msg.getId(), now)) {
+            return false;
+        }
+        insert(msg, arena == null ? 0 : arena.store(msg), now);
+        return true;
+    }
+
+    /**
+     * add msg to the heap, and schedule its expiry if it is transient;
+     * the caller must hold lock
+     *
+     * @param msg    the message to add
+     * @param handle the handle of msg in arena, if arena is not null
+     * @param now    the current time in milliseconds
+     */
+    private void insert(PubSubMessage msg, long handle, long now) {
+        operations.record(now);
+        count.incrementAndGet();
+        long time = msg.getTimestampMillis();
+        long expiry = Long.MAX_VALUE;
+        if (msg.isTransient()) {
+            expiry = time + msg.lifetime() + 1;
+        }
+        int lane = weights.length - 1;
+        if (lane > 0) {
+            lane = laneOf.getOrDefault(msg.getType(), lane);
+        }
+        int slot = arena == null ? heap.allocate(msg, time, expiry, lane)
+            : heap.allocate(handle, time, expiry, lane);
+        if (expiry == Long.MAX_VALUE || expiries.schedule(slot)) {
+            heap.add(slot);
+        } else {
+            // a transient message that has already expired is counted but not kept
+            discard(slot, now);
         }
-        return PubSubMessage.NO_MSG;
+    }
+
+    /**
+     * discard every expired transient message;
+     * the caller must hold lock
+     *
+     * @param now the current time in milliseconds
+     */
+    private void expire(long now) {
+        int slot = expiries.advance(now);
+        while (slot != MessageHeap.NONE) {
+            int next = expiries.nextExpired(slot);
+            heap.remove(slot);
+            discard(slot, now);
+            slot = next;
+        }
+    }
+
+    /**
+     * discard expired transient messages and find the head of the queue;
+     * the caller must hold lock
+     *
+     * @param now the current time in milliseconds
+     * @return the slot of the earliest message of the queue,
+     * or MessageHeap.NONE if the queue is empty
+     */
+    private int peekLive(long now) {
+        expire(now);
+        return heap.peek();
+    }
+
+    /**
+     * choose, by deficit round-robin, the lane to deliver from next;
+     * the caller must hold lock
+     *
+     * @param now the current time in milliseconds
+     * @return the lane whose head is to be delivered, or MessageHeap.NONE
+     * if no message is ready; some lane is returned whenever one is ready
+     */
+    private int nextLane(long now) {
+        for (int i = 0; i <= weights.length; i++) {
+            int head = heap.peek(turn);
+            if (head != MessageHeap.NONE && readyTime(head) <= now) {
+                int lane = turn;
+                if (credit == 0) {
+                    credit = weights[lane];
+                }
+                if (--credit == 0) {
+                    turn = (turn + 1) % weights.length;
+                }
+                return lane;
+            }
+            // a lane with nothing ready gives up its turn and keeps no credit
+            credit = 0;
+            turn = (turn + 1) % weights.length;
+        }
+        return MessageHeap.NONE;
+    }
+
+    /**
+     * remove the head of a lane, log the delivery and record its latency;
+     * the caller must hold lock
+     *
+     * @param lane a lane whose head is ready
+     * @param now  the current time in milliseconds
+     * @return the message at the head of lane
+     */
+    private PubSubMessage poll(int lane, long now) {
+        int head = heap.peek(lane);
+        latencies[lane].record(now - readyTime(head));
+        heap.remove(head);
+        expiries.cancel(head);
+        PubSubMessage msg = arena == null ? heap.message(head) : arena.view(heap.handle(head));
+        if (ids.hasQueued()) {
+            ids.release(msg.getId(), now);
+        }
+        free(head);
+        operations.record(now);
+        return msg;
+    }
+
+    /**
+     * free a slot that is not in the heap without delivering its message,
+     * whose id is then remembered as released;
+     * the caller must hold lock
+     *
+     * @param slot an allocated slot
+     * @param now  the current time in milliseconds
+     */
+    private void discard(int slot, long now) {
+        if (ids.hasQueued()) {
+            PubSubMessage msg = arena == null ? heap.message(slot) : arena.view(heap.handle(slot));
+            ids.release(msg.getId(), now);
+        }
+        free(slot);
+    }
+
+    /**
+     * free a slot that is not in the heap, releasing its message from arena;
+     * the caller must hold lock
+     *
+     * @param slot an allocated slot
+     */
+    private void free(int slot) {
+        if (arena != null) {
+            arena.release(heap.handle(slot));
+        }
+        heap.free(slot);
+    }
+
+    /**
+     * @param slot a slot in the heap
+     * @return the earliest time, in milliseconds, at which its message may be
+     * delivered: a message is ready once more than delay has passed since its timestamp
+     */
+    private long readyTime(int slot) {
+        return heap.time(slot) + delay + 1;
     }
 
     /**
@@ -102,41 +651,71 @@ public class TimeDelayQueue {
      * any window of length timeWindow
      * the operations of interest are add and getNext
      *
-     * @return the number of operations
+     * <p>
+     *     The first call for a given window length sweeps the
+     *     operation log once; the result is then kept up to date
+     *     as operations happen, so later calls for the same window
+     *     length take constant time. Only the operations retained
+     *     by the operation log are considered.
+     * </p>
+     *
+     * @param timeWindow the length of the window in milliseconds, >= 0
+     * @return the number of operations, 0 if no operation was performed
      */
     public int getPeakLoad(int timeWindow) {
-        List<Integer> numbers = new ArrayList<>();
-        long start = operations.get(0).getTime();
-        long end = operations.get(operations.size()-1).getTime();
-        if((start+timeWindow) >= end){
-            return operations.size();
-        }
-        for (long i = start; i <= end-timeWindow; i++) {
-            int number = 0;
-            for (Timestamp t : operations) {
-                if(t.getTime()>=i && t.getTime()<=i+timeWindow){
-                    number++;
-                }
-            }
-            numbers.add(number);
-        }
-        return Collections.max(numbers);
+        return operations.peakLoad(timeWindow);
+    }
+
+    /**
+     * Get the times of the most recent operations performed
+     * on this TimeDelayQueue, as retained by its operation log
+     *
+     * @return the operation times in milliseconds, oldest first
+     */
+    public long[] getOperationTimes() {
+        return operations.snapshot();
     }
 
-    /** a comparator to sort messages*/
-    private class PubSubMessageComparator implements Comparator<PubSubMessage> {
-        public int compare(PubSubMessage msg1, PubSubMessage msg2) {
-            return msg1.getTimestamp().compareTo(msg2.getTimestamp());
+    /**
+     * Get how long delivered messages of a type waited after they became ready
+     *
+     * <p>
+     *     Latencies are kept per lane, so for a type without a lane of its
+     *     own this covers every type that shares its lane, and for a queue
+     *     without lanes it covers every message. Latencies are measured by
+     *     the clock of the queue to within about 3%.
+     * </p>
+     *
+     * @param type       the type of message
+     * @param percentile the percentile to read, 0 <= percentile <= 100
+     * @return the least latency in milliseconds not exceeded by percentile
+     * percent of the delivered messages of the lane of type, or 0 if none
+     * was delivered
+     * throws IllegalArgumentException if percentile is out of range
+     */
+    public long getLatencyPercentile(MessageType type, double percentile) {
+        lock.lock();
+        try {
+            return latencies[laneOf.getOrDefault(type, weights.length - 1)].percentile(percentile);
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Get the count of the total number of messages in TimeDelayQueue
+     * Get the count of the total number of messages in TimeDelayQueue,
+     * not counting transient messages that have expired
      *
      * @return size
      */
     public int getSize(){
-        return timeDelayQueue.size();
+        lock.lock();
+        try {
+            expire(clock.millis());
+            return heap.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+package timedelayqueue;
+
+import java.io.Reader;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A TransientArenaMessage is a flyweight view of a transient message
+ * stored in a MessageArena; every field is decoded from the arena when
+ * it is read.
+ */
+final class TransientArenaMessage extends TransientPubSubMessage {
+    // Rep invariants:
+    //   record != null and holds a transient message
+    // Abstraction function:
+    //   represents the transient message held by record
+    // Thread safety argument:
+    //   record is final and thread-safe
+
+    private final ArenaRecord record;
+
+    TransientArenaMessage(ArenaRecord record) {
+        this.record = record;
+    }
+
+    @Override
+    public UUID getId() {
+        return record.id();
+    }
+
+    @Override
+    public Timestamp getTimestamp() {
+        return new Timestamp(record.timestampMillis());
+    }
+
+    @Override
+    public long getTimestampMillis() {
+        return record.timestampMillis();
+    }
+
+    @Override
+    public String getContent() {
+        return record.content();
+    }
+
+    @Override
+    Reader contentReader() {
+        return record.contentReader();
+    }
+
+    @Override
+    public MessageType getType() {
+        return record.type();
+    }
+
+    @Override
+    public UUID getSender() {
+        return record.sender();
+    }
+
+    @Override
+    public List<UUID> getReceiver() {
+        return record.receivers();
+    }
+
+    @Override
+    public int getLifetime() {
+        return record.lifetime();
+    }
+}
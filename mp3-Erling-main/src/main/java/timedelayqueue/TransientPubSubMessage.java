@@ -22,6 +22,11 @@ public class TransientPubSubMessage extends PubSubMessage {
         this.lifetime = lifetime;
     }
 
+    // create a view whose subclass supplies every field through the getters
+    TransientPubSubMessage() {
+        this.lifetime = 0;
+    }
+
     public TransientPubSubMessage(UUID sender, List<UUID> receiver, String content, int lifetime) {
         super(sender, receiver, content);
         this.lifetime = lifetime;
@@ -32,10 +37,25 @@ public class TransientPubSubMessage extends PubSubMessage {
         this.lifetime = lifetime;
     }
 
+    public TransientPubSubMessage(Clock clock, UUID sender, List<UUID> receiver, String content, int lifetime) {
+        super(clock, sender, receiver, content);
+        this.lifetime = lifetime;
+    }
+
+    public TransientPubSubMessage(Clock clock, UUID sender, UUID receiver, String content, int lifetime) {
+        super(clock, sender, receiver, content);
+        this.lifetime = lifetime;
+    }
+
     public int getLifetime() {
         return lifetime;
     }
 
+    @Override
+    int lifetime() {
+        return getLifetime();
+    }
+
     @Override
     public boolean isTransient() {
         return isTransient;
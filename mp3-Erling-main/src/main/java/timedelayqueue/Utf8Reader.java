@@ -0,0 +1,92 @@
+package timedelayqueue;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+/**
+ * A Utf8Reader reads the characters of a run of UTF-8 bytes in a
+ * ByteBuffer, decoding them as they are read.
+ *
+ * <p>
+ *     Only absolute gets are used, so the buffer's position is never
+ *     touched and many readers may share a buffer.
+ * </p>
+ */
+final class Utf8Reader extends Reader {
+    // Rep invariants:
+    //   start <= index <= end <= buf.limit()
+    //   pending is a low surrogate whose high surrogate was the last
+    //   char read, or -1
+    // Abstraction function:
+    //   represents the characters encoded by buf[index..end), preceded by
+    //   pending if pending != -1
+    // Thread safety argument:
+    //   not thread-safe; a reader is used by one thread
+
+    private final ByteBuffer buf;
+    private final int end;
+    private int index;
+    private int pending = -1;
+
+    /**
+     * @param buf    the buffer holding the bytes
+     * @param start  the index of the first byte
+     * @param length the number of bytes
+     */
+    Utf8Reader(ByteBuffer buf, int start, int length) {
+        this.buf = buf;
+        this.index = start;
+        this.end = start + length;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (pending >= 0) {
+            cbuf[off + n++] = (char) pending;
+            pending = -1;
+        }
+        while (n < len && index < end) {
+            int b = buf.get(index++);
+            if (b >= 0) {
+                cbuf[off + n++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                cbuf[off + n++] = (char) ((b & 0x1F) << 6 | continuation());
+            } else if ((b & 0xF0) == 0xE0) {
+                int c = (b & 0x0F) << 12 | continuation() << 6;
+                cbuf[off + n++] = (char) (c | continuation());
+            } else if ((b & 0xF8) == 0xF0) {
+                int cp = (b & 0x07) << 18 | continuation() << 12;
+                cp |= continuation() << 6;
+                cp |= continuation();
+                cbuf[off + n++] = Character.highSurrogate(cp);
+                if (n < len) {
+                    cbuf[off + n++] = Character.lowSurrogate(cp);
+                } else {
+                    pending = Character.lowSurrogate(cp);
+                }
+            } else {
+                throw new IllegalArgumentException("malformed UTF-8");
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    private int continuation() {
+        if (index >= end) {
+            throw new IllegalArgumentException("malformed UTF-8");
+        }
+        int b = buf.get(index++);
+        if ((b & 0xC0) != 0x80) {
+            throw new IllegalArgumentException("malformed UTF-8");
+        }
+        return b & 0x3F;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,63 @@
+package timedelayqueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A VirtualClock is a Clock whose time only changes
+ * when it is explicitly set or advanced.
+ *
+ * <p>
+ *     Time never moves backwards: setting the clock to an earlier
+ *     time than it shows has no effect.
+ * </p>
+ */
+public class VirtualClock implements Clock {
+    // Rep invariant:
+    //   now != null, and now never decreases
+    // Abstraction function:
+    //   represents a clock that reads now.get() milliseconds since the epoch
+    // Thread safety argument:
+    //   now is an AtomicLong updated with compare-and-set
+
+    private final AtomicLong now;
+
+    /**
+     * Create a new VirtualClock
+     *
+     * @param start the initial time in milliseconds since the epoch
+     */
+    public VirtualClock(long start) {
+        now = new AtomicLong(start);
+    }
+
+    @Override
+    public long millis() {
+        return now.get();
+    }
+
+    /**
+     * move the clock forward
+     *
+     * @param millis the number of milliseconds to advance by, >= 0
+     * @return the new time in milliseconds
+     * throws IllegalArgumentException if millis < 0
+     */
+    public long advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException();
+        }
+        return now.addAndGet(millis);
+    }
+
+    /**
+     * move the clock forward to a given time
+     *
+     * @param time the time in milliseconds since the epoch
+     * @return the new time in milliseconds, which is time unless
+     * the clock was already later than time
+     */
+    public long advanceTo(long time) {
+        return now.accumulateAndGet(time, Math::max);
+    }
+
+}
@@ -0,0 +1,132 @@
+package timedelayqueue;
+
+/**
+ * XXHash64 computes the 64-bit xxHash of byte arrays and of the
+ * UTF-16LE encoding of character sequences.
+ *
+ * <p>
+ *     Hashing a character sequence reads its chars directly, so
+ *     content can be hashed without first being encoded to bytes.
+ * </p>
+ */
+final class XXHash64 {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private XXHash64() {
+    }
+
+    /**
+     * @param bytes the bytes to hash
+     * @param seed  the seed of the hash
+     * @return the xxHash64 of bytes
+     */
+    static long hash(byte[] bytes, long seed) {
+        return hash(new Input() {
+            long lane(int i) {
+                long v = 0;
+                for (int k = 7; k >= 0; k--) {
+                    v = v << 8 | (bytes[i + k] & 0xFFL);
+                }
+                return v;
+            }
+
+            int unit(int i) {
+                return bytes[i] & 0xFF;
+            }
+        }, bytes.length, seed);
+    }
+
+    /**
+     * @param chars the characters to hash
+     * @param seed  the seed of the hash
+     * @return the xxHash64 of the UTF-16LE encoding of chars
+     */
+    static long hash(CharSequence chars, long seed) {
+        return hash(new Input() {
+            long lane(int i) {
+                int c = i >> 1;
+                return chars.charAt(c) | (long) chars.charAt(c + 1) << 16
+                    | (long) chars.charAt(c + 2) << 32 | (long) chars.charAt(c + 3) << 48;
+            }
+
+            int unit(int i) {
+                char c = chars.charAt(i >> 1);
+                return (i & 1) == 0 ? c & 0xFF : c >>> 8;
+            }
+        }, 2 * chars.length(), seed);
+    }
+
+    /** little-endian access to the bytes being hashed */
+    private abstract static class Input {
+        /** @return the 8 bytes at i, an even offset, as a little-endian long */
+        abstract long lane(int i);
+
+        /** @return the byte at i */
+        abstract int unit(int i);
+
+        long word(int i) {
+            return unit(i) | (long) unit(i + 1) << 8 | (long) unit(i + 2) << 16 | (long) unit(i + 3) << 24;
+        }
+    }
+
+    private static long hash(Input in, int length, long seed) {
+        int i = 0;
+        long h;
+        if (length >= 32) {
+            long v1 = seed + P1 + P2;
+            long v2 = seed + P2;
+            long v3 = seed;
+            long v4 = seed - P1;
+            for (; i <= length - 32; i += 32) {
+                v1 = round(v1, in.lane(i));
+                v2 = round(v2, in.lane(i + 8));
+                v3 = round(v3, in.lane(i + 16));
+                v4 = round(v4, in.lane(i + 24));
+            }
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += length;
+        for (; i <= length - 8; i += 8) {
+            h ^= round(0, in.lane(i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i <= length - 4) {
+            h ^= in.word(i) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < length; i++) {
+            h ^= in.unit(i) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long lane) {
+        acc += lane * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long h, long v) {
+        h ^= round(0, v);
+        return h * P1 + P4;
+    }
+}
@@ -79,7 +79,7 @@ public class TwitterListener {
      *
      * @return true if the user exists, otherwise false
      */
-    private boolean isValidUser(String twitterUserName) {
+    public boolean isValidUser(String twitterUserName) {
         try{
             twitter.getUserFromUserName(twitterUserName);
             return true;
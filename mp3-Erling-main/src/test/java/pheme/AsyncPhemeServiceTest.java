@@ -0,0 +1,83 @@
+package pheme;
+
+import org.junit.jupiter.api.Test;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.VirtualClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncPhemeServiceTest {
+
+    @Test
+    public void testCallsOnGivenExecutor() throws Exception {
+        StandInTweetSource source = new StandInTweetSource();
+        source.create("UBC");
+        VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AsyncPhemeService srv = new AsyncPhemeService(new PhemeService(source, clock, false), executor);
+            UUID alice = UUID.randomUUID();
+            UUID bob = UUID.randomUUID();
+            assertTrue(srv.addUserAsync(alice, "alice", "a").get());
+            assertTrue(srv.addUserAsync(bob, "bob", "b").get());
+            assertFalse(srv.addUserAsync(UUID.randomUUID(), "bob", "b").get());
+            assertTrue(srv.addSubscriptionAsync("bob", "b", "UBC", "exam").get());
+            assertTrue(srv.cancelSubscriptionAsync("bob", "b", "UBC").get());
+            // a call that throws completes its future exceptionally
+            ExecutionException thrown = assertThrows(ExecutionException.class,
+                () -> srv.addSubscriptionAsync("bob", "b", "nobody").get());
+            assertTrue(thrown.getCause() instanceof IllegalArgumentException);
+            thrown = assertThrows(ExecutionException.class, () -> srv.getNextAsync("bob", "wrong").get());
+            assertTrue(thrown.getCause() instanceof IllegalArgumentException);
+            Throwable handled = srv.getNextAsync("bob", "wrong").handle((msg, e) -> e).get();
+            assertTrue(handled instanceof IllegalArgumentException, String.valueOf(handled));
+
+            // many requests in flight on two threads
+            List<CompletableFuture<Boolean>> sent = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                sent.add(srv.sendMessageAsync("alice", "a", new PubSubMessage(clock, alice, bob, "hi " + i)));
+            }
+            CompletableFuture.allOf(sent.toArray(CompletableFuture<?>[]::new)).get();
+            for (CompletableFuture<Boolean> f : sent) {
+                assertTrue(f.get());
+            }
+            clock.advance(2 * PhemeService.DELAY);
+            PubSubMessage first = srv.getNextAsync("bob", "b").get();
+            assertEquals(List.of(true), srv.isDeliveredAsync(first.getId(), List.of(bob)).get());
+            assertTrue(srv.isDeliveredAsync(first.getId(), bob).get());
+            assertEquals(999, srv.getAllRecentAsync("bob", "b").get().size());
+            assertTrue(srv.removeUserAsync("bob", "b").get());
+            assertFalse(srv.isUserAsync("bob").get());
+            srv.shutdown();
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDefaultExecutor() throws Exception {
+        AsyncPhemeService srv = new AsyncPhemeService(
+            new PhemeService(new StandInTweetSource(), new VirtualClock(0), false));
+        try {
+            List<CompletableFuture<Boolean>> added = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                added.add(srv.addUserAsync(UUID.randomUUID(), "user" + i, "pwd"));
+            }
+            for (CompletableFuture<Boolean> f : added) {
+                assertTrue(f.get());
+            }
+            assertTrue(srv.isUserAsync("user499").get());
+        } finally {
+            srv.shutdown();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package pheme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeliveryBitmapTest {
+
+    @Test
+    public void testAddAndContains() {
+        DeliveryBitmap bitmap = new DeliveryBitmap();
+        Set<Integer> expected = new HashSet<>();
+        Random random = new Random(19);
+        for (int i = 0; i < 20_000; i++) {
+            // a mix of chunks that stay arrays and chunks that become bitmaps
+            int value = random.nextBoolean() ? random.nextInt(3 << 16) : random.nextInt(Integer.MAX_VALUE);
+            assertEquals(expected.add(value), bitmap.add(value));
+        }
+        assertEquals(expected.size(), bitmap.cardinality());
+        for (int value : expected) {
+            assertTrue(bitmap.contains(value));
+        }
+        for (int i = 0; i < 20_000; i++) {
+            int value = random.nextInt(Integer.MAX_VALUE);
+            assertEquals(expected.contains(value), bitmap.contains(value));
+        }
+        assertFalse(bitmap.contains(-1));
+        assertThrows(IllegalArgumentException.class, () -> bitmap.add(-1));
+    }
+
+    @Test
+    public void testArrayBecomesBitmap() {
+        DeliveryBitmap bitmap = new DeliveryBitmap();
+        for (int i = 0; i < DeliveryBitmap.ARRAY_MAX; i++) {
+            assertTrue(bitmap.add(i * 2));
+        }
+        long asArray = bitmap.footprint();
+        assertTrue(asArray < 3 * DeliveryBitmap.ARRAY_MAX, String.valueOf(asArray));
+        assertTrue(bitmap.add(1));
+        assertFalse(bitmap.add(1));
+        // a full array and a bitmap both take 8 KiB, so converting costs nothing
+        assertEquals(asArray, bitmap.footprint());
+        assertEquals(DeliveryBitmap.ARRAY_MAX + 1, bitmap.cardinality());
+        assertTrue(bitmap.contains(1) && bitmap.contains(0) && bitmap.contains(8190));
+        assertFalse(bitmap.contains(3));
+    }
+
+    @Test
+    public void testDenseFootprint() {
+        DeliveryBitmap bitmap = new DeliveryBitmap();
+        int n = 1_000_000;
+        for (int i = 0; i < n; i++) {
+            bitmap.add(i);
+        }
+        assertEquals(n, bitmap.cardinality());
+        // one bit per message, plus headers, against 16 bytes for a bare UUID
+        assertTrue(bitmap.footprint() < n / 8 + 8192, String.valueOf(bitmap.footprint()));
+    }
+
+    @Test
+    public void testLongValuesAndRemoveBelow() {
+        DeliveryBitmap bitmap = new DeliveryBitmap();
+        long base = 1L << 40;
+        for (long i = 0; i < 5 << 16; i += 7) {
+            assertTrue(bitmap.add(base + i));
+        }
+        long before = bitmap.cardinality();
+        assertTrue(bitmap.contains(base + 7) && !bitmap.contains(base + 8));
+        assertTrue(bitmap.add(Integer.MAX_VALUE + 1L));
+        bitmap.removeBelow(base + (2 << 16) + 5);
+        // whole chunks below the floor are dropped, its own chunk is kept
+        assertFalse(bitmap.contains(Integer.MAX_VALUE + 1L));
+        assertFalse(bitmap.contains(base + 7));
+        assertTrue(bitmap.contains(base + (2 << 16) + 3));
+        long kept = 0;
+        for (long i = 0; i < 5 << 16; i += 7) {
+            if (i >= 2 << 16) {
+                kept++;
+            }
+        }
+        assertEquals(kept, bitmap.cardinality());
+        assertTrue(kept < before);
+        List<Long> values = new ArrayList<>();
+        bitmap.forEach(values::add);
+        assertEquals(kept, values.size());
+        assertEquals(base + 131075, (long) values.get(0));
+    }
+}
@@ -0,0 +1,65 @@
+package pheme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageSequenceTest {
+
+    @Test
+    public void testNumbersOnce() {
+        MessageSequence seqs = new MessageSequence(800);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        assertEquals(MessageSequence.NONE, seqs.get(first));
+        assertEquals(0, seqs.number(first));
+        assertEquals(1, seqs.number(second));
+        assertEquals(0, seqs.number(first));
+        assertEquals(1, seqs.get(second));
+        assertEquals(2, seqs.size());
+        assertEquals(2L * MessageSequence.ENTRY_BYTES, seqs.footprint());
+    }
+
+    @Test
+    public void testForgetsAfterHorizon() {
+        MessageSequence seqs = new MessageSequence(800);
+        List<UUID> early = new ArrayList<>();
+        seqs.expire(0);
+        for (int i = 0; i < 10; i++) {
+            early.add(UUID.randomUUID());
+            seqs.number(early.get(i));
+        }
+        // every id numbered from 100 on is remembered a full horizon longer
+        assertFalse(seqs.expire(100));
+        UUID late = UUID.randomUUID();
+        assertEquals(10, seqs.number(late));
+        for (long now = 200; now < 800; now += 100) {
+            assertFalse(seqs.expire(now));
+        }
+        assertEquals(0, seqs.get(early.get(0)));
+        assertTrue(seqs.expire(900));
+        assertEquals(10, seqs.floor());
+        for (UUID id : early) {
+            assertEquals(MessageSequence.NONE, seqs.get(id));
+        }
+        assertEquals(10, seqs.get(late));
+        assertEquals(1, seqs.size());
+        // a forgotten id sent again is numbered again
+        assertEquals(11, seqs.number(early.get(0)));
+    }
+
+    @Test
+    public void testRestore() {
+        MessageSequence seqs = new MessageSequence(800);
+        UUID id = UUID.randomUUID();
+        seqs.restore(id, 3_000_000_000L);
+        seqs.restoreNext(3_000_000_001L);
+        assertEquals(3_000_000_000L, seqs.number(id));
+        assertEquals(3_000_000_001L, seqs.number(UUID.randomUUID()));
+        assertThrows(IllegalArgumentException.class, () -> new MessageSequence(0));
+    }
+}
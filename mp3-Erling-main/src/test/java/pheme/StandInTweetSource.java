@@ -0,0 +1,75 @@
+package pheme;
+
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the Twitter API: tweets are posted to it by the
+ * test, and it counts the fetches made of every account.
+ */
+class StandInTweetSource implements TweetSource {
+
+    private final Map<String, List<PubSubMessage>> timelines = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    /**
+     * make an account exist, with no tweets yet
+     */
+    void create(String account) {
+        timelines.putIfAbsent(account, new ArrayList<>());
+    }
+
+    /**
+     * post a tweet to an existing account
+     *
+     * @return the tweet, as getTweets returns it
+     */
+    PubSubMessage post(String account, String text, long time) {
+        int id = nextId.getAndIncrement();
+        UUID author = new UUID(account.hashCode(), account.hashCode());
+        PubSubMessage tweet = new PubSubMessage(new UUID(id, id), new Timestamp(time), author,
+            PubSubMessage.ZERO_UUID, text, BasicMessageType.TWEET);
+        List<PubSubMessage> timeline = timelines.get(account);
+        synchronized (timeline) {
+            timeline.add(tweet);
+        }
+        return tweet;
+    }
+
+    int fetches(String account) {
+        AtomicInteger n = fetches.get(account);
+        return n == null ? 0 : n.get();
+    }
+
+    @Override
+    public boolean exists(String account) {
+        return timelines.containsKey(account);
+    }
+
+    @Override
+    public List<PubSubMessage> getTweets(String account, long since, long until) {
+        List<PubSubMessage> timeline = timelines.get(account);
+        if (timeline == null) {
+            throw new IllegalArgumentException();
+        }
+        fetches.computeIfAbsent(account, a -> new AtomicInteger()).incrementAndGet();
+        List<PubSubMessage> tweets = new ArrayList<>();
+        synchronized (timeline) {
+            for (PubSubMessage tweet : timeline) {
+                if (tweet.getTimestampMillis() >= since && tweet.getTimestampMillis() < until) {
+                    tweets.add(tweet);
+                }
+            }
+        }
+        return tweets;
+    }
+}
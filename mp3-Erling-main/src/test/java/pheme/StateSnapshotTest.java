@@ -0,0 +1,102 @@
+package pheme;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.VirtualClock;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateSnapshotTest {
+
+    @Test
+    public void testRoundTrip(@TempDir Path dir) {
+        StandInTweetSource source = new StandInTweetSource();
+        source.create("UBC");
+        VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+        PhemeService srv = new PhemeService(source, clock, false);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        UUID carol = UUID.randomUUID();
+        assertTrue(srv.addUser(alice, "alice", "a"));
+        assertTrue(srv.addUser(bob, "bob", "b"));
+        assertTrue(srv.addUser(carol, "carol", "c"));
+        assertTrue(srv.addSubscription("bob", "b", "UBC"));
+        assertTrue(srv.addSubscription("carol", "c", "UBC", "exam"));
+        assertTrue(srv.addSubscription("carol", "c", "UBC", "grad"));
+
+        PubSubMessage first = new PubSubMessage(clock, alice, List.of(bob, carol), "first");
+        PubSubMessage second = new PubSubMessage(clock, alice, List.of(bob, carol), "second " + "x".repeat(5000));
+        assertTrue(srv.sendMessage("alice", "a", first));
+        PubSubMessage tweet = source.post("UBC", "EXAM moved", clock.millis());
+        clock.advance(2 * PhemeService.DELAY);
+        assertEquals(first.getId(), srv.getNext("bob", "b").getId());
+        assertEquals(1, srv.ingestTweets());
+        assertTrue(srv.sendMessage("alice", "a", second));
+        srv.saveState(dir.toString());
+        assertFalse(Files.exists(dir.resolve(PhemeService.SNAPSHOT_FILE + ".tmp")));
+
+        PhemeService loaded = new PhemeService(source, clock, false);
+        assertTrue(loaded.loadState(dir.toString()));
+        assertThrows(IllegalStateException.class, () -> loaded.loadState(dir.toString()));
+        assertTrue(loaded.isUser("alice") && loaded.isUser("bob") && loaded.isUser("carol"));
+        assertThrows(IllegalArgumentException.class, () -> loaded.getNext("bob", "wrong"));
+        assertFalse(loaded.addSubscription("carol", "c", "UBC", "GRAD"));
+        assertTrue(loaded.cancelSubscription("carol", "c", "UBC", "exam"));
+        assertEquals(List.of(true, false), loaded.isDelivered(first.getId(), List.of(bob, carol)));
+
+        clock.advance(PhemeService.DELAY);
+        List<PubSubMessage> bobs = loaded.getAllRecent("bob", "b");
+        assertEquals(2, bobs.size());
+        List<PubSubMessage> carols = loaded.getAllRecent("carol", "c");
+        assertEquals(3, carols.size());
+        assertTrue(carols.contains(first) && carols.contains(second));
+        PubSubMessage again = bobs.get(0).equals(second) ? bobs.get(0) : bobs.get(1);
+        assertEquals(second.getContent(), again.getContent());
+        assertEquals(BasicMessageType.TWEET, (bobs.get(0).equals(second) ? bobs.get(1) : bobs.get(0)).getType());
+        assertEquals(List.of(true, true), loaded.isDelivered(tweet.getId(), List.of(bob, carol)));
+        assertEquals(List.of(true, true), loaded.isDelivered(first.getId(), List.of(bob, carol)));
+        assertEquals(6, loaded.getDeliveryStats().getDeliveries());
+
+        // the feed resumes where the saved service left off, so no tweet is queued twice
+        clock.advance(PhemeService.DELAY);
+        loaded.ingestTweets();
+        assertEquals(PubSubMessage.NO_MSG, loaded.getNext("bob", "b"));
+    }
+
+    @Test
+    public void testMissingAndCorruptSnapshot(@TempDir Path dir) throws Exception {
+        StandInTweetSource source = new StandInTweetSource();
+        VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+        assertFalse(new PhemeService(source, clock, false).loadState(dir.toString()));
+
+        PhemeService srv = new PhemeService(source, clock, false);
+        UUID alice = UUID.randomUUID();
+        srv.addUser(alice, "alice", "a");
+        srv.sendMessage("alice", "a", new PubSubMessage(clock, alice, List.of(alice), "note to self"));
+        srv.saveState(dir.toString());
+        Path file = dir.resolve(PhemeService.SNAPSHOT_FILE);
+        byte[] bytes = Files.readAllBytes(file);
+
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(UncheckedIOException.class, () -> new PhemeService(source, clock, false).loadState(dir.toString()));
+
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(UncheckedIOException.class, () -> new PhemeService(source, clock, false).loadState(dir.toString()));
+
+        Files.write(file, bytes);
+        PhemeService loaded = new PhemeService(source, clock, false);
+        assertTrue(loaded.loadState(dir.toString()));
+        clock.advance(2 * PhemeService.DELAY);
+        assertEquals("note to self", loaded.getNext("alice", "a").getContent());
+    }
+}
@@ -0,0 +1,113 @@
+package pheme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubscriptionRegistryTest {
+
+    @Test
+    public void testAddAndCancel() {
+        SubscriptionRegistry sub = new SubscriptionRegistry();
+        assertTrue(sub.add("alice", "UBC"));
+        assertFalse(sub.add("alice", "UBC"));
+        assertTrue(sub.add("alice", "SFU", "YES"));
+        assertFalse(sub.add("alice", "SFU", "yes"));
+        assertTrue(sub.add("alice", "SFU", "hi"));
+        assertTrue(sub.add("bob", "SFU"));
+        assertTrue(sub.contains("alice", "UBC"));
+        assertFalse(sub.contains("alice", "SFU"));
+        assertTrue(sub.contains("alice", "SFU", "Yes"));
+        assertEquals(3, sub.size());
+
+        assertFalse(sub.cancel("alice", "SFU", "no"));
+        assertTrue(sub.cancel("alice", "SFU", "YES"));
+        assertFalse(sub.contains("alice", "SFU", "yes"));
+        assertTrue(sub.cancel("alice", "SFU"));
+        assertFalse(sub.cancel("alice", "SFU"));
+        assertFalse(sub.cancel("carol", "SFU"));
+        assertFalse(sub.cancel("carol", "SFU", "hi"));
+        assertFalse(sub.cancelAll("alice", "SFU"));
+        assertTrue(sub.cancelAll("alice", "UBC"));
+        assertTrue(sub.subscriptions("alice").isEmpty());
+        assertEquals(1, sub.size());
+        sub.removeUser("bob");
+        assertEquals(0, sub.size());
+    }
+
+    @Test
+    public void testSubscriptionsSnapshot() {
+        SubscriptionRegistry sub = new SubscriptionRegistry();
+        sub.add("alice", "UBC", "exam");
+        sub.add("alice", "UBC");
+        sub.add("alice", "SFU", "hi");
+        sub.add("bob", "UofT");
+        Map<String, SubscriptionRegistry.Follow> follows = sub.subscriptions("alice");
+        assertEquals(List.of("SFU", "UBC"), new ArrayList<>(follows.keySet()));
+        assertTrue(follows.get("UBC").isAll());
+        assertEquals(Set.of("exam"), follows.get("UBC").getPatterns());
+        assertFalse(follows.get("SFU").isAll());
+        sub.cancel("alice", "UBC");
+        assertTrue(follows.get("UBC").isAll());
+        assertEquals(1, sub.subscriptions("alice").size());
+        assertThrows(UnsupportedOperationException.class, () -> follows.get("SFU").getPatterns().add("x"));
+    }
+
+    @Test
+    public void testFollowersByAccount() {
+        SubscriptionRegistry sub = new SubscriptionRegistry();
+        sub.add("alice", "UBC", "Exam");
+        sub.add("bob", "UBC");
+        sub.add("bob", "SFU");
+        assertEquals(Set.of("UBC", "SFU"), sub.accounts());
+        Map<String, SubscriptionRegistry.Follow> followers = sub.followers("UBC");
+        assertEquals(Set.of("alice", "bob"), followers.keySet());
+        assertTrue(followers.get("alice").matches("final exam today"));
+        assertFalse(followers.get("alice").matches("welcome"));
+        assertTrue(followers.get("bob").matches("welcome"));
+        sub.cancel("alice", "UBC", "exam");
+        assertEquals(Set.of("bob"), sub.followers("UBC").keySet());
+        sub.removeUser("bob");
+        assertTrue(sub.accounts().isEmpty());
+        assertFalse(sub.isFollowed("UBC"));
+        assertTrue(sub.followers("SFU").isEmpty());
+    }
+
+    @Test
+    public void testConcurrentDuplicates() throws InterruptedException {
+        SubscriptionRegistry sub = new SubscriptionRegistry();
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger cancelled = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (sub.add("user" + i % 10, "account" + i % 7, "p" + i % 13)) {
+                        added.incrementAndGet();
+                    }
+                    if (sub.cancel("user" + i % 10, "account" + i % 7, "p" + i % 11)) {
+                        cancelled.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int left = 0;
+        for (int u = 0; u < 10; u++) {
+            for (SubscriptionRegistry.Follow follow : sub.subscriptions("user" + u).values()) {
+                left += follow.getPatterns().size();
+            }
+        }
+        assertEquals(added.get() - cancelled.get(), left);
+    }
+}
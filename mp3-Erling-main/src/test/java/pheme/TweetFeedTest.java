@@ -0,0 +1,144 @@
+package pheme;
+
+import org.junit.jupiter.api.Test;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.VirtualClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TweetFeedTest {
+
+    @Test
+    public void testOneFetchPerAccountPerInterval() {
+        StandInTweetSource source = new StandInTweetSource();
+        source.create("UBC");
+        source.create("SFU");
+        SubscriptionRegistry subs = new SubscriptionRegistry();
+        for (int u = 0; u < 1000; u++) {
+            subs.add("user" + u, "UBC");
+        }
+        subs.add("user0", "SFU", "exam");
+        subs.add("user1", "SFU", "EXAM");
+        subs.add("user1", "SFU", "grad");
+        VirtualClock clock = new VirtualClock(10_000);
+        TweetFeed feed = new TweetFeed(source, subs, clock, 1000, 0);
+        source.post("UBC", "welcome back", 5_000);
+        source.post("SFU", "Exam schedule is out", 6_000);
+        source.post("SFU", "campus closed", 7_000);
+
+        Map<UUID, List<String>> delivered = new HashMap<>();
+        assertEquals(2, feed.poll((tweet, users) -> delivered.put(tweet.getId(), users)));
+        assertEquals(1, source.fetches("UBC"));
+        assertEquals(1, source.fetches("SFU"));
+        assertEquals(2, delivered.size());
+        List<String> sfu = new ArrayList<>();
+        List<String> ubc = new ArrayList<>();
+        for (List<String> users : delivered.values()) {
+            (users.size() == 1000 ? ubc : sfu).addAll(users);
+        }
+        assertEquals(1000, ubc.size());
+        assertEquals(2, sfu.size());
+        assertTrue(sfu.contains("user0") && sfu.contains("user1"));
+
+        // not due again within the interval
+        source.post("UBC", "too soon", 10_100);
+        clock.advance(500);
+        assertEquals(0, feed.poll((tweet, users) -> fail()));
+        clock.advance(500);
+        List<String> late = new ArrayList<>();
+        assertEquals(2, feed.poll((tweet, users) -> late.add(tweet.getContent())));
+        assertEquals(List.of("too soon"), late);
+        assertEquals(4, feed.getFetches());
+    }
+
+    @Test
+    public void testFailedFetchIsRetried() {
+        StandInTweetSource source = new StandInTweetSource();
+        source.create("UBC");
+        SubscriptionRegistry subs = new SubscriptionRegistry();
+        subs.add("alice", "UBC");
+        subs.add("alice", "gone");
+        VirtualClock clock = new VirtualClock(10_000);
+        TweetFeed feed = new TweetFeed(source, subs, clock, 1000, 0);
+        source.post("UBC", "hello", 1_000);
+        List<String> got = new ArrayList<>();
+        // the missing account fails, but the other is still polled
+        assertThrows(IllegalArgumentException.class, () -> feed.poll((tweet, users) -> got.add(tweet.getContent())));
+        assertEquals(List.of("hello"), got);
+        source.create("gone");
+        source.post("gone", "back", 2_000);
+        assertEquals(1, feed.poll((tweet, users) -> got.add(tweet.getContent())));
+        assertEquals(List.of("hello", "back"), got);
+    }
+
+    @Test
+    public void testPhemeServiceFanOut() {
+        StandInTweetSource source = new StandInTweetSource();
+        source.create("UBC");
+        VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+        PhemeService srv = new PhemeService(source, clock, false);
+        List<UUID> ids = new ArrayList<>();
+        for (int u = 0; u < 50; u++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            assertTrue(srv.addUser(id, "user" + u, "pwd" + u));
+            assertTrue(srv.addSubscription("user" + u, "pwd" + u, "UBC"));
+        }
+        assertFalse(srv.addSubscription("user0", "pwd0", "UBC"));
+        assertThrows(IllegalArgumentException.class, () -> srv.addSubscription("user0", "pwd0", "nobody"));
+        PubSubMessage tweet = source.post("UBC", "term starts", clock.millis());
+        // reads never fetch, so nothing is queued until the next ingestion
+        assertEquals(PubSubMessage.NO_MSG, srv.getNext("user0", "pwd0"));
+        clock.advance(PhemeService.DELAY + 1);
+        assertEquals(1, srv.ingestTweets());
+        for (int u = 0; u < 50; u++) {
+            PubSubMessage next = srv.getNext("user" + u, "pwd" + u);
+            assertEquals(tweet.getId(), next.getId());
+            assertEquals(BasicMessageType.TWEET, next.getType());
+            assertEquals("term starts", next.getContent());
+        }
+        assertEquals(2, source.fetches("UBC"));
+        assertEquals(1, srv.getIngestionStats().getDelivered());
+        assertEquals(List.of(true, true), srv.isDelivered(tweet.getId(), ids.subList(0, 2)));
+        assertTrue(srv.cancelSubscription("user0", "pwd0", "UBC"));
+        assertFalse(srv.cancelSubscription("user0", "pwd0", "UBC"));
+    }
+
+    @Test
+    public void testBackgroundIngestion() throws InterruptedException {
+        StandInTweetSource source = new StandInTweetSource();
+        source.create("UBC");
+        source.create("SFU");
+        PhemeService srv = new PhemeService(source, timedelayqueue.Clock.SYSTEM, true);
+        try {
+            UUID id = UUID.randomUUID();
+            srv.addUser(id, "alice", "pwd");
+            // a new subscription is fetched right away, on the subscribing thread
+            source.post("UBC", "old news", System.currentTimeMillis() - 60_000);
+            assertTrue(srv.addSubscription("alice", "pwd", "UBC"));
+            assertEquals("old news", srv.getNext("alice", "pwd").getContent());
+            assertTrue(srv.addSubscription("alice", "pwd", "SFU", "exam"));
+            source.post("SFU", "EXAM moved", System.currentTimeMillis());
+            source.post("SFU", "hello", System.currentTimeMillis());
+            PubSubMessage next = PubSubMessage.NO_MSG;
+            for (int i = 0; i < 100 && next.equals(PubSubMessage.NO_MSG); i++) {
+                Thread.sleep(50);
+                next = srv.getNext("alice", "pwd");
+            }
+            assertEquals("EXAM moved", next.getContent());
+            IngestionStats stats = srv.getIngestionStats();
+            assertTrue(stats.getPolls() > 0 && stats.getFetches() >= 3, stats.toString());
+            assertEquals(0, stats.getFailures());
+            assertTrue(stats.getLag() <= 10 * PhemeService.DELAY, stats.toString());
+        } finally {
+            srv.shutdown();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package pheme;
+
+import org.junit.jupiter.api.Test;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.TimeDelayQueue;
+import timedelayqueue.VirtualClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserPartitionTest {
+
+    @Test
+    public void testMembership() {
+        UserPartition partition = new UserPartition();
+        UUID id = UUID.randomUUID();
+        assertTrue(partition.add(new UserPartition.User(id, "alice", "a", new TimeDelayQueue(0))));
+        assertFalse(partition.add(new UserPartition.User(id, "bob", "b", new TimeDelayQueue(0))));
+        assertEquals("alice", partition.get(id).getName());
+        assertNull(partition.remove(id, "alice", "wrong"));
+        assertNull(partition.remove(id, "bob", "a"));
+        assertEquals(1, partition.users().size());
+        assertEquals("alice", partition.remove(id, "alice", "a").getName());
+        assertNull(partition.get(id));
+        assertTrue(partition.users().isEmpty());
+    }
+
+    @Test
+    public void testRecoveredIdsAreTakenOnce() {
+        UserPartition.User user = new UserPartition.User(UUID.randomUUID(), "alice", "a", new TimeDelayQueue(0));
+        UUID queued = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        assertFalse(user.takeRecovered(queued));
+        user.setRecovered(List.of(queued, other));
+        assertTrue(user.takeRecovered(queued));
+        assertFalse(user.takeRecovered(queued));
+        assertTrue(user.takeRecovered(other));
+        assertFalse(user.takeRecovered(other));
+    }
+
+    @Test
+    public void testDuplicateIdIsRefused() {
+        PhemeService srv = new PhemeService(new StandInTweetSource(), new VirtualClock(0), false, 3);
+        UUID id = UUID.randomUUID();
+        assertTrue(srv.addUser(id, "alice", "a"));
+        assertFalse(srv.addUser(id, "bob", "b"));
+        assertFalse(srv.isUser("bob"));
+        assertTrue(srv.addUser(UUID.randomUUID(), "bob", "b"));
+        assertThrows(IllegalArgumentException.class,
+            () -> new PhemeService(new StandInTweetSource(), new VirtualClock(0), false, 0));
+    }
+
+    @Test
+    public void testConcurrentAddAndRemove() throws InterruptedException {
+        PhemeService srv = new PhemeService(new StandInTweetSource(), new VirtualClock(0), false, 4);
+        int names = 20;
+        AtomicInteger balance = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    String name = "user" + (i % names);
+                    if (srv.addUser(UUID.randomUUID(), name, "pwd")) {
+                        balance.incrementAndGet();
+                    }
+                    if (srv.removeUser(name, "pwd")) {
+                        balance.decrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        // every add was matched by at most one remove
+        int present = 0;
+        for (int i = 0; i < names; i++) {
+            if (srv.isUser("user" + i)) {
+                present++;
+                assertEquals(PubSubMessage.NO_MSG, srv.getNext("user" + i, "pwd"));
+            }
+        }
+        assertEquals(balance.get(), present);
+        assertEquals(present, srv.getDeliveryStats().getUsers());
+    }
+
+    @Test
+    public void testRemovalReleasesLateMessages() throws InterruptedException {
+        VirtualClock clock = new VirtualClock(0);
+        PhemeService srv = new PhemeService(new StandInTweetSource(), clock, false, 4);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        assertTrue(srv.addUser(alice, "alice", "a"));
+        assertTrue(srv.addUser(bob, "bob", "b"));
+        Thread sender = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                srv.sendMessage("alice", "a", new PubSubMessage(clock, alice, List.of(bob),
+                    "a message long enough to be shared " + i));
+            }
+        });
+        Thread remover = new Thread(() -> {
+            for (int i = 0; i < 500; i++) {
+                srv.removeUser("bob", "b");
+                srv.addUser(bob, "bob", "b");
+            }
+        });
+        sender.start();
+        remover.start();
+        sender.join();
+        remover.join();
+        srv.removeUser("bob", "b");
+        // no message is left referenced by a queue of a removed user
+        assertEquals(0, srv.getPayloadStats().getReferences());
+        assertEquals(0, srv.getPayloadStats().getPayloads());
+    }
+
+    @Test
+    public void testConcurrentSendsAreDeliveredOnce() throws InterruptedException {
+        VirtualClock clock = new VirtualClock(0);
+        PhemeService srv = new PhemeService(new StandInTweetSource(), clock, false, 16);
+        int users = 64;
+        List<UUID> ids = new ArrayList<>();
+        for (int u = 0; u < users; u++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            assertTrue(srv.addUser(id, "user" + u, "pwd" + u));
+        }
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int first = t;
+            senders.add(new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    int from = (first + 8 * i) % users;
+                    List<UUID> to = List.of(ids.get((from + 1) % users), ids.get((from + 7) % users));
+                    assertTrue(srv.sendMessage("user" + from, "pwd" + from,
+                        new PubSubMessage(clock, ids.get(from), to, "hi")));
+                }
+            }));
+        }
+        senders.forEach(Thread::start);
+        for (Thread t : senders) {
+            t.join();
+        }
+        clock.advance(PhemeService.DELAY + 1);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger delivered = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int first = t;
+            readers.add(new Thread(() -> {
+                for (int u = first; u < users; u += 8) {
+                    for (PubSubMessage m = srv.getNext("user" + u, "pwd" + u); !m.equals(PubSubMessage.NO_MSG);
+                         m = srv.getNext("user" + u, "pwd" + u)) {
+                        assertTrue(seen.add(u + "/" + m.getId()));
+                        delivered.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        for (Thread t : readers) {
+            t.join();
+        }
+        assertEquals(2 * 8 * 200, delivered.get());
+        assertEquals(2 * 8 * 200, srv.getDeliveryStats().getDeliveries());
+    }
+
+    @Test
+    public void testMessagesWaitMoreThanDelay() {
+        VirtualClock clock = new VirtualClock(0);
+        PhemeService srv = new PhemeService(new StandInTweetSource(), clock, false);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        assertTrue(srv.addUser(alice, "alice", "a"));
+        assertTrue(srv.addUser(bob, "bob", "b"));
+        PubSubMessage first = new PubSubMessage(clock, alice, bob, "first");
+        PubSubMessage second = new PubSubMessage(clock, alice, bob, "second");
+        assertTrue(srv.sendMessage("alice", "a", first));
+        assertTrue(srv.sendMessage("alice", "a", second));
+        assertFalse(srv.sendMessage("alice", "a", first));
+        // exactly DELAY is the boundary: not yet ready
+        clock.advance(PhemeService.DELAY);
+        assertEquals(PubSubMessage.NO_MSG, srv.getNext("bob", "b"));
+        assertEquals(List.of(), srv.getAllRecent("bob", "b"));
+        clock.advance(1);
+        assertEquals(first, srv.getNext("bob", "b"));
+        assertEquals(List.of(second), srv.getAllRecent("bob", "b"));
+        // a message is refused again after it was delivered, though no longer held
+        assertFalse(srv.sendMessage("alice", "a", second));
+        assertEquals(PubSubMessage.NO_MSG, srv.getNext("bob", "b"));
+    }
+}
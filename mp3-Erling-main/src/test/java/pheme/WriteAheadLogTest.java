@@ -0,0 +1,203 @@
+package pheme;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.VirtualClock;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+
+    @Test
+    public void testRecordRoundTrip() {
+        UUID id = UUID.randomUUID();
+        PubSubMessage msg = new PubSubMessage(id, List.of(id, UUID.randomUUID()), "h\u00e9llo");
+        List<LogRecord> records = List.of(
+            LogRecord.addUser(id, "alice", "hash"),
+            LogRecord.removeUser("alice"),
+            LogRecord.subscribe("alice", "UBC", null),
+            LogRecord.subscribe("alice", "UBC", "exam"),
+            LogRecord.cancel("alice", "UBC", "exam"),
+            LogRecord.send(msg),
+            LogRecord.deliver(id, msg.getId()));
+        for (LogRecord r : records) {
+            LogRecord back = LogRecord.decode(ByteBuffer.wrap(r.encode()));
+            assertEquals(r.getKind(), back.getKind());
+            assertEquals(r.getUser(), back.getUser());
+            assertEquals(r.getUserId(), back.getUserId());
+            assertEquals(r.getHash(), back.getHash());
+            assertEquals(r.getAccount(), back.getAccount());
+            assertEquals(r.getPattern(), back.getPattern());
+            assertEquals(r.getMessageId(), back.getMessageId());
+        }
+        assertEquals(msg.getContent(), LogRecord.decode(ByteBuffer.wrap(records.get(5).encode()))
+            .getMessage().getContent());
+        assertThrows(IllegalArgumentException.class, () -> LogRecord.decode(ByteBuffer.wrap(new byte[]{9})));
+    }
+
+    @Test
+    public void testGroupCommitAndRollover(@TempDir Path dir) throws Exception {
+        WriteAheadLog log = new WriteAheadLog(dir, 2000, 64, 4096);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    log.await(log.append(LogRecord.removeUser("user" + thread + "-" + i)));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(800, log.getSynced());
+        assertTrue(log.getCommits() < 800, "commits " + log.getCommits());
+        log.close();
+        assertThrows(IllegalStateException.class, () -> log.append(LogRecord.removeUser("late")));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertTrue(files.count() > 1);
+        }
+
+        List<String> names = new ArrayList<>();
+        assertEquals(800, WriteAheadLog.replay(dir, 0, r -> names.add(r.getUser())));
+        // each thread's records are in the order it appended them
+        for (int t = 0; t < 8; t++) {
+            int last = -1;
+            for (String name : names) {
+                if (name.startsWith("user" + t + "-")) {
+                    int i = Integer.parseInt(name.substring(name.indexOf('-') + 1));
+                    assertEquals(last + 1, i);
+                    last = i;
+                }
+            }
+            assertEquals(99, last);
+        }
+    }
+
+    @Test
+    public void testTornTail(@TempDir Path dir) throws Exception {
+        WriteAheadLog log = new WriteAheadLog(dir, 0);
+        for (int i = 0; i < 10; i++) {
+            log.append(LogRecord.removeUser("user" + i));
+        }
+        log.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+        // a new log starts a new segment after the torn one
+        WriteAheadLog next = new WriteAheadLog(dir, 0);
+        next.await(next.append(LogRecord.removeUser("after")));
+        next.close();
+        List<String> names = new ArrayList<>();
+        assertEquals(10, WriteAheadLog.replay(dir, 0, r -> names.add(r.getUser())));
+        assertEquals("user8", names.get(8));
+        assertEquals("after", names.get(9));
+    }
+
+    @Test
+    public void testRecoverReplaysOnTopOfSnapshot(@TempDir Path dir) {
+        StandInTweetSource source = new StandInTweetSource();
+        source.create("UBC");
+        VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+        PhemeService srv = new PhemeService(source, clock, false);
+        assertEquals(0, srv.recover(dir.toString(), 100));
+        assertThrows(IllegalStateException.class, () -> srv.recover(dir.toString(), 100));
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        UUID carol = UUID.randomUUID();
+        srv.addUser(alice, "alice", "a");
+        srv.addUser(bob, "bob", "b");
+        PubSubMessage before = new PubSubMessage(clock, alice, List.of(bob), "before");
+        assertTrue(srv.sendMessage("alice", "a", before));
+        srv.saveState(dir.toString());
+
+        // changes after the snapshot are only in the log
+        srv.addUser(carol, "carol", "c");
+        assertTrue(srv.addSubscription("carol", "c", "UBC", "exam"));
+        assertTrue(srv.addSubscription("bob", "b", "UBC"));
+        assertTrue(srv.cancelSubscription("bob", "b", "UBC"));
+        PubSubMessage after = new PubSubMessage(clock, alice, List.of(bob, carol), "after");
+        assertTrue(srv.sendMessage("alice", "a", after));
+        clock.advance(2 * PhemeService.DELAY);
+        assertEquals("before", srv.getNext("bob", "b").getContent());
+        assertTrue(srv.removeUser("alice", "a"));
+        // crash: the service is abandoned without shutdown
+
+        PhemeService recovered = new PhemeService(source, clock, false);
+        assertEquals(7, recovered.recover(dir.toString(), 100));
+        try {
+            assertFalse(recovered.isUser("alice"));
+            assertTrue(recovered.isUser("carol"));
+            assertFalse(recovered.addSubscription("carol", "c", "UBC", "EXAM"));
+            assertFalse(recovered.cancelSubscription("bob", "b", "UBC"));
+            assertEquals(List.of(true), recovered.isDelivered(before.getId(), List.of(bob)));
+            // the snapshot still queues the delivered message, but it is not delivered again
+            assertEquals("after", recovered.getNext("bob", "b").getContent());
+            assertEquals(PubSubMessage.NO_MSG, recovered.getNext("bob", "b"));
+            assertEquals("after", recovered.getNext("carol", "c").getContent());
+        } finally {
+            recovered.shutdown();
+        }
+
+        PhemeService again = new PhemeService(source, clock, false);
+        again.recover(dir.toString(), 0);
+        try {
+            assertEquals(PubSubMessage.NO_MSG, again.getNext("bob", "b"));
+            assertEquals(PubSubMessage.NO_MSG, again.getNext("carol", "c"));
+        } finally {
+            again.shutdown();
+        }
+        srv.shutdown();
+    }
+
+    @Test
+    public void testConcurrentAddAndRemoveReplayInOrder(@TempDir Path dir) throws Exception {
+        StandInTweetSource source = new StandInTweetSource();
+        VirtualClock clock = new VirtualClock(0);
+        PhemeService srv = new PhemeService(source, clock, false, 4);
+        srv.recover(dir.toString(), 0);
+        int names = 4;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    String name = "user" + (i % names);
+                    srv.addUser(UUID.randomUUID(), name, "pwd");
+                    srv.removeUser(name, "pwd");
+                    srv.addUser(UUID.randomUUID(), name, "pwd");
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        srv.shutdown();
+        PhemeService recovered = new PhemeService(source, clock, false, 4);
+        recovered.recover(dir.toString(), 0);
+        try {
+            // each name was added and removed in the order logged
+            for (int i = 0; i < names; i++) {
+                assertEquals(srv.isUser("user" + i), recovered.isUser("user" + i));
+            }
+        } finally {
+            recovered.shutdown();
+        }
+    }
+}
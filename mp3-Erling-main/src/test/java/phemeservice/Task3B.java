@@ -86,7 +86,7 @@ public class Task3B {
     @Order(5)
     public void testReceiveMsg() {
         try {
-            Thread.sleep(1000);
+            Thread.sleep(PhemeService.DELAY + 1);
         }
         catch (InterruptedException ie) {
             fail();
@@ -146,7 +146,7 @@ public class Task3B {
         );
         srv.sendMessage(userName2, hashPwd2, msg);
         try {
-            Thread.sleep(1000);
+            Thread.sleep(PhemeService.DELAY + 1);
         }
         catch (InterruptedException ie) {
             fail();
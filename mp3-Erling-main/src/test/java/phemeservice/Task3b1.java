@@ -106,7 +106,7 @@ public class Task3b1 {
     @Order(5)
     public void testReceiveMsg1() {
         try {
-            Thread.sleep(1000);
+            Thread.sleep(PhemeService.DELAY + 1);
         }
         catch (InterruptedException ie) {
             fail();
@@ -82,7 +82,7 @@ public class Task3b2 {
     @Order(5)
     public void testReceiveMsg1() {
         try {
-            Thread.sleep(1000);
+            Thread.sleep(PhemeService.DELAY + 1);
         }
         catch (InterruptedException ie) {
             fail();
@@ -102,7 +102,7 @@ public class Task3b2 {
     @Order(6)
     public void testReceiveMsg2() {
         try {
-            Thread.sleep(1000);
+            Thread.sleep(PhemeService.DELAY + 1);
         }
         catch (InterruptedException ie) {
             fail();
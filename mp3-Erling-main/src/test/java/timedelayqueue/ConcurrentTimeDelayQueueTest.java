@@ -0,0 +1,176 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentTimeDelayQueueTest {
+    private static final int DELAY       = 40;
+    private static final int NUM_WRITERS = 16;
+    private static final int NUM_MSGS    = 500;
+
+    @Test
+    public void testManyProducers() throws InterruptedException {
+        ConcurrentTimeDelayQueue tdq = new ConcurrentTimeDelayQueue(0, 8);
+        List<PubSubMessage> sent = Collections.synchronizedList(new ArrayList<>());
+        Thread[] writers = new Thread[NUM_WRITERS];
+        for (int i = 0; i < NUM_WRITERS; i++) {
+            writers[i] = new Thread(() -> {
+                UUID sndID = UUID.randomUUID();
+                for (int j = 0; j < NUM_MSGS; j++) {
+                    PubSubMessage msg = new PubSubMessage(sndID, sndID, "msg " + j);
+                    sent.add(msg);
+                    assertTrue(tdq.add(msg));
+                    assertFalse(tdq.add(msg));
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(NUM_WRITERS * NUM_MSGS, tdq.getTotalMsgCount());
+        assertEquals(NUM_WRITERS * NUM_MSGS, tdq.getSize());
+
+        Thread.sleep(2);
+        Set<PubSubMessage> received = new HashSet<>();
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < NUM_WRITERS * NUM_MSGS; i++) {
+            PubSubMessage msg = tdq.getNext();
+            assertTrue(msg.getTimestamp().getTime() >= last);
+            last = msg.getTimestamp().getTime();
+            received.add(msg);
+        }
+        assertEquals(new HashSet<>(sent), received);
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+    }
+
+    @Test
+    public void testDelayAndTransient() {
+        ConcurrentTimeDelayQueue tdq = new ConcurrentTimeDelayQueue(DELAY);
+        UUID sndID = UUID.randomUUID();
+        long past = System.currentTimeMillis() - 4 * DELAY;
+        PubSubMessage expired = new TransientPubSubMessage(UUID.randomUUID(), new Timestamp(past),
+            sndID, sndID, "expired", BasicMessageType.SIMPLEMSG, DELAY);
+        PubSubMessage ready = new PubSubMessage(UUID.randomUUID(), new Timestamp(past + 1),
+            sndID, sndID, "ready", BasicMessageType.SIMPLEMSG);
+        PubSubMessage fresh = new PubSubMessage(sndID, sndID, "fresh");
+        tdq.add(fresh);
+        tdq.add(expired);
+        tdq.add(ready);
+        assertEquals(ready, tdq.getNext());
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+    }
+
+    @Test
+    public void testTake() throws InterruptedException {
+        ConcurrentTimeDelayQueue tdq = new ConcurrentTimeDelayQueue(DELAY);
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext(DELAY, TimeUnit.MILLISECONDS));
+        UUID sndID = UUID.randomUUID();
+        PubSubMessage msg = new PubSubMessage(sndID, sndID, "msg");
+        new Thread(() -> {
+            try {
+                Thread.sleep(DELAY);
+            }
+            catch (InterruptedException ie) {
+                fail();
+            }
+            tdq.add(msg);
+        }).start();
+        assertEquals(msg, tdq.take());
+        assertTrue(System.currentTimeMillis() - msg.getTimestamp().getTime() > DELAY);
+    }
+
+    @Test
+    public void testManyConsumersTakeEachOnce() throws InterruptedException {
+        ConcurrentTimeDelayQueue tdq = new ConcurrentTimeDelayQueue(0, 4);
+        UUID sndID = UUID.randomUUID();
+        Timestamp past = new Timestamp(System.currentTimeMillis() - 10);
+        for (int i = 0; i < NUM_WRITERS * NUM_MSGS; i++) {
+            assertTrue(tdq.add(new PubSubMessage(UUID.randomUUID(), past, sndID, sndID,
+                "msg " + i, BasicMessageType.SIMPLEMSG)));
+        }
+        Set<UUID> received = Collections.synchronizedSet(new HashSet<>());
+        Thread[] readers = new Thread[NUM_WRITERS];
+        for (int i = 0; i < NUM_WRITERS; i++) {
+            readers[i] = new Thread(() -> {
+                for (PubSubMessage msg = tdq.getNext(); !msg.equals(PubSubMessage.NO_MSG); msg = tdq.getNext()) {
+                    assertTrue(received.add(msg.getId()));
+                }
+            });
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(NUM_WRITERS * NUM_MSGS, received.size());
+        assertEquals(0, tdq.getSize());
+        assertEquals(2 * NUM_WRITERS * NUM_MSGS, tdq.getPeakLoad(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testQueuedIdsAreNeverForgotten() {
+        VirtualClock clock = new VirtualClock(1000);
+        ConcurrentTimeDelayQueue tdq = new ConcurrentTimeDelayQueue(DELAY, 1, 60_000, 4, clock);
+        UUID sndID = UUID.randomUUID();
+        List<PubSubMessage> msgs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            PubSubMessage msg = new PubSubMessage(clock, sndID, List.of(sndID), "msg " + i);
+            msgs.add(msg);
+            assertTrue(tdq.add(msg));
+        }
+        for (PubSubMessage msg : msgs) {
+            assertFalse(tdq.add(msg));
+        }
+        clock.advance(DELAY + 1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(msgs.get(i), tdq.getNext());
+        }
+        // only the four most recently delivered ids are still remembered
+        assertTrue(tdq.add(new PubSubMessage(clock, sndID, List.of(sndID), "push")));
+        assertTrue(tdq.add(msgs.get(0)));
+        assertFalse(tdq.add(msgs.get(9)));
+        assertFalse(tdq.add(msgs.get(50)));
+    }
+
+    @Test
+    public void testExpiredMessagesAreNeverDelivered() throws InterruptedException {
+        VirtualClock clock = new VirtualClock(0);
+        ConcurrentTimeDelayQueue tdq = new ConcurrentTimeDelayQueue(0, 4, clock);
+        List<String> late = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                UUID sndID = UUID.randomUUID();
+                for (int j = 0; j < NUM_MSGS; j++) {
+                    tdq.add(new TransientPubSubMessage(clock, sndID, sndID, "msg " + j, j % 3));
+                    clock.advance(j % 2);
+                }
+            }));
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 4 * NUM_MSGS; j++) {
+                    long before = clock.millis();
+                    PubSubMessage msg = tdq.getNext();
+                    if (!msg.equals(PubSubMessage.NO_MSG)
+                        && before > msg.getTimestampMillis() + msg.lifetime()) {
+                        late.add(msg.getContent() + " read at " + before);
+                    }
+                    tdq.getSize();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(List.of(), late);
+        // every message has expired, and none is left behind in the count
+        clock.advance(10);
+        assertEquals(0, tdq.getSize());
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+    }
+}
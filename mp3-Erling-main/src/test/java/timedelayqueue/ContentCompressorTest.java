@@ -0,0 +1,146 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentCompressorTest {
+
+    /** a tweet with metadata, shaped like the JSON of a TweetV2 */
+    static String tweet(Random random) {
+        StringBuilder json = new StringBuilder("{\"data\":{\"id\":\"").append(random.nextLong() >>> 1)
+            .append("\",\"author_id\":\"").append(random.nextInt(1 << 30))
+            .append("\",\"created_at\":\"2022-0").append(1 + random.nextInt(9)).append("-1")
+            .append(random.nextInt(10)).append("T12:").append(10 + random.nextInt(50)).append(":00.000Z\"")
+            .append(",\"lang\":\"en\",\"conversation_id\":\"").append(random.nextLong() >>> 1)
+            .append("\",\"text\":\"");
+        for (int i = 0; i < 12 + random.nextInt(20); i++) {
+            String word = Long.toString(random.nextLong() >>> 20, 36);
+            json.append(word, 0, Math.min(word.length(), 3 + random.nextInt(6))).append(' ');
+        }
+        json.append("\",\"public_metrics\":{\"retweet_count\":").append(random.nextInt(1000))
+            .append(",\"reply_count\":").append(random.nextInt(100))
+            .append(",\"like_count\":").append(random.nextInt(5000))
+            .append(",\"quote_count\":").append(random.nextInt(50))
+            .append("},\"entities\":{\"hashtags\":[");
+        for (int i = 0; i < 1 + random.nextInt(4); i++) {
+            json.append(i == 0 ? "" : ",").append("{\"start\":").append(random.nextInt(100))
+                .append(",\"end\":").append(random.nextInt(100)).append(",\"tag\":\"tag")
+                .append(random.nextInt(40)).append("\"}");
+        }
+        json.append("]},\"context_annotations\":[{\"domain\":{\"id\":\"46\",\"name\":\"Business Taxonomy\","
+            + "\"description\":\"Categories within Brand Verticals that narrow down the scope of Brands\"},"
+            + "\"entity\":{\"id\":\"1557696940178935808\",\"name\":\"Gaming Business\","
+            + "\"description\":\"Brands, companies, advertisers and every non-person handle\"}}],"
+            + "\"reply_settings\":\"everyone\",\"source\":\"Twitter for iPhone\",\"possibly_sensitive\":false}}");
+        return json.toString();
+    }
+
+    private static int length(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ContentCompressor compressor = new ContentCompressor(64);
+        String content = tweet(new Random(17)) + " caf\u00e9 \u4e2d\u6587 \ud83d\ude00";
+        byte[] packed = compressor.compress(content, length(content));
+        assertNotNull(packed);
+        assertTrue(packed.length < length(content));
+        assertEquals(content, compressor.decompress(packed, length(content)));
+        assertThrows(IllegalArgumentException.class,
+            () -> compressor.decompress(new byte[] {1, 2, 3}, length(content)));
+    }
+
+    @Test
+    public void testThresholdAndIncompressible() {
+        ContentCompressor compressor = new ContentCompressor(64);
+        String small = "{\"text\":\"short\"}";
+        assertNull(compressor.compress(small, length(small)));
+        Random random = new Random(17);
+        StringBuilder noise = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            noise.append((char) ('!' + random.nextInt(90)));
+        }
+        assertNull(compressor.compress(noise.toString(), noise.length()));
+    }
+
+    @Test
+    public void testTrainedDictionary() {
+        Random random = new Random(17);
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            samples.add(tweet(random));
+        }
+        byte[] dictionary = ContentCompressor.train(samples, 4096);
+        assertTrue(dictionary.length > 0 && dictionary.length <= 4096);
+        String dictionaryText = new String(dictionary, StandardCharsets.UTF_8);
+        assertTrue(dictionaryText.contains("Business Taxonomy"));
+
+        ContentCompressor plain = new ContentCompressor(0);
+        ContentCompressor trained = new ContentCompressor(0, dictionary);
+        long plainBytes = 0;
+        long trainedBytes = 0;
+        for (int i = 0; i < 100; i++) {
+            String content = tweet(random);
+            byte[] withDictionary = trained.compress(content, length(content));
+            plainBytes += plain.compress(content, length(content)).length;
+            trainedBytes += withDictionary.length;
+            assertEquals(content, trained.decompress(withDictionary, length(content)));
+        }
+        assertTrue(trainedBytes < plainBytes * 0.8, trainedBytes + " vs " + plainBytes);
+        assertThrows(IllegalArgumentException.class, () -> ContentCompressor.train(samples, 0));
+    }
+
+    @Test
+    public void testPooledAcrossThreads() throws InterruptedException {
+        Random random = new Random(17);
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.add(tweet(random));
+        }
+        ContentCompressor compressor = new ContentCompressor(0, ContentCompressor.train(samples, 2048));
+        List<byte[]> expected = new ArrayList<>();
+        for (String sample : samples) {
+            expected.add(compressor.compress(sample, length(sample)));
+        }
+        // more threads than the pool keeps, each also failing to inflate once
+        List<Thread> threads = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        for (int t = 0; t < 4 * ContentCompressor.POOL_SIZE + 1; t++) {
+            threads.add(new Thread(() -> {
+                List<String> mine = new ArrayList<>();
+                try {
+                    compressor.decompress(new byte[] {1, 2, 3}, 10);
+                    mine.add("garbage inflated");
+                } catch (IllegalArgumentException e) {
+                    // expected, and the inflater goes back to the pool reset
+                }
+                for (int i = 0; i < samples.size(); i++) {
+                    String sample = samples.get(i);
+                    byte[] packed = compressor.compress(sample, length(sample));
+                    if (!Arrays.equals(expected.get(i), packed)
+                        || !sample.equals(compressor.decompress(packed, length(sample)))) {
+                        mine.add(sample);
+                    }
+                }
+                synchronized (failures) {
+                    failures.addAll(mine);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(List.of(), failures);
+    }
+}
@@ -0,0 +1,72 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiryWheelTest {
+
+    @Test
+    public void testExpiresExactlyOnTime() {
+        long start = 1_000_000;
+        Random random = new Random(221);
+        MessageHeap slots = new MessageHeap();
+        ExpiryWheel wheel = new ExpiryWheel(slots, start);
+        List<Integer> live = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // spread over every level of the wheel and beyond it
+            long offset = 1 + (long) (Math.pow(random.nextDouble(), 4) * 40_000_000L);
+            int slot = slots.allocate(PubSubMessage.NO_MSG, 0, start + offset);
+            assertTrue(wheel.schedule(slot));
+            live.add(slot);
+        }
+        long now = start;
+        while (!live.isEmpty()) {
+            now += 1 + (long) (Math.pow(random.nextDouble(), 6) * 2_000_000L);
+            Set<Integer> expired = new HashSet<>();
+            for (int s = wheel.advance(now); s != MessageHeap.NONE; s = wheel.nextExpired(s)) {
+                assertTrue(expired.add(s));
+            }
+            Iterator<Integer> it = live.iterator();
+            while (it.hasNext()) {
+                int slot = it.next();
+                assertEquals(slots.expiry(slot) <= now, expired.contains(slot));
+                if (slots.expiry(slot) <= now) {
+                    it.remove();
+                }
+            }
+            assertEquals(live.size(), wheel.size());
+        }
+    }
+
+    @Test
+    public void testCancel() {
+        MessageHeap slots = new MessageHeap();
+        ExpiryWheel wheel = new ExpiryWheel(slots, 0);
+        int a = slots.allocate(PubSubMessage.NO_MSG, 0, 10);
+        int b = slots.allocate(PubSubMessage.NO_MSG, 0, 10);
+        int c = slots.allocate(PubSubMessage.NO_MSG, 0, 5000);
+        wheel.schedule(a);
+        wheel.schedule(b);
+        wheel.schedule(c);
+        wheel.cancel(a);
+        wheel.cancel(c);
+        wheel.cancel(c);
+        assertEquals(1, wheel.size());
+        int expired = wheel.advance(10_000);
+        assertEquals(b, expired);
+        assertEquals(MessageHeap.NONE, wheel.nextExpired(expired));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testAlreadyExpired() {
+        MessageHeap slots = new MessageHeap();
+        ExpiryWheel wheel = new ExpiryWheel(slots, 100);
+        assertFalse(wheel.schedule(slots.allocate(PubSubMessage.NO_MSG, 0, 100)));
+        assertTrue(wheel.schedule(slots.allocate(PubSubMessage.NO_MSG, 0, 101)));
+        assertEquals(MessageHeap.NONE, wheel.advance(99));
+    }
+}
@@ -0,0 +1,117 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdWindowTest {
+
+    @Test
+    public void testDuplicateWithinHorizon() {
+        IdWindow window = new IdWindow(300, 1024, 0);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            assertTrue(window.add(id, i / 5));
+        }
+        for (UUID id : ids) {
+            assertFalse(window.add(id, 100));
+        }
+        assertTrue(window.add(PubSubMessage.ZERO_UUID, 100));
+        assertFalse(window.add(PubSubMessage.ZERO_UUID, 150));
+    }
+
+    @Test
+    public void testForgetsAfterHorizon() {
+        IdWindow window = new IdWindow(300, 1024, 0);
+        UUID id = UUID.randomUUID();
+        assertTrue(window.add(id, 0));
+        window.release(id, 0);
+        for (long now = 0; now < 300; now += 50) {
+            assertFalse(window.add(id, now));
+        }
+        // four rotations later the id is gone
+        for (long now = 300; now <= 800; now += 100) {
+            UUID other = UUID.randomUUID();
+            window.add(other, now);
+            window.release(other, now);
+        }
+        assertTrue(window.add(id, 800));
+    }
+
+    @Test
+    public void testBoundedMemory() {
+        IdWindow window = new IdWindow(IdWindow.DEFAULT_HORIZON, 256, 0);
+        for (int i = 0; i < 100_000; i++) {
+            UUID id = UUID.randomUUID();
+            assertTrue(window.add(id, 0));
+            window.release(id, 0);
+        }
+        // four generations of released ids, and a queued table that is empty again
+        assertTrue(window.footprint() <= 4 * 2 * 256 + 2 * 16 * 2);
+    }
+
+    @Test
+    public void testQueueRejectsDuplicates() {
+        TimeDelayQueue tdq = new TimeDelayQueue(0, 16, false, 60_000, 64);
+        UUID sndID = UUID.randomUUID();
+        List<PubSubMessage> msgs = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            PubSubMessage msg = new PubSubMessage(sndID, sndID, "msg " + i);
+            msgs.add(msg);
+            assertTrue(tdq.add(msg));
+        }
+        for (PubSubMessage msg : msgs) {
+            assertFalse(tdq.add(msg));
+        }
+        assertEquals(40, tdq.getTotalMsgCount());
+    }
+
+    @Test
+    public void testQueuedIdsOutliveCapacity() {
+        VirtualClock clock = new VirtualClock(0);
+        TimeDelayQueue tdq = new TimeDelayQueue(0, 16, false, 60_000, 4, clock);
+        UUID sndID = UUID.randomUUID();
+        List<PubSubMessage> msgs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            PubSubMessage msg = new PubSubMessage(clock, sndID, List.of(sndID), "msg " + i);
+            msgs.add(msg);
+            assertTrue(tdq.add(msg));
+        }
+        // far more ids than the released-id tables hold, and past the horizon
+        clock.advance(120_000);
+        for (PubSubMessage msg : msgs) {
+            assertFalse(tdq.add(msg));
+        }
+        for (int i = 0; i < 500; i++) {
+            assertEquals(msgs.get(i), tdq.getNext());
+        }
+        for (int i = 500; i < 1000; i++) {
+            assertFalse(tdq.add(msgs.get(i)));
+        }
+        assertFalse(tdq.add(msgs.get(499)));
+        assertEquals(500, tdq.getSize());
+    }
+
+    @Test
+    public void testReleaseShiftsProbes() {
+        IdWindow window = new IdWindow(IdWindow.DEFAULT_HORIZON, 1024, 0);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            assertTrue(window.add(id, 0));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            window.release(ids.get(i), 0);
+        }
+        for (UUID id : ids) {
+            assertFalse(window.add(id, 0));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package timedelayqueue;
+
+import com.google.gson.JsonSyntaxException;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonContentTest {
+
+    private static final String TWEET = "{\"id\":\"1512\",\"text\":\"hello \\u00e9 \\ud83d\\ude00\","
+        + "\"author\":{\"id\":\"42\",\"name\":\"ada\"},\"lang\":\"en\",\"possibly_sensitive\":false,"
+        + "\"public_metrics\":{\"retweet_count\":7},\"entities\":{\"hashtags\":[{\"tag\":\"java\"},"
+        + "{\"tag\":\"jmh\"}]},\"geo\":null}";
+
+    private static PubSubMessage tweet(String content) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(0), UUID.randomUUID(), UUID.randomUUID(),
+            content, BasicMessageType.TWEET);
+    }
+
+    @Test
+    public void testFields() {
+        PubSubMessage msg = tweet(TWEET);
+        assertEquals("en", JsonContent.getString(msg, "lang"));
+        assertEquals("ada", JsonContent.getString(msg, "author", "name"));
+        assertEquals("7", JsonContent.getString(msg, "public_metrics", "retweet_count"));
+        assertEquals("false", JsonContent.getString(msg, "possibly_sensitive"));
+        assertEquals("jmh", JsonContent.getString(msg, "entities", "hashtags", "1", "tag"));
+        assertEquals("{\"tag\":\"java\"}", JsonContent.getString(msg, "entities", "hashtags", "0"));
+        assertEquals(2, JsonContent.getElement(msg, "entities", "hashtags").getAsJsonArray().size());
+        assertNull(JsonContent.getString(msg, "geo"));
+        assertTrue(JsonContent.has(msg, "geo"));
+        assertFalse(JsonContent.has(msg, "place"));
+        assertNull(JsonContent.getString(msg, "entities", "hashtags", "2"));
+        assertNull(JsonContent.getString(msg, "lang", "code"));
+    }
+
+    @Test
+    public void testArenaViewReadsEncodedBytes() {
+        MessageArena arena = new MessageArena();
+        PubSubMessage view = arena.view(arena.store(tweet(TWEET)));
+        assertEquals("hello \u00e9 \ud83d\ude00", JsonContent.getString(view, "text"));
+        assertEquals("42", JsonContent.getString(view, "author", "id"));
+
+        PayloadStore payloads = new PayloadStore();
+        MessageArena shared = new MessageArena(new MessageCodec(payloads));
+        PubSubMessage sharedView = shared.view(shared.store(tweet(TWEET)));
+        assertEquals("java", JsonContent.getString(sharedView, "entities", "hashtags", "0", "tag"));
+    }
+
+    @Test
+    public void testSurrogatesAcrossReads() throws Exception {
+        String text = "\ud83d\ude00\ud83d\ude01x";
+        MessageArena arena = new MessageArena();
+        PubSubMessage view = arena.view(arena.store(tweet(text)));
+        java.io.Reader reader = view.contentReader();
+        char[] one = new char[1];
+        StringBuilder read = new StringBuilder();
+        while (reader.read(one, 0, 1) == 1) {
+            read.append(one[0]);
+        }
+        assertEquals(text, read.toString());
+    }
+
+    @Test
+    public void testMalformed() {
+        assertThrows(JsonSyntaxException.class, () -> JsonContent.getString(tweet("{\"a\":"), "b"));
+        assertNull(JsonContent.getString(tweet("\"just a string\""), "a"));
+    }
+}
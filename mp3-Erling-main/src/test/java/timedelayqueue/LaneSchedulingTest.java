@@ -0,0 +1,131 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LaneSchedulingTest {
+
+    private static final int DELAY = 40;
+    private static final UUID SENDER = UUID.randomUUID();
+    private static final UUID RECEIVER = UUID.randomUUID();
+
+    private static PubSubMessage message(Clock clock, MessageType type) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(clock.millis()),
+            SENDER, RECEIVER, "test", type);
+    }
+
+    private static Map<MessageType, Integer> weights(int direct, int tweets) {
+        Map<MessageType, Integer> weights = new LinkedHashMap<>();
+        weights.put(BasicMessageType.SIMPLEMSG, direct);
+        weights.put(BasicMessageType.TWEET, tweets);
+        return weights;
+    }
+
+    @Test
+    public void testWeightedTurns() {
+        VirtualClock clock = new VirtualClock(0);
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, clock, null, weights(2, 1));
+        for (int i = 0; i < 6; i++) {
+            tdq.add(message(clock, BasicMessageType.TWEET));
+            clock.advance(1);
+        }
+        for (int i = 0; i < 4; i++) {
+            tdq.add(message(clock, BasicMessageType.SIMPLEMSG));
+            clock.advance(1);
+        }
+        clock.advance(DELAY + 1);
+        List<PubSubMessage> delivered = new ArrayList<>();
+        assertEquals(10, tdq.drainReady(delivered, Integer.MAX_VALUE));
+        StringBuilder order = new StringBuilder();
+        for (PubSubMessage msg : delivered) {
+            order.append(msg.getType() == BasicMessageType.SIMPLEMSG ? 'S' : 'T');
+        }
+        assertEquals("SSTSSTTTTT", order.toString());
+    }
+
+    @Test
+    public void testLaneOrderIsByTimestamp() {
+        VirtualClock clock = new VirtualClock(0);
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, clock, new MessageArena(), weights(3, 1));
+        List<PubSubMessage> tweets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            PubSubMessage tweet = message(clock, BasicMessageType.TWEET);
+            tweets.add(tweet);
+            tdq.add(tweet);
+            clock.advance(1);
+        }
+        clock.advance(DELAY + 1);
+        for (PubSubMessage tweet : tweets) {
+            assertEquals(tweet, tdq.getNext());
+        }
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+    }
+
+    @Test
+    public void testLanesKeepTheDelay() {
+        VirtualClock clock = new VirtualClock(0);
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, clock, null, weights(8, 1));
+        PubSubMessage tweet = message(clock, BasicMessageType.TWEET);
+        tdq.add(tweet);
+        clock.advance(DELAY);
+        PubSubMessage direct = message(clock, BasicMessageType.SIMPLEMSG);
+        tdq.add(direct);
+        clock.advance(1);
+        // the direct lane has the larger weight, but its message is not ready yet
+        assertEquals(tweet, tdq.getNext());
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+        clock.advance(DELAY - 1);
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+        clock.advance(1);
+        assertEquals(direct, tdq.getNext());
+    }
+
+    @Test
+    public void testOtherTypesShareALane() {
+        VirtualClock clock = new VirtualClock(0);
+        Map<MessageType, Integer> weights = Map.of(BasicMessageType.SIMPLEMSG, 1);
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, clock, null, weights);
+        tdq.add(message(clock, BasicMessageType.TWEET));
+        clock.advance(DELAY + 1);
+        assertEquals(BasicMessageType.TWEET, tdq.getNext().getType());
+        assertThrows(IllegalArgumentException.class,
+            () -> new TimeDelayQueue(DELAY, clock, null, Map.of(BasicMessageType.TWEET, 0)));
+    }
+
+    @Test
+    public void testDirectLatencyStaysFlatUnderTweetBurst() {
+        long withoutLanes = directP99UnderBurst(null);
+        long withLanes = directP99UnderBurst(weights(4, 1));
+        assertTrue(withoutLanes > 100, "p99 without lanes: " + withoutLanes);
+        assertTrue(withLanes <= 1, "p99 with lanes: " + withLanes);
+    }
+
+    /**
+     * replay 500 ms of 20 tweets per millisecond and one direct message every
+     * 10 ms into a queue drained at 10 messages per millisecond
+     *
+     * @return the p99 latency of direct messages in milliseconds
+     */
+    private static long directP99UnderBurst(Map<MessageType, Integer> weights) {
+        Simulation sim = new Simulation(0);
+        VirtualClock clock = sim.getClock();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, clock, null, weights);
+        sim.every(0, 1, 500, () -> {
+            for (int i = 0; i < 20; i++) {
+                tdq.add(message(clock, BasicMessageType.TWEET));
+            }
+        });
+        sim.every(0, 10, 500, () -> tdq.add(message(clock, BasicMessageType.SIMPLEMSG)));
+        List<PubSubMessage> sink = new ArrayList<>();
+        sim.every(0, 1, 2_000, () -> {
+            tdq.drainReady(sink, 10);
+            sink.clear();
+        });
+        sim.run();
+        return tdq.getLatencyPercentile(BasicMessageType.SIMPLEMSG, 99);
+    }
+}
@@ -0,0 +1,45 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testSmallLatenciesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(99));
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        assertEquals(21, histogram.count());
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(10, histogram.percentile(50));
+        assertEquals(20, histogram.percentile(100));
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentile(101));
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        Random random = new Random(16);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] samples = new long[100_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (long) (Math.abs(random.nextGaussian()) * 1_000_000);
+            histogram.record(samples[i]);
+        }
+        Arrays.sort(samples);
+        for (double p : new double[] {50, 90, 99, 99.9}) {
+            long exact = samples[(int) Math.ceil(p / 100 * samples.length) - 1];
+            long reported = histogram.percentile(p);
+            assertTrue(reported >= exact && reported <= exact * 1.04,
+                p + ": " + reported + " vs " + exact);
+        }
+        assertEquals(samples[samples.length - 1], histogram.percentile(100));
+    }
+}
@@ -0,0 +1,175 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageArenaTest {
+
+    private static PubSubMessage message(String content) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(1_000), UUID.randomUUID(),
+            List.of(UUID.randomUUID(), UUID.randomUUID()), content, BasicMessageType.TWEET);
+    }
+
+    @Test
+    public void testViewDecodesFields() {
+        MessageArena arena = new MessageArena();
+        PubSubMessage msg = message("{\"text\":\"caf\u00e9\"}");
+        PubSubMessage view = arena.view(arena.store(msg));
+        assertEquals(msg, view);
+        assertEquals(msg.hashCode(), view.hashCode());
+        assertEquals(msg.getTimestamp(), view.getTimestamp());
+        assertEquals(msg.getSender(), view.getSender());
+        assertEquals(msg.getReceiver(), view.getReceiver());
+        assertEquals(msg.getContent(), view.getContent());
+        assertEquals(BasicMessageType.TWEET, view.getType());
+        assertFalse(view.isTransient());
+        assertEquals(msg.toString(), view.toString());
+    }
+
+    @Test
+    public void testTransientView() {
+        MessageArena arena = new MessageArena();
+        PubSubMessage msg = new TransientPubSubMessage(UUID.randomUUID(), UUID.randomUUID(), "soon gone", 80);
+        PubSubMessage view = arena.view(arena.store(msg));
+        assertTrue(view.isTransient());
+        assertEquals(80, ((TransientPubSubMessage) view).getLifetime());
+        assertEquals(msg.getTimestampMillis(), view.getTimestampMillis());
+    }
+
+    @Test
+    public void testChunksAreDroppedWhenReleased() {
+        MessageArena arena = new MessageArena(new MessageCodec(), 256, null);
+        List<Long> handles = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            handles.add(arena.store(message("message " + i)));
+        }
+        assertEquals(100, arena.size());
+        long full = arena.footprint();
+        assertTrue(full > 256);
+        PubSubMessage first = arena.view(handles.get(0));
+        for (long handle : handles) {
+            arena.release(handle);
+        }
+        assertEquals(0, arena.size());
+        assertEquals(256, arena.footprint());
+        // a view outlives the release of its handle
+        assertEquals("message 0", first.getContent());
+        assertThrows(IllegalArgumentException.class, () -> arena.view(handles.get(0)));
+    }
+
+    @Test
+    public void testSparseChunksAreCompacted() {
+        MessageArena arena = new MessageArena(new MessageCodec(), 256, null);
+        List<Long> handles = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            handles.add(arena.store(message("message " + i), 2));
+        }
+        long full = arena.footprint();
+        PubSubMessage before = arena.view(handles.get(0));
+        // one message in ten stays, as if its receiver never read it
+        for (int i = 0; i < 200; i++) {
+            if (i % 10 != 0) {
+                arena.release(handles.get(i));
+                arena.release(handles.get(i));
+            }
+        }
+        assertEquals(20, arena.size());
+        assertTrue(arena.footprint() * 3 < full);
+        assertEquals("message 0", before.getContent());
+        for (int i = 0; i < 200; i += 10) {
+            assertEquals("message " + i, arena.view(handles.get(i)).getContent());
+            arena.release(handles.get(i));
+            assertEquals("message " + i, arena.view(handles.get(i)).getContent());
+        }
+        for (int i = 0; i < 200; i += 10) {
+            arena.release(handles.get(i));
+            long handle = handles.get(i);
+            assertThrows(IllegalArgumentException.class, () -> arena.view(handle));
+        }
+        assertEquals(0, arena.size());
+        assertEquals(256, arena.footprint());
+    }
+
+    @Test
+    public void testLargeMessage() {
+        MessageArena arena = new MessageArena(new MessageCodec(), 64, null);
+        String content = "x".repeat(1000);
+        long handle = arena.store(message(content));
+        assertEquals(content, arena.view(handle).getContent());
+    }
+
+    @Test
+    public void testMappedChunks(@TempDir Path dir) throws Exception {
+        MessageArena arena = new MessageArena(new MessageCodec(), 4096, dir);
+        PubSubMessage msg = message("mapped");
+        assertEquals("mapped", arena.view(arena.store(msg)).getContent());
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testQueueOfHandles() {
+        VirtualClock clock = new VirtualClock(1_000);
+        MessageArena arena = new MessageArena();
+        TimeDelayQueue tdq = new TimeDelayQueue(40, clock, arena);
+        PubSubMessage first = new PubSubMessage(UUID.randomUUID(), new Timestamp(990), UUID.randomUUID(),
+            UUID.randomUUID(), "first", BasicMessageType.SIMPLEMSG);
+        PubSubMessage second = new PubSubMessage(UUID.randomUUID(), new Timestamp(995), UUID.randomUUID(),
+            UUID.randomUUID(), "second", BasicMessageType.SIMPLEMSG);
+        PubSubMessage fleeting = new TransientPubSubMessage(UUID.randomUUID(), new Timestamp(1_000),
+            UUID.randomUUID(), UUID.randomUUID(), "fleeting", BasicMessageType.SIMPLEMSG, 20);
+        assertTrue(tdq.add(second));
+        assertTrue(tdq.add(first));
+        assertTrue(tdq.add(fleeting));
+        assertFalse(tdq.add(first));
+        assertEquals(3, arena.size());
+        clock.advance(40);
+        // fleeting has expired and been released
+        assertEquals(2, tdq.getSize());
+        assertEquals(2, arena.size());
+        PubSubMessage next = tdq.getNext();
+        assertEquals(first, next);
+        assertEquals("first", next.getContent());
+        assertEquals(second, tdq.getNext());
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+        assertEquals(0, arena.size());
+    }
+
+    @Test
+    public void testSharedReferences() {
+        VirtualClock clock = new VirtualClock(1_000);
+        MessageArena arena = new MessageArena();
+        TimeDelayQueue alice = new TimeDelayQueue(0, clock, arena);
+        TimeDelayQueue bob = new TimeDelayQueue(0, clock, arena);
+        PubSubMessage msg = message("to both");
+        long handle = arena.store(msg, 2);
+        alice.addStored(handle);
+        bob.addStored(handle);
+        assertEquals(1, arena.size());
+        clock.advance(1);
+        assertEquals(msg, alice.getNext());
+        assertEquals(1, arena.size());
+        bob.clear();
+        assertEquals(0, bob.getSize());
+        assertEquals(0, arena.size());
+        assertThrows(IllegalArgumentException.class, () -> arena.release(handle));
+        assertThrows(IllegalStateException.class, () -> new TimeDelayQueue(0).addStored(handle));
+    }
+
+    @Test
+    public void testReceiversAreNotCopied() {
+        PubSubMessage msg = message("shared");
+        assertSame(msg.getReceiver(), msg.getReceiver());
+        assertThrows(UnsupportedOperationException.class, () -> msg.getReceiver().add(UUID.randomUUID()));
+    }
+}
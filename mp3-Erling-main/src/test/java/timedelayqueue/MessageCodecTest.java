@@ -0,0 +1,116 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageCodecTest {
+
+    private static final MessageCodec codec = new MessageCodec();
+
+    private static void assertSameMessage(PubSubMessage expected, PubSubMessage actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getReceiver(), actual.getReceiver());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.isTransient(), actual.isTransient());
+        if (expected.isTransient()) {
+            assertEquals(((TransientPubSubMessage) expected).getLifetime(),
+                ((TransientPubSubMessage) actual).getLifetime());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        PubSubMessage msg = new PubSubMessage(UUID.randomUUID(), new Timestamp(1_650_000_000_123L),
+            UUID.randomUUID(), List.of(UUID.randomUUID(), UUID.randomUUID()),
+            "{\"text\":\"hello\"}", BasicMessageType.TWEET);
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        int size = codec.encode(msg, buf);
+        assertEquals(codec.encodedSize(msg, 0), size);
+        assertEquals(size, buf.position());
+        buf.flip();
+        assertSameMessage(msg, codec.decode(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void testTransientDirectBuffer() {
+        PubSubMessage msg = new TransientPubSubMessage(UUID.randomUUID(), new Timestamp(5_000),
+            UUID.randomUUID(), UUID.randomUUID(), "short lived", BasicMessageType.SIMPLEMSG, 80);
+        ByteBuffer buf = ByteBuffer.allocateDirect(256);
+        codec.encode(msg, buf);
+        buf.flip();
+        PubSubMessage decoded = codec.decode(buf);
+        assertTrue(decoded instanceof TransientPubSubMessage);
+        assertSameMessage(msg, decoded);
+    }
+
+    @Test
+    public void testUnicodeContent() {
+        String content = "caf\u00e9 \u20ac \ud83d\ude00 \u4e2d\u6587";
+        PubSubMessage msg = new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), content);
+        for (ByteBuffer buf : new ByteBuffer[]{ByteBuffer.allocate(256), ByteBuffer.allocateDirect(256)}) {
+            codec.encode(msg, buf);
+            buf.flip();
+            assertEquals(content, codec.decode(buf).getContent());
+        }
+        assertEquals(content.getBytes(java.nio.charset.StandardCharsets.UTF_8).length,
+            MessageCodec.utf8Length(content));
+    }
+
+    @Test
+    public void testTimestampDeltas() {
+        long base = 1_650_000_000_000L;
+        PubSubMessage before = new PubSubMessage(UUID.randomUUID(), new Timestamp(base - 3),
+            UUID.randomUUID(), UUID.randomUUID(), "", BasicMessageType.SIMPLEMSG);
+        PubSubMessage after = new PubSubMessage(UUID.randomUUID(), new Timestamp(base + 60),
+            UUID.randomUUID(), UUID.randomUUID(), "", BasicMessageType.SIMPLEMSG);
+        assertTrue(codec.encodedSize(after, base) < codec.encodedSize(after, 0));
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        codec.encode(before, buf, base);
+        codec.encode(after, buf, before.getTimestampMillis());
+        buf.flip();
+        PubSubMessage first = codec.decode(buf, base);
+        assertSameMessage(before, first);
+        assertSameMessage(after, codec.decode(buf, first.getTimestampMillis()));
+    }
+
+    @Test
+    public void testOverflowWritesNothing() {
+        PubSubMessage msg = new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), "too long");
+        ByteBuffer buf = ByteBuffer.allocate(codec.encodedSize(msg, 0) - 1);
+        assertThrows(BufferOverflowException.class, () -> codec.encode(msg, buf));
+        assertEquals(0, buf.position());
+    }
+
+    @Test
+    public void testMalformed() {
+        PubSubMessage msg = new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), "truncated");
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        codec.encode(msg, buf);
+        buf.flip();
+        buf.limit(buf.limit() - 1);
+        assertThrows(BufferUnderflowException.class, () -> codec.decode(buf));
+
+        ByteBuffer wrongVersion = ByteBuffer.wrap(new byte[]{2, 0});
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(wrongVersion));
+
+        ByteBuffer encoded = ByteBuffer.allocate(256);
+        new MessageCodec(BasicMessageType.SIMPLEMSG, BasicMessageType.TWEET).encode(
+            new PubSubMessage(UUID.randomUUID(), new Timestamp(0), UUID.randomUUID(), UUID.randomUUID(),
+                "", BasicMessageType.TWEET), encoded);
+        encoded.flip();
+        assertThrows(IllegalArgumentException.class,
+            () -> new MessageCodec(BasicMessageType.SIMPLEMSG).decode(encoded));
+    }
+}
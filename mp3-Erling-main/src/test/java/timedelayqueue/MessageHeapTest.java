@@ -0,0 +1,82 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageHeapTest {
+
+    @Test
+    public void testOrderAndRemove() {
+        Random random = new Random(221);
+        MessageHeap heap = new MessageHeap();
+        List<Integer> removed = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int slot = heap.allocate(PubSubMessage.NO_MSG, random.nextInt(100), Long.MAX_VALUE);
+            heap.add(slot);
+            if (i % 3 == 0) {
+                heap.remove(slot);
+                heap.free(slot);
+                removed.add(slot);
+            }
+        }
+        assertEquals(2000 - removed.size(), heap.size());
+        long lastTime = Long.MIN_VALUE;
+        int lastSlot = MessageHeap.NONE;
+        while (heap.size() > 0) {
+            int slot = heap.peek();
+            heap.remove(slot);
+            assertTrue(heap.time(slot) >= lastTime);
+            lastTime = heap.time(slot);
+            lastSlot = slot;
+            heap.free(slot);
+        }
+        assertNotEquals(MessageHeap.NONE, lastSlot);
+        assertEquals(MessageHeap.NONE, heap.peek());
+    }
+
+    @Test
+    public void testTiesInInsertionOrder() {
+        MessageHeap heap = new MessageHeap();
+        int[] slots = new int[50];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = heap.allocate(PubSubMessage.NO_MSG, 7, Long.MAX_VALUE);
+            heap.add(slots[i]);
+        }
+        for (int slot : slots) {
+            assertEquals(slot, heap.peek());
+            heap.remove(slot);
+        }
+    }
+
+    @Test
+    public void testLanes() {
+        Random random = new Random(16);
+        MessageHeap heap = new MessageHeap(3);
+        for (int i = 0; i < 900; i++) {
+            heap.add(heap.allocate(PubSubMessage.NO_MSG, random.nextInt(100), Long.MAX_VALUE, i % 3));
+        }
+        assertEquals(900, heap.size());
+        long least = Long.MAX_VALUE;
+        for (int lane = 0; lane < 3; lane++) {
+            assertEquals(300, heap.size(lane));
+            assertEquals(lane, heap.lane(heap.peek(lane)));
+            least = Math.min(least, heap.time(heap.peek(lane)));
+        }
+        assertEquals(least, heap.time(heap.peek()));
+        for (int lane = 0; lane < 3; lane++) {
+            long lastTime = Long.MIN_VALUE;
+            while (heap.size(lane) > 0) {
+                int slot = heap.peek(lane);
+                heap.remove(slot);
+                assertTrue(heap.time(slot) >= lastTime);
+                lastTime = heap.time(slot);
+                heap.free(slot);
+            }
+        }
+        assertEquals(0, heap.size());
+        assertEquals(MessageHeap.NONE, heap.peek());
+    }
+}
@@ -0,0 +1,105 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationLogTest {
+
+    @Test
+    public void testRetainsMostRecent() {
+        OperationLog log = new OperationLog(100, false);
+        for (int i = 0; i < 250; i++) {
+            log.record(i);
+        }
+        long[] times = log.snapshot();
+        assertEquals(100, times.length);
+        assertEquals(150, times[0]);
+        assertEquals(249, times[99]);
+        assertEquals(250, log.totalRecorded());
+    }
+
+    @Test
+    public void testOffHeap() {
+        OperationLog log = new OperationLog(16, true);
+        for (int i = 0; i < 20; i++) {
+            log.record(10 * i);
+        }
+        long[] times = log.snapshot();
+        assertEquals(16, times.length);
+        assertEquals(40, times[0]);
+        assertEquals(190, times[15]);
+    }
+
+    @Test
+    public void testClockStepsBack() {
+        OperationLog log = new OperationLog(8, false);
+        log.record(100);
+        log.record(90);
+        assertArrayEquals(new long[]{100, 100}, log.snapshot());
+    }
+
+    @Test
+    public void testTrackedPeakAcrossWrap() {
+        OperationLog log = new OperationLog(64, false);
+        for (int i = 0; i < 10; i++) {
+            log.record(0);
+        }
+        assertEquals(10, log.peakLoad(5));
+        for (int i = 0; i < 1000; i++) {
+            log.record(1000 + 10 * i);
+        }
+        // the burst is no longer retained
+        assertEquals(1, log.peakLoad(5));
+        for (int i = 0; i < 30; i++) {
+            log.record(20000);
+        }
+        assertEquals(30, log.peakLoad(5));
+        assertEquals(30, OperationLog.peakLoad(log.snapshot(), 64, 5));
+    }
+
+    @Test
+    public void testTrackedPeakMatchesFreshSweep() {
+        Random random = new Random(7);
+        OperationLog tracked = new OperationLog(50, false);
+        tracked.peakLoad(20);
+        long time = 0;
+        for (int i = 0; i < 5000; i++) {
+            time += random.nextInt(10) == 0 ? random.nextInt(100) : random.nextInt(3);
+            tracked.record(time);
+            if (i % 37 == 0) {
+                long[] times = tracked.snapshot();
+                OperationLog fresh = new OperationLog(50, false);
+                for (long t : times) {
+                    fresh.record(t);
+                }
+                assertEquals(fresh.peakLoad(20), tracked.peakLoad(20));
+                assertEquals(OperationLog.peakLoad(times, times.length, 20), tracked.peakLoad(20));
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotDuringWrites() throws InterruptedException {
+        OperationLog log = new OperationLog(128, false);
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread writer = new Thread(() -> {
+            for (long t = 0; t < 200_000; t++) {
+                log.record(t);
+            }
+            done.set(true);
+        });
+        writer.start();
+        while (!done.get()) {
+            long[] times = log.snapshot();
+            assertTrue(times.length <= 128);
+            for (int i = 1; i < times.length; i++) {
+                assertEquals(times[i - 1] + 1, times[i]);
+            }
+        }
+        writer.join();
+    }
+}
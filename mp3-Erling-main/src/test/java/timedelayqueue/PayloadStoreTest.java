@@ -0,0 +1,165 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadStoreTest {
+
+    private static final String TWEET = "RT @someone: the same text retweeted by many accounts";
+
+    @Test
+    public void testKnownHashes() {
+        byte[] empty = new byte[0];
+        assertEquals(0xEF46DB3751D8E999L, XXHash64.hash(empty, 0));
+        assertEquals(0xD24EC4F1A98C6E5BL, XXHash64.hash("a".getBytes(StandardCharsets.US_ASCII), 0));
+        assertEquals(0x44BC2CF5AD770999L, XXHash64.hash("abc".getBytes(StandardCharsets.US_ASCII), 0));
+        assertEquals(0xFBCEA83C8A378BF1L,
+            XXHash64.hash("Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII), 0));
+    }
+
+    @Test
+    public void testCharsHashAsUtf16() {
+        for (String s : new String[]{"", "a", "abcd", "caf\u00e9 \u4e2d\u6587", TWEET, TWEET + TWEET + "!"}) {
+            assertEquals(XXHash64.hash(s.getBytes(StandardCharsets.UTF_16LE), 221), XXHash64.hash(s, 221));
+        }
+    }
+
+    @Test
+    public void testSharedPayload() {
+        PayloadStore store = new PayloadStore();
+        long first = store.acquire(TWEET);
+        long second = store.acquire(new String(TWEET.toCharArray()));
+        long other = store.acquire("something else entirely");
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+        assertSame(store.get(first), store.get(second));
+        PayloadStats stats = store.stats();
+        assertEquals(2, stats.getPayloads());
+        assertEquals(3, stats.getReferences());
+        assertEquals(TWEET.length(), stats.getSavedBytes());
+        assertTrue(stats.getDedupRatio() > 1);
+        store.release(first);
+        assertEquals(TWEET, store.get(second));
+        store.release(second);
+        assertThrows(IllegalArgumentException.class, () -> store.get(first));
+        assertEquals(1, store.stats().getPayloads());
+    }
+
+    @Test
+    public void testArenaSharesContent() {
+        PayloadStore payloads = new PayloadStore();
+        MessageArena arena = new MessageArena(new MessageCodec(payloads));
+        long[] handles = new long[10];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = arena.store(new PubSubMessage(UUID.randomUUID(), new Timestamp(i), UUID.randomUUID(),
+                UUID.randomUUID(), TWEET, BasicMessageType.TWEET));
+        }
+        long shortOne = arena.store(new TransientPubSubMessage(UUID.randomUUID(), UUID.randomUUID(), "hi", 50));
+        assertEquals(1, payloads.stats().getPayloads());
+        assertEquals(10, payloads.stats().getReferences());
+        PubSubMessage view = arena.view(handles[3]);
+        assertEquals(TWEET, view.getContent());
+        assertEquals(3, view.getTimestampMillis());
+        assertEquals(50, ((TransientPubSubMessage) arena.view(shortOne)).getLifetime());
+        for (long handle : handles) {
+            arena.release(handle);
+        }
+        assertEquals(0, payloads.stats().getPayloads());
+        // the view keeps its content after the payload is dropped
+        assertEquals(TWEET, view.getContent());
+    }
+
+    @Test
+    public void testCodecRoundTrip() {
+        PayloadStore payloads = new PayloadStore();
+        MessageCodec codec = new MessageCodec(payloads);
+        PubSubMessage msg = new TransientPubSubMessage(UUID.randomUUID(), new Timestamp(7), UUID.randomUUID(),
+            UUID.randomUUID(), TWEET, BasicMessageType.TWEET, 30);
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        int size = codec.encode(msg, buf);
+        assertTrue(size < new MessageCodec().encodedSize(msg, 0));
+        buf.flip();
+        PubSubMessage decoded = codec.decode(buf);
+        assertEquals(TWEET, decoded.getContent());
+        assertEquals(30, ((TransientPubSubMessage) decoded).getLifetime());
+        buf.rewind();
+        assertThrows(IllegalArgumentException.class, () -> new MessageCodec().decode(buf));
+    }
+
+    @Test
+    public void testCompressedPayloads() {
+        String tweet = ContentCompressorTest.tweet(new Random(221));
+        PayloadStore payloads = new PayloadStore(new ContentCompressor(256));
+        MessageArena arena = new MessageArena(new MessageCodec(payloads));
+        long first = arena.store(new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), tweet));
+        long second = arena.store(new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), tweet));
+        arena.store(new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), TWEET));
+        PayloadStats stats = payloads.stats();
+        assertEquals(2, stats.getPayloads());
+        assertEquals(MessageCodec.utf8Length(tweet) + TWEET.length(), stats.getStoredBytes());
+        assertTrue(stats.getHeldBytes() < stats.getStoredBytes() - MessageCodec.utf8Length(tweet) / 4,
+            stats.toString());
+        assertTrue(stats.getCompressionRatio() > 1);
+        PubSubMessage view = arena.view(first);
+        assertEquals(tweet, view.getContent());
+        assertEquals("en", JsonContent.getString(view, "data", "lang"));
+        arena.release(first);
+        arena.release(second);
+        assertEquals(1, payloads.stats().getPayloads());
+        // the view inflates its content after the payload is dropped
+        assertEquals(tweet, view.getContent());
+    }
+
+    @Test
+    public void testStripesShareAcrossThreads() throws InterruptedException {
+        String tweet = ContentCompressorTest.tweet(new Random(17));
+        PayloadStore payloads = new PayloadStore(new ContentCompressor(256), 6);
+        MessageArena arena = new MessageArena(new MessageCodec(payloads), 256, null, 3);
+        // both round up to a power of two, and each arena stripe starts with a chunk
+        assertEquals(4 * 256, arena.footprint());
+        List<Thread> threads = new ArrayList<>();
+        List<List<Long>> handles = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            List<Long> mine = new ArrayList<>();
+            handles.add(mine);
+            int n = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    String content = i % 2 == 0 ? tweet : TWEET + " " + (n * 1000 + i);
+                    mine.add(arena.store(new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), content)));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800, arena.size());
+        // the shared tweet is stored once, deflated, whichever thread came first
+        assertEquals(401, payloads.stats().getPayloads());
+        assertEquals(800, payloads.stats().getReferences());
+        assertEquals(tweet, arena.view(handles.get(3).get(0)).getContent());
+        assertEquals(TWEET + " 2001", arena.view(handles.get(2).get(1)).getContent());
+        for (List<Long> mine : handles) {
+            for (long handle : mine) {
+                arena.release(handle);
+            }
+        }
+        assertEquals(0, arena.size());
+        assertEquals(0, payloads.stats().getPayloads());
+        assertEquals(4 * 256, arena.footprint());
+        assertThrows(IllegalArgumentException.class, () -> new PayloadStore(null, 0));
+        assertThrows(IllegalArgumentException.class, () -> new MessageArena(new MessageCodec(), 256, null, 0));
+    }
+}
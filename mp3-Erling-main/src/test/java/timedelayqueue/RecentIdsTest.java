@@ -0,0 +1,66 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecentIdsTest {
+
+    @Test
+    public void testDuplicatesWithinHorizon() {
+        VirtualClock clock = new VirtualClock(0);
+        RecentIds ids = new RecentIds(300, 1024, 1, clock);
+        UUID id = UUID.randomUUID();
+        assertTrue(ids.add(id));
+        assertFalse(ids.add(id));
+        clock.advance(299);
+        assertFalse(ids.add(id));
+        // a stripe rotates as ids are added to it; a few rotations later the id is gone
+        for (int i = 0; i < 6; i++) {
+            clock.advance(100);
+            ids.add(UUID.randomUUID());
+        }
+        assertTrue(ids.add(id));
+        assertThrows(IllegalArgumentException.class, () -> new RecentIds(300, 1024, 0, clock));
+    }
+
+    @Test
+    public void testBoundedMemory() {
+        RecentIds ids = new RecentIds(IdWindow.DEFAULT_HORIZON, 1024, 4, new VirtualClock(0));
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(ids.add(UUID.randomUUID()));
+        }
+        // per stripe, four generations of released ids and an empty queued table
+        assertTrue(ids.footprint() <= 4L * (4 * 2 * 256 + 2 * 16) * Long.BYTES, String.valueOf(ids.footprint()));
+    }
+
+    @Test
+    public void testConcurrentAddsAcceptEachIdOnce() throws InterruptedException {
+        RecentIds ids = new RecentIds(Clock.SYSTEM);
+        List<UUID> shared = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            shared.add(UUID.randomUUID());
+        }
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (UUID id : shared) {
+                    if (ids.add(id)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(shared.size(), accepted.get());
+    }
+}
@@ -0,0 +1,99 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimulationTest {
+
+    private static final int DELAY        = 40;
+    private static final int MSG_LIFETIME = 80;
+    private static final long DAY         = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void testDelayInVirtualTime() {
+        VirtualClock clock = new VirtualClock(1_000);
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, clock);
+        PubSubMessage msg = new PubSubMessage(clock, UUID.randomUUID(), UUID.randomUUID(), "test");
+        tdq.add(msg);
+        clock.advance(DELAY);
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+        clock.advance(1);
+        assertEquals(msg, tdq.getNext());
+    }
+
+    @Test
+    public void testTransientExpiresInVirtualTime() {
+        VirtualClock clock = new VirtualClock(0);
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, clock);
+        tdq.add(new TransientPubSubMessage(clock, UUID.randomUUID(), UUID.randomUUID(), "test", MSG_LIFETIME));
+        assertEquals(1, tdq.getSize());
+        clock.advance(MSG_LIFETIME + 1);
+        assertEquals(0, tdq.getSize());
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+    }
+
+    @Test
+    public void testClockNeverMovesBack() {
+        VirtualClock clock = new VirtualClock(100);
+        assertEquals(100, clock.advanceTo(50));
+        assertEquals(150, clock.advance(50));
+        assertThrows(IllegalArgumentException.class, () -> clock.advance(-1));
+    }
+
+    @Test
+    public void testActionsRunInTimeOrder() {
+        Simulation sim = new Simulation(0);
+        List<Long> seen = new ArrayList<>();
+        sim.at(30, () -> seen.add(sim.now()));
+        sim.at(10, () -> {
+            seen.add(sim.now());
+            sim.after(5, () -> seen.add(sim.now()));
+        });
+        sim.at(10, () -> seen.add(-sim.now()));
+        assertEquals(4, sim.run());
+        assertEquals(List.of(10L, -10L, 15L, 30L), seen);
+        assertEquals(0, sim.pending());
+    }
+
+    @Test
+    public void testRunUntil() {
+        Simulation sim = new Simulation(0);
+        List<Long> seen = new ArrayList<>();
+        sim.every(0, 10, 100, () -> seen.add(sim.now()));
+        assertEquals(5, sim.runUntil(45));
+        assertEquals(45, sim.now());
+        assertEquals(List.of(0L, 10L, 20L, 30L, 40L), seen);
+        assertEquals(6, sim.run());
+        assertEquals(100, sim.now());
+    }
+
+    @Test
+    public void testReplayDayOfTraffic() {
+        Simulation sim = new Simulation(0);
+        VirtualClock clock = sim.getClock();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, clock);
+        UUID sender = UUID.randomUUID();
+        UUID receiver = UUID.randomUUID();
+        long[] delivered = new long[1];
+        // one message a second and a consumer polling every 250 ms, for a day
+        sim.every(0, 1000, DAY - 1, () -> tdq.add(new PubSubMessage(clock, sender, receiver, "tick")));
+        sim.every(0, 250, DAY - 1, () -> {
+            PubSubMessage msg = tdq.getNext();
+            if (!msg.equals(PubSubMessage.NO_MSG)) {
+                assertTrue(sim.now() - msg.getTimestampMillis() > DELAY);
+                delivered[0]++;
+            }
+        });
+        long start = System.nanoTime();
+        sim.run();
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(DAY / 1000, delivered[0]);
+        assertEquals(DAY / 1000, tdq.getTotalMsgCount());
+        assertTrue(elapsed < DAY / 1000, "replay took " + elapsed + " ms");
+    }
+}
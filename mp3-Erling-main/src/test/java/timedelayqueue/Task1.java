@@ -4,7 +4,10 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import org.junit.jupiter.api.Test;
 
+import java.sql.Timestamp;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -144,4 +147,86 @@ public class Task1 {
     }
 
 
-}
\ No newline at end of file
+    @Test
+    public void testTakeWaitsForDelay() throws InterruptedException {
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY);
+        UUID sndID     = UUID.randomUUID();
+        UUID rcvID     = UUID.randomUUID();
+        PubSubMessage msg1 = new PubSubMessage(sndID, rcvID, gson.toJson("test"));
+        tdq.add(msg1);
+        assertEquals(msg1, tdq.take());
+        assertTrue(System.currentTimeMillis() - msg1.getTimestamp().getTime() > DELAY);
+    }
+
+    @Test
+    public void testGetNextTimeout() throws InterruptedException {
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY);
+        long start = System.nanoTime();
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext(DELAY, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(DELAY));
+
+        UUID sndID     = UUID.randomUUID();
+        UUID rcvID     = UUID.randomUUID();
+        PubSubMessage msg1 = new PubSubMessage(sndID, rcvID, gson.toJson("test"));
+        tdq.add(msg1);
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext(0, TimeUnit.MILLISECONDS));
+        assertEquals(msg1, tdq.getNext(4 * DELAY, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testTakeWakesOnEarlierHead() throws InterruptedException {
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY);
+        UUID sndID     = UUID.randomUUID();
+        UUID rcvID     = UUID.randomUUID();
+        PubSubMessage late = new PubSubMessage(UUID.randomUUID(),
+            new Timestamp(System.currentTimeMillis() + 100 * DELAY),
+            sndID, rcvID, gson.toJson("late"), BasicMessageType.SIMPLEMSG);
+        tdq.add(late);
+
+        AtomicReference<PubSubMessage> taken = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                taken.set(tdq.take());
+            }
+            catch (InterruptedException ie) {
+                fail();
+            }
+        });
+        reader.start();
+        Thread.sleep(DELAY);
+
+        PubSubMessage early = new PubSubMessage(sndID, rcvID, gson.toJson("early"));
+        tdq.add(early);
+        reader.join(10 * DELAY);
+        assertFalse(reader.isAlive());
+        assertEquals(early, taken.get());
+    }
+
+    @Test
+    public void testExpiredTransientNotCounted() {
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY);
+
+        UUID sndID     = UUID.randomUUID();
+        UUID rcvID     = UUID.randomUUID();
+        String msgText = gson.toJson("test");
+        PubSubMessage          msg1 = new PubSubMessage(sndID, rcvID, msgText);
+        TransientPubSubMessage msg2 = new TransientPubSubMessage(sndID, rcvID, msgText, MSG_LIFETIME);
+        TransientPubSubMessage msg3 = new TransientPubSubMessage(sndID, rcvID, msgText, 4 * MSG_LIFETIME);
+        tdq.add(msg1);
+        tdq.add(msg2);
+        tdq.add(msg3);
+        assertEquals(3, tdq.getSize());
+        try {
+            Thread.sleep(MSG_LIFETIME + 1);
+        }
+        catch (InterruptedException ie) {
+            fail();
+        }
+        assertEquals(2, tdq.getSize());
+        assertEquals(3, tdq.getTotalMsgCount());
+        assertEquals(msg1, tdq.getNext());
+        assertEquals(msg3, tdq.getNext());
+        assertEquals(0, tdq.getSize());
+    }
+
+}
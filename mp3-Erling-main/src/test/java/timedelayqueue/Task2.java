@@ -187,4 +187,61 @@ public class Task2 {
         assertTrue(tdq.getPeakLoad(window)<200);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testPeakLoadEmpty() {
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY);
+        assertEquals(0, tdq.getPeakLoad(DELAY));
+    }
+
+    @Test
+    public void testPeakLoadTracksNewOperations() {
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY);
+        UUID sndID = UUID.randomUUID();
+        UUID rcvID = UUID.randomUUID();
+        for (int i = 0; i < 5; i++) {
+            tdq.add(new PubSubMessage(sndID, rcvID, gson.toJson("first burst")));
+        }
+        assertEquals(5, tdq.getPeakLoad(DELAY));
+
+        try {
+            Thread.sleep(4 * DELAY);
+        }
+        catch (InterruptedException ie) {
+            fail();
+        }
+
+        for (int i = 0; i < 8; i++) {
+            tdq.add(new PubSubMessage(sndID, rcvID, gson.toJson("second burst")));
+        }
+        assertEquals(8, tdq.getPeakLoad(DELAY));
+        assertEquals(13, tdq.getPeakLoad(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testAddAllAndDrainReady() {
+        TimeDelayQueue tdq          = new TimeDelayQueue(DELAY);
+        List<PubSubMessage> msgList = new ArrayList<>();
+        UUID sndID = UUID.randomUUID();
+        UUID rcvID = UUID.randomUUID();
+        for (int i = 0; i < NUM_MSGS; i++) {
+            msgList.add(new PubSubMessage(sndID, rcvID, gson.toJson("batch " + i)));
+        }
+        msgList.add(msgList.get(0));
+        assertEquals(NUM_MSGS, tdq.addAll(msgList));
+        assertEquals(NUM_MSGS, tdq.getTotalMsgCount());
+
+        List<PubSubMessage> drained = new ArrayList<>();
+        assertEquals(0, tdq.drainReady(drained, NUM_MSGS));
+        try {
+            Thread.sleep(2 * DELAY);
+        }
+        catch (InterruptedException ie) {
+            fail();
+        }
+        assertEquals(3, tdq.drainReady(drained, 3));
+        assertEquals(NUM_MSGS - 3, tdq.drainReady(drained, Integer.MAX_VALUE));
+        assertEquals(msgList.subList(0, NUM_MSGS), drained);
+        assertEquals(0, tdq.getSize());
+    }
+
+}